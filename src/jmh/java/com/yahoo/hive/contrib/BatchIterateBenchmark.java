@@ -0,0 +1,159 @@
+package com.yahoo.hive.contrib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The map-side iterate() of approx_distinct, minhash and modhash one row at
+ * a time against iterateBatch() over column batches of the same values,
+ * each ending with the partial of one task.
+ *
+ * @author harshars
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchIterateBenchmark {
+
+	@Param({"approx_distinct", "minhash", "modhash"})
+	public String function;
+
+	@Param({"bigint", "string"})
+	public String type;
+
+	@Param({"100000"})
+	public int size;
+
+	// rows per column batch, as Hive's VectorizedRowBatch.DEFAULT_SIZE
+	@Param({"1024"})
+	public int batch;
+
+	static final int K = 128;
+
+	private GenericUDAFEvaluator evaluator;
+	private Object[][] rows;
+
+	// the batches of a bigint column
+	private long[][] longs;
+
+	// the batches of a string column, slices of one array each
+	private byte[][][] strings;
+	private int[][] starts;
+	private int[][] lengths;
+
+	private boolean[] isNull;
+
+	@Setup
+	public void setup() throws HiveException {
+		boolean text = type.equals("string");
+		ObjectInspector valueOI = text ? PrimitiveObjectInspectorFactory.writableStringObjectInspector
+				: PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+		TypeInfo valueInfo = text ? TypeInfoFactory.stringTypeInfo : TypeInfoFactory.longTypeInfo;
+		AbstractGenericUDAFResolver resolver;
+		TypeInfo[] info;
+		ObjectInspector[] parameters;
+		if (function.equals("approx_distinct")) {
+			resolver = new ApproxDistinctCountUDAF();
+			info = new TypeInfo[] {valueInfo};
+			parameters = new ObjectInspector[] {valueOI};
+		} else {
+			resolver = function.equals("minhash") ? new MinHashUDAF() : new ModHashUDAF();
+			info = new TypeInfo[] {valueInfo, TypeInfoFactory.intTypeInfo};
+			parameters = new ObjectInspector[] {valueOI, PrimitiveObjectInspectorFactory.writableIntObjectInspector};
+		}
+		evaluator = resolver.getEvaluator(info);
+		evaluator.init(Mode.PARTIAL1, parameters);
+
+		long[] ids = BenchmarkData.ids(size, size / 4, 0, 1);
+		IntWritable k = new IntWritable(K);
+		rows = new Object[size][];
+		int batches = (size + batch - 1) / batch;
+		longs = new long[batches][batch];
+		strings = new byte[batches][batch][];
+		starts = new int[batches][batch];
+		lengths = new int[batches][batch];
+		isNull = new boolean[batch];
+		byte[][] buffers = new byte[batches][];
+		for (int i = 0; i < size; i++) {
+			Text value = new Text("user-" + ids[i]);
+			rows[i] = new Object[] {text ? value : new LongWritable(ids[i]), k};
+			int b = i / batch;
+			int j = i % batch;
+			longs[b][j] = ids[i];
+			if (buffers[b] == null) {
+				buffers[b] = new byte[batch * 16];
+			}
+			starts[b][j] = j == 0 ? 0 : starts[b][j - 1] + lengths[b][j - 1];
+			lengths[b][j] = value.getLength();
+			System.arraycopy(value.getBytes(), 0, buffers[b], starts[b][j], value.getLength());
+			strings[b][j] = buffers[b];
+		}
+	}
+
+	@Benchmark
+	public Object rows() throws HiveException {
+		AggregationBuffer buffer = evaluator.getNewAggregationBuffer();
+		for (int i = 0; i < rows.length; i++) {
+			evaluator.iterate(buffer, rows[i]);
+		}
+		return evaluator.terminatePartial(buffer);
+	}
+
+	@Benchmark
+	public Object batches() throws HiveException {
+		AggregationBuffer buffer = evaluator.getNewAggregationBuffer();
+		boolean text = type.equals("string");
+		for (int b = 0; b < longs.length; b++) {
+			int n = Math.min(batch, size - b * batch);
+			if (evaluator instanceof ApproxDistinctCountUDAF.SketchEvaluator) {
+				ApproxDistinctCountUDAF.SketchEvaluator e = (ApproxDistinctCountUDAF.SketchEvaluator) evaluator;
+				if (text) {
+					e.iterateBatch(buffer, strings[b], starts[b], lengths[b], isNull, true, n);
+				} else {
+					e.iterateBatch(buffer, longs[b], isNull, true, n);
+				}
+			} else if (evaluator instanceof MinHashUDAF.MinHashEvaluator) {
+				MinHashUDAF.MinHashEvaluator e = (MinHashUDAF.MinHashEvaluator) evaluator;
+				if (text) {
+					e.iterateBatch(buffer, K, strings[b], starts[b], lengths[b], isNull, true, n);
+				} else {
+					e.iterateBatch(buffer, K, longs[b], isNull, true, n);
+				}
+			} else {
+				ModHashUDAF.ModHashEvaluator e = (ModHashUDAF.ModHashEvaluator) evaluator;
+				if (text) {
+					e.iterateBatch(buffer, K, strings[b], starts[b], lengths[b], isNull, true, n);
+				} else {
+					e.iterateBatch(buffer, K, longs[b], isNull, true, n);
+				}
+			}
+		}
+		return evaluator.terminatePartial(buffer);
+	}
+}
@@ -0,0 +1,68 @@
+package com.yahoo.hive.contrib;
+
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+
+/**
+ * Synthetic data and the aggregation lifecycle shared by the benchmarks.
+ *
+ * @author harshars
+ *
+ */
+final class BenchmarkData {
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * size ids in [0, distinct). With skew 0 they are uniform, larger skews
+	 * put more and more of the rows on the smallest ids, as the hot keys of
+	 * real data do.
+	 */
+	static long[] ids(int size, int distinct, double skew, long seed) {
+		Random random = new Random(seed);
+		long[] ids = new long[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = (long) (Math.pow(random.nextDouble(), 1 + skew) * distinct);
+		}
+		return ids;
+	}
+
+	/**
+	 * Aggregates rows as a query would: tasks map-side PARTIAL1 buffers over
+	 * consecutive slices of the rows, each merged into one FINAL buffer as
+	 * soon as its partial is emitted.
+	 */
+	static Object aggregate(AbstractGenericUDAFResolver resolver, TypeInfo[] info,
+			ObjectInspector[] parameters, Object[][] rows, int tasks) throws Exception {
+		GenericUDAFEvaluator mapper = resolver.getEvaluator(info);
+		ObjectInspector partialOI = mapper.init(Mode.PARTIAL1, parameters);
+		GenericUDAFEvaluator reducer = resolver.getEvaluator(info);
+		reducer.init(Mode.FINAL, new ObjectInspector[] {partialOI});
+		AggregationBuffer merged = reducer.getNewAggregationBuffer();
+		AggregationBuffer buffer = mapper.getNewAggregationBuffer();
+		for (int task = 0; task < tasks; task++) {
+			int end = (int) ((long) rows.length * (task + 1) / tasks);
+			for (int i = (int) ((long) rows.length * task / tasks); i < end; i++) {
+				mapper.iterate(buffer, rows[i]);
+			}
+			reducer.merge(merged, mapper.terminatePartial(buffer));
+			mapper.reset(buffer);
+		}
+		return terminate(reducer, merged);
+	}
+
+	private static Object terminate(GenericUDAFEvaluator evaluator, AggregationBuffer buffer)
+			throws HiveException {
+		Object result = evaluator.terminate(buffer);
+		evaluator.reset(buffer);
+		return result;
+	}
+}
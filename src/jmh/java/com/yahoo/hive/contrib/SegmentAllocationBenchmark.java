@@ -0,0 +1,166 @@
+package com.yahoo.hive.contrib;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.yahoo.hive.contrib.SegmentUDAF.SegmentAggBuffer;
+import com.yahoo.hive.contrib.SegmentUDAF.SegmentEvaluator;
+
+/**
+ * Each phase of segment() in a map-side and reduce-side aggregation of a
+ * few map tasks, each with one group of skewed keys and repeated values.
+ * An operation is an input row, so the gc.alloc.rate.norm of -prof gc is
+ * the bytes a phase allocates per row.
+ *
+ * @author harshars
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentAllocationBenchmark {
+
+	static final int ROWS = 250000;
+	static final int TASKS = 4;
+
+	@Param({"string:string", "bigint:int", "string:double"})
+	public String types;
+
+	private SegmentEvaluator mapper;
+	private SegmentEvaluator reducer;
+	// the input row, whose writables are set as a serde would
+	private Object[] row;
+	private int[] keys;
+	private int[] values;
+	private SegmentAggBuffer[] buffers;
+	private Object[] partials;
+	private SegmentAggBuffer merged;
+
+	private static final Text[] TEXTS = new Text[20000];
+	static {
+		for (int i = 0; i < TEXTS.length; i++) {
+			TEXTS[i] = new Text("value-" + i);
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		String[] names = types.split(":");
+		TypeInfo[] info = {TypeInfoFactory.getPrimitiveTypeInfo(names[0]),
+			TypeInfoFactory.getPrimitiveTypeInfo(names[1])};
+		ObjectInspector[] parameters = new ObjectInspector[2];
+		row = new Object[2];
+		for (int i = 0; i < 2; i++) {
+			if (names[i].equals("string")) {
+				parameters[i] = PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+				row[i] = new Text();
+			} else if (names[i].equals("bigint")) {
+				parameters[i] = PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+				row[i] = new LongWritable();
+			} else if (names[i].equals("int")) {
+				parameters[i] = PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+				row[i] = new IntWritable();
+			} else {
+				parameters[i] = PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+				row[i] = new DoubleWritable();
+			}
+		}
+		SegmentUDAF udaf = new SegmentUDAF();
+		mapper = udaf.getEvaluator(info);
+		ObjectInspector partialOI = mapper.init(GenericUDAFEvaluator.Mode.PARTIAL1, parameters);
+		reducer = udaf.getEvaluator(info);
+		reducer.init(GenericUDAFEvaluator.Mode.FINAL, new ObjectInspector[] {partialOI});
+
+		Random random = new Random(0);
+		keys = new int[ROWS];
+		values = new int[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			keys[i] = (int) Math.abs(random.nextGaussian() * 2000);
+			values[i] = random.nextInt(100);
+		}
+		buffers = iterate();
+		partials = new Object[TASKS];
+		for (int task = 0; task < TASKS; task++) {
+			partials[task] = mapper.terminatePartial(buffers[task]);
+		}
+		merged = merge();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public SegmentAggBuffer[] iterate() throws Exception {
+		SegmentAggBuffer[] ret = new SegmentAggBuffer[TASKS];
+		for (int task = 0; task < TASKS; task++) {
+			ret[task] = mapper.getNewAggregationBuffer();
+			for (int i = task; i < ROWS; i += TASKS) {
+				set(row[0], keys[i]);
+				set(row[1], values[i]);
+				mapper.iterate(ret[task], row);
+			}
+		}
+		return ret;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void terminatePartial(Blackhole blackhole) throws Exception {
+		for (SegmentAggBuffer buffer : buffers) {
+			blackhole.consume(mapper.terminatePartial(buffer));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public SegmentAggBuffer merge() throws Exception {
+		SegmentAggBuffer ret = reducer.getNewAggregationBuffer();
+		for (Object partial : partials) {
+			reducer.merge(ret, partial);
+		}
+		return ret;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public Object terminate() throws Exception {
+		return reducer.terminate(merged);
+	}
+
+	private static void set(Object writable, int v) {
+		if (writable instanceof Text) {
+			// copies into the reused text, as a serde would
+			((Text) writable).set(TEXTS[v % TEXTS.length]);
+		} else if (writable instanceof LongWritable) {
+			((LongWritable) writable).set(v);
+		} else if (writable instanceof IntWritable) {
+			((IntWritable) writable).set(v);
+		} else {
+			((DoubleWritable) writable).set(v / 4.0);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.yahoo.hive.contrib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * segment() over one group of string keys with bigint values, from
+ * map-side iterate() to the final terminate(), with each of its options.
+ *
+ * @author harshars
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentUDAFBenchmark {
+
+	@Param({"100000"})
+	public int size;
+
+	@Param({"0", "2"})
+	public double skew;
+
+	@Param({"8"})
+	public int tasks;
+
+	@Param({"", "binary"})
+	public String options;
+
+	private final TypeInfo[] info = {TypeInfoFactory.stringTypeInfo, TypeInfoFactory.longTypeInfo,
+		TypeInfoFactory.stringTypeInfo};
+	private ObjectInspector[] parameters;
+	private Object[][] rows;
+
+	@Setup
+	public void setup() {
+		parameters = new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+			PrimitiveObjectInspectorFactory.writableLongObjectInspector,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveCategory.STRING, new Text(options))};
+		long[] keys = BenchmarkData.ids(size, 1000, skew, 3);
+		long[] values = BenchmarkData.ids(size, 10000, skew, 4);
+		rows = new Object[size][];
+		for (int i = 0; i < size; i++) {
+			rows[i] = new Object[] {new Text("key-" + keys[i]), new LongWritable(values[i])};
+		}
+	}
+
+	@Benchmark
+	public Object aggregate() throws Exception {
+		return BenchmarkData.aggregate(new SegmentUDAF(), info, parameters, rows, tasks);
+	}
+}
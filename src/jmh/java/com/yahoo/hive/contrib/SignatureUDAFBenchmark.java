@@ -0,0 +1,92 @@
+package com.yahoo.hive.contrib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.streamlib.MinHash;
+import com.yahoo.streamlib.ModHash;
+
+/**
+ * similarity and overlap over rows of x and y signatures, each built from a
+ * few ids, from map-side iterate() to the final terminate().
+ *
+ * @author harshars
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureUDAFBenchmark {
+
+	// ids per signature
+	private static final int IDS = 8;
+
+	@Param({"similarity", "overlap"})
+	public String function;
+
+	@Param({"10000"})
+	public int size;
+
+	@Param({"0", "2"})
+	public double skew;
+
+	@Param({"8"})
+	public int tasks;
+
+	private AbstractGenericUDAFResolver resolver;
+	private final TypeInfo[] info = {TypeInfoFactory.binaryTypeInfo, TypeInfoFactory.binaryTypeInfo};
+	private final ObjectInspector[] parameters = {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+		PrimitiveObjectInspectorFactory.writableBinaryObjectInspector};
+	private Object[][] rows;
+
+	@Setup
+	public void setup() {
+		boolean minHash = function.equals("similarity");
+		resolver = minHash ? new SimilarityUDAF() : new OverlapUDAF();
+		long[] ids = BenchmarkData.ids(2 * size * IDS, size, skew, 2);
+		rows = new Object[size][];
+		for (int i = 0; i < size; i++) {
+			rows[i] = new Object[] {signature(minHash, ids, 2 * i * IDS), signature(minHash, ids, (2 * i + 1) * IDS)};
+		}
+	}
+
+	private static BytesWritable signature(boolean minHash, long[] ids, int from) {
+		if (minHash) {
+			MinHash signature = new MinHash(128);
+			for (int i = from; i < from + IDS; i++) {
+				signature.update(ids[i]);
+			}
+			return new BytesWritable(signature.toBytes());
+		}
+		ModHash signature = new ModHash(128);
+		for (int i = from; i < from + IDS; i++) {
+			signature.update(ids[i]);
+		}
+		return new BytesWritable(signature.toBytes());
+	}
+
+	@Benchmark
+	public Object aggregate() throws Exception {
+		return BenchmarkData.aggregate(resolver, info, parameters, rows, tasks);
+	}
+}
@@ -0,0 +1,101 @@
+package com.yahoo.hive.contrib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * approx_distinct, with each of its engines, minhash and modhash
+ * over one group of bigint or string values, from map-side iterate() to the
+ * final terminate().
+ *
+ * @author harshars
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SketchUDAFBenchmark {
+
+	@Param({"approx_distinct", "approx_distinct_hllpp", "approx_distinct_adaptive", "minhash", "modhash"})
+	public String function;
+
+	@Param({"bigint", "string"})
+	public String type;
+
+	@Param({"100000"})
+	public int size;
+
+	@Param({"0", "2"})
+	public double skew;
+
+	// map tasks
+	@Param({"8"})
+	public int tasks;
+
+	private AbstractGenericUDAFResolver resolver;
+	private TypeInfo[] info;
+	private ObjectInspector[] parameters;
+	private Object[][] rows;
+
+	@Setup
+	public void setup() {
+		boolean strings = type.equals("string");
+		ObjectInspector valueOI = strings ? PrimitiveObjectInspectorFactory.writableStringObjectInspector
+				: PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+		TypeInfo valueInfo = strings ? TypeInfoFactory.stringTypeInfo : TypeInfoFactory.longTypeInfo;
+		Object argument = null;
+		if (function.equals("approx_distinct")) {
+			resolver = new ApproxDistinctCountUDAF();
+			info = new TypeInfo[] {valueInfo};
+			parameters = new ObjectInspector[] {valueOI};
+		} else if (function.startsWith("approx_distinct_")) {
+			resolver = new ApproxDistinctCountUDAF();
+			argument = new Text(function.substring("approx_distinct_".length()));
+			info = new TypeInfo[] {valueInfo, TypeInfoFactory.stringTypeInfo};
+			parameters = new ObjectInspector[] {valueOI,
+					PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(PrimitiveCategory.STRING,
+							argument)};
+		} else {
+			resolver = function.equals("minhash") ? new MinHashUDAF() : new ModHashUDAF();
+			info = new TypeInfo[] {valueInfo, TypeInfoFactory.intTypeInfo};
+			parameters = new ObjectInspector[] {valueOI, PrimitiveObjectInspectorFactory.writableIntObjectInspector};
+		}
+		long[] ids = BenchmarkData.ids(size, size / 4, skew, 1);
+		if (argument == null) {
+			argument = new IntWritable(128);
+		}
+		rows = new Object[size][];
+		for (int i = 0; i < size; i++) {
+			Object value = strings ? new Text("user-" + ids[i]) : new LongWritable(ids[i]);
+			rows[i] = new Object[] {value, argument};
+		}
+	}
+
+	@Benchmark
+	public Object aggregate() throws Exception {
+		return BenchmarkData.aggregate(resolver, info, parameters, rows, tasks);
+	}
+}
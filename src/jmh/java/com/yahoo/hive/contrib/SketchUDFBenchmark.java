@@ -0,0 +1,101 @@
+package com.yahoo.hive.contrib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * sketch_estimate, sketch_union and sketch_intersect over rows of two
+ * stored sketches of each engine, of skewed sizes.
+ *
+ * @author harshars
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SketchUDFBenchmark {
+
+	@Param({"cus", "hllpp", "adaptive"})
+	public String engine;
+
+	@Param({"10000"})
+	public int size;
+
+	@Param({"0", "2"})
+	public double skew;
+
+	private SketchEstimateUDF estimate;
+	private SketchUnionUDF union;
+	private SketchIntersectUDF intersect;
+	private DeferredObject[][] rows;
+
+	@Setup
+	public void setup() throws Exception {
+		ObjectInspector binary = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+		estimate = new SketchEstimateUDF();
+		estimate.initialize(new ObjectInspector[] {binary});
+		union = new SketchUnionUDF();
+		union.initialize(new ObjectInspector[] {binary, binary});
+		intersect = new SketchIntersectUDF();
+		intersect.initialize(new ObjectInspector[] {binary, binary});
+
+		DistinctCounter<?> counter = engine.equals(DistinctCounter.ENGINE_HLLPP) ? DistinctCounter.HLLPP
+				: engine.equals(DistinctCounter.ENGINE_ADAPTIVE) ? DistinctCounter.ADAPTIVE
+				: DistinctCounter.COUNT_UNIQUE;
+		// most groups are small, a few are large
+		long[] sizes = BenchmarkData.ids(size, 10000, 2 + skew, 3);
+		rows = new DeferredObject[size][];
+		for (int i = 0; i < size; i++) {
+			rows[i] = new DeferredObject[] {sketch(counter, 0, sizes[i]), sketch(counter, sizes[i] / 2, sizes[i])};
+		}
+	}
+
+	private static <S> DeferredObject sketch(DistinctCounter<S> counter, long from, long to) {
+		S sketch = counter.create();
+		for (long v = from; v <= to; v++) {
+			counter.update(sketch, v);
+		}
+		return new DeferredJavaObject(new BytesWritable(counter.serialize(sketch)));
+	}
+
+	@Benchmark
+	public void estimate(Blackhole blackhole) throws Exception {
+		for (DeferredObject[] row : rows) {
+			blackhole.consume(estimate.evaluate(row));
+		}
+	}
+
+	@Benchmark
+	public void union(Blackhole blackhole) throws Exception {
+		for (DeferredObject[] row : rows) {
+			blackhole.consume(union.evaluate(row));
+		}
+	}
+
+	@Benchmark
+	public void intersect(Blackhole blackhole) throws Exception {
+		for (DeferredObject[] row : rows) {
+			blackhole.consume(intersect.evaluate(row));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * reseq and nth evaluated over size rows, with a constant regex for reseq.
+ *
+ * @author harshars
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UDFBenchmark {
+
+	@Param({"100000"})
+	public int size;
+
+	@Param({"0", "2"})
+	public double skew;
+
+	@Param({"\\d+", "value(\\d+)"})
+	public String regex;
+
+	private ReseqUDF reseq;
+	private TakeNthUDF nth;
+	private DeferredObject[][] reseqRows;
+	private DeferredObject[][] nthRows;
+
+	@Setup
+	public void setup() throws Exception {
+		reseq = new ReseqUDF();
+		reseq.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveCategory.STRING, new Text(regex))});
+		nth = new TakeNthUDF();
+		nth.initialize(new ObjectInspector[] {
+			ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector),
+			PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+
+		// the number of matches per row is skewed
+		long[] lengths = BenchmarkData.ids(size, 64, skew, 5);
+		reseqRows = new DeferredObject[size][];
+		nthRows = new DeferredObject[size][];
+		DeferredObject n = new DeferredJavaObject(new IntWritable(3));
+		DeferredObject pattern = new DeferredJavaObject(new Text(regex));
+		for (int i = 0; i < size; i++) {
+			StringBuilder sb = new StringBuilder();
+			List<Text> array = new ArrayList<Text>();
+			for (int j = 0; j <= lengths[i]; j++) {
+				sb.append("catid").append(i + j).append("value").append(j).append("score;");
+				array.add(new Text("value" + j));
+			}
+			reseqRows[i] = new DeferredObject[] {new DeferredJavaObject(new Text(sb.toString())), pattern};
+			nthRows[i] = new DeferredObject[] {new DeferredJavaObject(array), n};
+		}
+	}
+
+	@Benchmark
+	public void reseq(Blackhole blackhole) throws Exception {
+		for (DeferredObject[] row : reseqRows) {
+			blackhole.consume(reseq.evaluate(row));
+		}
+	}
+
+	@Benchmark
+	public void nth(Blackhole blackhole) throws Exception {
+		for (DeferredObject[] row : nthRows) {
+			List<Object> picked = nth.evaluate(row);
+			for (int i = 0; i < picked.size(); i++) {
+				blackhole.consume(picked.get(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.yahoo.hive.contrib;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.yahoo.eta.stats.cus.CountUniqueSketch;
+import com.yahoo.eta.stats.cus.CountUniqueSketchSerialization;
+
+/**
+ * The distinct 64 bit hashes of a stream, kept exactly in a set until there
+ * are more than threshold of them, and from then on in a count unique
+ * sketch, which the hashes seen so far are replayed into. Most groups have
+ * few values, and never allocate or serialize a sketch.
+ * <p>
+ * The sketch is one of the hashes rather than of the values, so it can
+ * only be merged with other adaptive sketches. Sketches serialize to the
+ * magic bytes "ADP", a tag saying whether they are exact or a sketch and
+ * the threshold, then either the count and the hashes, or the serialized
+ * count unique sketch. Exact and sketched partials merge either way.
+ *
+ * @author harshars
+ *
+ */
+class AdaptiveSketch {
+
+	static final int DEFAULT_THRESHOLD = 512;
+	static final int MAX_THRESHOLD = 1 << 16;
+
+	private static final byte[] MAGIC = {'A', 'D', 'P'};
+	private static final byte EXACT = 1;
+	private static final byte SKETCH = 2;
+
+	private final int threshold;
+
+	// the hashes while exact, then null
+	private LongIntHashMap hashes;
+	private CountUniqueSketch sketch;
+
+	AdaptiveSketch(int threshold) {
+		if (threshold < 0 || threshold > MAX_THRESHOLD) {
+			throw new IllegalArgumentException("The threshold of an adaptive sketch must be from 0 to "
+					+ MAX_THRESHOLD + " but was " + threshold);
+		}
+		this.threshold = threshold;
+		hashes = new LongIntHashMap();
+	}
+
+	int getThreshold() {
+		return threshold;
+	}
+
+	boolean isExact() {
+		return hashes != null;
+	}
+
+	boolean isEmpty() {
+		return hashes != null ? hashes.size() == 0 : sketch.isEmpty();
+	}
+
+	void update(long v) {
+		add(HyperLogLogPlus.hash(v));
+	}
+
+	void update(byte[] bytes, int offset, int length) {
+		add(HyperLogLogPlus.hash(bytes, offset, length));
+	}
+
+	void add(long hash) {
+		if (hashes == null) {
+			sketch.update(hash);
+		} else if (hashes.get(hash) == 0) {
+			hashes.add(hash, 1);
+			if (hashes.size() > threshold) {
+				toSketch();
+			}
+		}
+	}
+
+	/**
+	 * Merges other into this sketch, in place while this one is exact, and
+	 * returns this sketch.
+	 */
+	AdaptiveSketch merge(AdaptiveSketch other) {
+		if (other.hashes != null) {
+			LongIntHashMap others = other.hashes;
+			for (int i = 0; i < others.capacity(); i++) {
+				if (others.countAt(i) != 0) {
+					add(others.keyAt(i));
+				}
+			}
+		} else {
+			if (hashes != null) {
+				toSketch();
+			}
+			sketch = sketch.merge(other.sketch);
+		}
+		return this;
+	}
+
+	long cardinality() {
+		return hashes != null ? hashes.size() : Math.round(sketch.getInverseEstimate());
+	}
+
+	/**
+	 * The variance of the cardinality, 0 while it is exact.
+	 */
+	double getVariance() {
+		return hashes != null ? 0 : sketch.getVariance();
+	}
+
+	byte[] toBytes() {
+		DataOutputBuffer out = new DataOutputBuffer();
+		try {
+			out.write(MAGIC);
+			out.writeByte(hashes != null ? EXACT : SKETCH);
+			WritableUtils.writeVInt(out, threshold);
+			if (hashes != null) {
+				WritableUtils.writeVInt(out, hashes.size());
+				for (int i = 0; i < hashes.capacity(); i++) {
+					if (hashes.countAt(i) != 0) {
+						out.writeLong(hashes.keyAt(i));
+					}
+				}
+			} else {
+				out.write(CountUniqueSketchSerialization.serializeSketch(sketch));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return SketchBytes.slice(out.getData(), 0, out.getLength());
+	}
+
+	/**
+	 * Whether the bytes [offset, offset + length) are a serialized adaptive
+	 * sketch.
+	 */
+	static boolean isSketch(byte[] bytes, int offset, int length) {
+		if (length < MAGIC.length + 2) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[offset + i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the sketch serialized in the bytes [offset, offset + length).
+	 */
+	static AdaptiveSketch fromBytes(byte[] bytes, int offset, int length) {
+		if (!isSketch(bytes, offset, length)) {
+			throw new IllegalArgumentException("Not a serialized adaptive sketch");
+		}
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(bytes, offset + MAGIC.length, length - MAGIC.length);
+		try {
+			byte tag = in.readByte();
+			AdaptiveSketch sketch = new AdaptiveSketch(WritableUtils.readVInt(in));
+			if (tag == EXACT) {
+				int size = WritableUtils.readVInt(in);
+				sketch.hashes = new LongIntHashMap(size);
+				for (int i = 0; i < size; i++) {
+					sketch.hashes.add(in.readLong(), 1);
+				}
+			} else if (tag == SKETCH) {
+				int start = in.getPosition();
+				sketch.hashes = null;
+				sketch.sketch = SketchBytes.countUnique(bytes, start, offset + length - start);
+			} else {
+				throw new IllegalArgumentException("Unknown adaptive sketch tag " + tag);
+			}
+			return sketch;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Truncated adaptive sketch", e);
+		}
+	}
+
+	private void toSketch() {
+		sketch = new CountUniqueSketch();
+		for (int i = 0; i < hashes.capacity(); i++) {
+			if (hashes.countAt(i) != 0) {
+				sketch.update(hashes.keyAt(i));
+			}
+		}
+		hashes = null;
+	}
+}
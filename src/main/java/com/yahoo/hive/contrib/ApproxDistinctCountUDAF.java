@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
@@ -12,33 +13,37 @@ import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
 
-import com.yahoo.eta.stats.cus.CountUniqueSketch;
-import com.yahoo.eta.stats.cus.CountUniqueSketchSerialization;
-
 /**
  * Hive Generic UDAF that computes an approximate distinct count, using a count
- * unique sketch.
+ * unique sketch, or with the engine 'hllpp' a HyperLogLog++ sketch of
+ * precision p, whose sparse partials are much smaller for small groups.
+ * The engine 'adaptive' keeps the exact set of hashes of a group, with an
+ * error of 0, until it has more than a threshold of them, and only then
+ * turns to a count unique sketch. Partials are merged with the engine they
+ * were built with.
  * 
  * @author harshars
  * 
  */
 @Description(name = "approx_distinct", 
-value = "_FUNC_(x) - x is either a serialized sketch, or an item to be distinct counted " +
-		", returns a struct of the form (cardinality: _ , error: _ , sketch: _)",
-extended = "Example: SELECT approx_distinct(values) FROM src;")
+value = "_FUNC_(x[, engine[, n]]) - x is either a serialized sketch, or an item to be distinct counted " +
+		", returns a struct of the form (cardinality: _ , error: _ , sketch: _). " +
+		"engine is 'cus' (the default), 'hllpp' with 2^n registers for n from 4 to 18 (default 14), " +
+		"or 'adaptive', exact up to n distinct values for n up to 65536 (default 512)",
+extended = "Example: SELECT approx_distinct(values), approx_distinct(values, 'hllpp', 12), " +
+		"approx_distinct(values, 'adaptive') FROM src;")
 public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 
 	static final Log log = LogFactory.getLog(ApproxDistinctCountUDAF.class);
@@ -46,9 +51,9 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 	@Override
 	public SketchEvaluator getEvaluator(TypeInfo[] info)
 			throws SemanticException {
-		if (info.length != 1) {
+		if (info.length < 1 || info.length > 3) {
 			throw new UDFArgumentTypeException(info.length - 1,
-					"Please specify exactly one argument.");
+					"Please specify one to three arguments.");
 		}
 		Category category = info[0].getCategory();
 		if (!category.equals(ObjectInspector.Category.PRIMITIVE)) {
@@ -57,6 +62,14 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 							+ info[0].getTypeName()
 							+ " was passed as parameter.");
 		}
+		if (info.length > 1 && !info[1].equals(TypeInfoFactory.stringTypeInfo)) {
+			throw new UDFArgumentTypeException(1, "The engine must be a string but "
+					+ info[1].getTypeName() + " was passed as parameter.");
+		}
+		if (info.length > 2 && !info[2].equals(TypeInfoFactory.intTypeInfo)) {
+			throw new UDFArgumentTypeException(2, "The size must be an int but "
+					+ info[2].getTypeName() + " was passed as parameter.");
+		}
 		return new SketchEvaluator();
 	}
 
@@ -65,6 +78,10 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 		// input OI
 		PrimitiveObjectInspector inputOI;
 
+		// chosen in init() from the engine and the input type
+		DistinctCounter<Object> counter;
+		SketchFeeder<Object> feeder;
+
 		// intermediate results
 		BinaryObjectInspector partialOI;
 
@@ -79,8 +96,10 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 				throws HiveException {
 			super.init(m, parameters);
 			if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
-				assert (parameters.length == 1);
+				assert (parameters.length >= 1 && parameters.length <= 3);
 				inputOI = (PrimitiveObjectInspector) parameters[0];
+				counter = engine(parameters);
+				feeder = SketchFeeder.create(inputOI, counter);
 			} else {
 				partialOI = (BinaryObjectInspector) parameters[0];
 			}
@@ -100,6 +119,51 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 			}
 		}
 
+		@SuppressWarnings("unchecked")
+		private static DistinctCounter<Object> engine(ObjectInspector[] parameters) throws UDFArgumentException {
+			if (parameters.length == 1) {
+				return (DistinctCounter<Object>) (DistinctCounter<?>) DistinctCounter.COUNT_UNIQUE;
+			}
+			Object engine = constant(parameters[1]);
+			if (engine != null && DistinctCounter.ENGINE_CUS.equalsIgnoreCase(engine.toString())
+					&& parameters.length == 2) {
+				return (DistinctCounter<Object>) (DistinctCounter<?>) DistinctCounter.COUNT_UNIQUE;
+			}
+			if (engine != null && DistinctCounter.ENGINE_HLLPP.equalsIgnoreCase(engine.toString())) {
+				int p = parameters.length == 3 ? size(parameters[2]) : HyperLogLogPlus.DEFAULT_P;
+				if (p < HyperLogLogPlus.MIN_P || p > HyperLogLogPlus.MAX_P) {
+					throw new UDFArgumentTypeException(2, "The precision must be a literal from "
+							+ HyperLogLogPlus.MIN_P + " to " + HyperLogLogPlus.MAX_P + ".");
+				}
+				return (DistinctCounter<Object>) (DistinctCounter<?>) DistinctCounter.hllpp(p);
+			}
+			if (engine != null && DistinctCounter.ENGINE_ADAPTIVE.equalsIgnoreCase(engine.toString())) {
+				int threshold = parameters.length == 3 ? size(parameters[2]) : AdaptiveSketch.DEFAULT_THRESHOLD;
+				if (threshold < 0 || threshold > AdaptiveSketch.MAX_THRESHOLD) {
+					throw new UDFArgumentTypeException(2, "The threshold must be a literal from 0 to "
+							+ AdaptiveSketch.MAX_THRESHOLD + ".");
+				}
+				return (DistinctCounter<Object>) (DistinctCounter<?>) DistinctCounter.adaptive(threshold);
+			}
+			throw new UDFArgumentTypeException(1, "The engine must be the literal '" + DistinctCounter.ENGINE_CUS
+					+ "', '" + DistinctCounter.ENGINE_HLLPP + "' or '" + DistinctCounter.ENGINE_ADAPTIVE
+					+ "', and only " + DistinctCounter.ENGINE_HLLPP + " and " + DistinctCounter.ENGINE_ADAPTIVE
+					+ " take a size.");
+		}
+
+		/**
+		 * The value of a constant int argument, or -1 if it is not one.
+		 */
+		private static int size(ObjectInspector oi) {
+			Object size = constant(oi);
+			return size != null && size.toString().matches("\\d{1,9}") ? Integer.parseInt(size.toString()) : -1;
+		}
+
+		private static Object constant(ObjectInspector oi) {
+			return oi instanceof ConstantObjectInspector ? ((ConstantObjectInspector) oi).getWritableConstantValue()
+					: null;
+		}
+
 		@Override
 		public ApproxDistinctCountAggBuffer getNewAggregationBuffer()
 				throws HiveException {
@@ -114,42 +178,59 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 			if (parameters[0] == null) {
 				return;
 			}
-			Object obj = parameters[0];
+			ApproxDistinctCountAggBuffer aggBuffer = (ApproxDistinctCountAggBuffer) buffer;
+			// serialized sketches are adopted by an empty buffer rather than
+			// merged into a new one
+			if (!aggBuffer.initialized() && !feeder.merges()) {
+				aggBuffer.sketch = counter.create();
+			}
+			aggBuffer.counter = counter;
+			aggBuffer.sketch = feeder.feed(aggBuffer.sketch, parameters[0]);
+		}
+
+		/**
+		 * Batch form of {@link #iterate(AggregationBuffer, Object[])} for an
+		 * int or bigint column, laid out as a Hive column vector: the values
+		 * are vector[0, size), and when noNulls is false the ones flagged in
+		 * isNull are null. Hive 0.9 only calls iterate(), so this is for
+		 * callers that hold whole columns.
+		 */
+		public void iterateBatch(AggregationBuffer buffer, long[] vector, boolean[] isNull,
+				boolean noNulls, int size) throws HiveException {
 			ApproxDistinctCountAggBuffer aggBuffer = (ApproxDistinctCountAggBuffer) buffer;
 			if (!aggBuffer.initialized()) {
-				aggBuffer.sketch = new CountUniqueSketch();
-			}
-			if (inputOI != null) {
-				switch (inputOI.getPrimitiveCategory()) {
-				case INT: {
-					int v = ((IntObjectInspector)inputOI).get(obj);
-					aggBuffer.sketch.update(v);
-					break;
-				}
-				case LONG: {
-					long v = ((LongObjectInspector)inputOI).get(obj);
-					aggBuffer.sketch.update(v);
-					break;
-				}
-				case STRING:
-				case BINARY:
-				default: {
-					BytesWritable binary = PrimitiveObjectInspectorUtils
-							.getBinary(obj, inputOI);
-					byte[] bytes = binary.getBytes();
-					if (inputOI instanceof BinaryObjectInspector) {
-						byte[] trimmedBytes = new byte[binary.getLength()];
-						System.arraycopy(bytes, 0, trimmedBytes, 0,
-								trimmedBytes.length);
-						CountUniqueSketch other = CountUniqueSketchSerialization
-								.deserializeSketch(trimmedBytes);
-						aggBuffer.sketch = aggBuffer.sketch.merge(other);
-					} else {
-						aggBuffer.sketch.update(bytes);
-					}
+				if (SketchFeeder.firstNonNull(isNull, noNulls, size) == size) {
+					return;
 				}
+				aggBuffer.sketch = counter.create();
+			}
+			aggBuffer.counter = counter;
+			try {
+				aggBuffer.sketch = feeder.feed(aggBuffer.sketch, vector, isNull, noNulls, size);
+			} catch (IllegalArgumentException e) {
+				throw new HiveException(e.getMessage());
+			}
+		}
+
+		/**
+		 * Batch form of {@link #iterate(AggregationBuffer, Object[])} for a
+		 * string or binary column, laid out as a Hive column vector: value i
+		 * is the bytes [start[i], start[i] + length[i]) of vector[i].
+		 */
+		public void iterateBatch(AggregationBuffer buffer, byte[][] vector, int[] start, int[] length,
+				boolean[] isNull, boolean noNulls, int size) throws HiveException {
+			ApproxDistinctCountAggBuffer aggBuffer = (ApproxDistinctCountAggBuffer) buffer;
+			if (!aggBuffer.initialized() && !feeder.merges()) {
+				if (SketchFeeder.firstNonNull(isNull, noNulls, size) == size) {
+					return;
 				}
-				
+				aggBuffer.sketch = counter.create();
+			}
+			aggBuffer.counter = counter;
+			try {
+				aggBuffer.sketch = feeder.feed(aggBuffer.sketch, vector, start, length, isNull, noNulls, size);
+			} catch (IllegalArgumentException e) {
+				throw new HiveException(e.getMessage());
 			}
 		}
 
@@ -159,15 +240,10 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 			if (obj != null) {
 				BytesWritable bw = (BytesWritable) obj;
 				ApproxDistinctCountAggBuffer aggBuffer = (ApproxDistinctCountAggBuffer) buffer;
-				byte[] bytes = new byte[bw.getLength()];
-				System.arraycopy(bw.getBytes(), 0, bytes, 0, bw.getLength());
-
-				CountUniqueSketch other = CountUniqueSketchSerialization
-						.deserializeSketch(bytes);
-				if (!aggBuffer.initialized()) {
-					aggBuffer.sketch = new CountUniqueSketch();
-				}
-				aggBuffer.sketch = aggBuffer.sketch.merge(other);
+				@SuppressWarnings("unchecked")
+				DistinctCounter<Object> partialCounter = (DistinctCounter<Object>) DistinctCounter.forSketch(
+						bw.getBytes(), 0, bw.getLength());
+				aggBuffer.merge(partialCounter, partialCounter.deserialize(bw));
 			}
 		}
 
@@ -180,15 +256,18 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 		public ArrayList<Object> terminate(AggregationBuffer buffer)
 				throws HiveException {
 			ApproxDistinctCountAggBuffer aggBuffer = (ApproxDistinctCountAggBuffer) buffer;
-			if (aggBuffer.sketch == null || aggBuffer.sketch.isEmpty()) {
+			if (aggBuffer.sketch == null || aggBuffer.counter.isEmpty(aggBuffer.sketch)) {
 				return null;
 			} else {
 				LongWritable cardinality = new LongWritable();
-				cardinality.set(Math.round(aggBuffer.sketch.getInverseEstimate()));
+				cardinality.set(aggBuffer.counter.cardinality(aggBuffer.sketch));
 				DoubleWritable error = new DoubleWritable();
-				error.set(aggBuffer.sketch.getVariance());
+				error.set(aggBuffer.counter.error(aggBuffer.sketch));
 				BytesWritable sketch = new BytesWritable();
-				byte[] serializedSketch = CountUniqueSketchSerialization.serializeSketch(aggBuffer.sketch);
+				// stored with a header holding the cardinality, unlike partials
+				byte[] serializedSketch = SketchBytes.envelope(aggBuffer.counter.id(),
+						aggBuffer.counter.parameter(aggBuffer.sketch), cardinality.get(),
+						aggBuffer.counter.serialize(aggBuffer.sketch));
 				sketch.set(serializedSketch,0,serializedSketch.length);
 				ArrayList<Object> results = new ArrayList<Object>();
 				results.add(cardinality);
@@ -202,8 +281,10 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 		public Object terminatePartial(AggregationBuffer buffer)
 				throws HiveException {
 			ApproxDistinctCountAggBuffer aggBuffer = (ApproxDistinctCountAggBuffer) buffer;
-			byte[] s = CountUniqueSketchSerialization
-					.serializeSketch(aggBuffer.sketch);
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
+			byte[] s = aggBuffer.counter.serialize(aggBuffer.sketch);
 			partial.set(s, 0, s.length);
 			return partial;
 		}
@@ -212,11 +293,34 @@ public class ApproxDistinctCountUDAF extends AbstractGenericUDAFResolver {
 
 	static class ApproxDistinctCountAggBuffer implements AggregationBuffer {
 
-		CountUniqueSketch sketch;
+		// the engine of the sketch
+		DistinctCounter<Object> counter;
+		Object sketch;
 		
 		void reset() {
-			if (sketch != null) {
-				sketch = null;
+			counter = null;
+			sketch = null;
+		}
+
+		/**
+		 * Merges other, a sketch of counter, into the sketch. Count unique
+		 * sketches can not be merged in place, so an empty buffer takes
+		 * other as it is, which saves merging the first partial into an
+		 * empty sketch.
+		 */
+		void merge(DistinctCounter<Object> counter, Object other) throws HiveException {
+			if (sketch == null) {
+				this.counter = counter;
+				sketch = other;
+			} else if (!this.counter.name().equals(counter.name())) {
+				throw new HiveException("Can not merge " + this.counter.name() + " and " + counter.name()
+						+ " sketches");
+			} else {
+				try {
+					sketch = counter.merge(sketch, other);
+				} catch (IllegalArgumentException e) {
+					throw new HiveException(e.getMessage());
+				}
 			}
 		}
 		
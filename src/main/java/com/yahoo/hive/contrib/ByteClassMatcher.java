@@ -0,0 +1,179 @@
+package com.yahoo.hive.contrib;
+
+/**
+ * Matches regexes of the form <code>class+</code>, where the class only
+ * contains ASCII characters (e.g. \d+, \w+, [a-z0-9_]+, [^,;]+), directly
+ * against UTF-8 bytes. Since every byte of a multi-byte UTF-8 sequence is
+ * >= 0x80, such a byte can only belong to a negated class, which makes
+ * byte-wise scanning equivalent to the java.util.regex result.
+ *
+ * @author harshars
+ *
+ */
+final class ByteClassMatcher {
+
+	private final boolean[] members;
+
+	private ByteClassMatcher(boolean[] members) {
+		this.members = members;
+	}
+
+	/**
+	 * @return a matcher for the regex, or null if the regex is not of a
+	 *         supported form and has to go through java.util.regex.
+	 */
+	static ByteClassMatcher compile(String regex) {
+		if (regex.length() < 2 || regex.charAt(regex.length() - 1) != '+') {
+			return null;
+		}
+		String atom = regex.substring(0, regex.length() - 1);
+		boolean[] members = new boolean[256];
+		if (atom.length() == 2 && atom.charAt(0) == '\\') {
+			if (!addShorthand(atom.charAt(1), members)) {
+				return null;
+			}
+		} else if (atom.length() > 2 && atom.charAt(0) == '['
+				&& atom.charAt(atom.length() - 1) == ']') {
+			if (!parseClass(atom.substring(1, atom.length() - 1), members)) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+		return new ByteClassMatcher(members);
+	}
+
+	/**
+	 * @return the offset of the first match at or after from, or -1.
+	 */
+	int find(byte[] bytes, int from, int end) {
+		for (int i = from; i < end; i++) {
+			if (members[bytes[i] & 0xff]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the end offset (exclusive) of the match starting at start.
+	 */
+	int matchEnd(byte[] bytes, int start, int end) {
+		int i = start;
+		while (i < end && members[bytes[i] & 0xff]) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean parseClass(String body, boolean[] members) {
+		boolean negated = false;
+		int i = 0;
+		if (body.charAt(0) == '^') {
+			negated = true;
+			i++;
+		}
+		if (i == body.length() || body.indexOf("&&") >= 0) {
+			return false;
+		}
+		boolean[] set = new boolean[128];
+		while (i < body.length()) {
+			char c = body.charAt(i);
+			if (c == '[' || c > 127) {
+				return false;
+			}
+			if (c == '\\') {
+				if (i + 1 == body.length()) {
+					return false;
+				}
+				char e = body.charAt(i + 1);
+				i += 2;
+				if (!Character.isLetterOrDigit(e) && e <= 127) {
+					c = e;
+				} else if (escape(e) >= 0) {
+					c = (char) escape(e);
+				} else if (!Character.isUpperCase(e) && addShorthand(e, set)) {
+					continue;
+				} else {
+					return false;
+				}
+			} else {
+				i++;
+			}
+			// range of the form c-d, a trailing '-' is a literal
+			if (i + 1 < body.length() && body.charAt(i) == '-') {
+				char d = body.charAt(i + 1);
+				if (d == '\\' || d == '[' || d > 127 || d < c) {
+					return false;
+				}
+				for (char x = c; x <= d; x++) {
+					set[x] = true;
+				}
+				i += 2;
+			} else {
+				set[c] = true;
+			}
+		}
+		for (int b = 0; b < 256; b++) {
+			members[b] = (b < 128 && set[b]) != negated;
+		}
+		return true;
+	}
+
+	private static int escape(char e) {
+		switch (e) {
+		case 't':
+			return '\t';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case 'a':
+			return '\u0007';
+		case 'e':
+			return '\u001B';
+		default:
+			return -1;
+		}
+	}
+
+	private static boolean addShorthand(char e, boolean[] set) {
+		boolean negated = Character.isUpperCase(e);
+		boolean[] ascii = new boolean[128];
+		switch (Character.toLowerCase(e)) {
+		case 'd':
+			for (char c = '0'; c <= '9'; c++) {
+				ascii[c] = true;
+			}
+			break;
+		case 'w':
+			for (char c = '0'; c <= '9'; c++) {
+				ascii[c] = true;
+			}
+			for (char c = 'a'; c <= 'z'; c++) {
+				ascii[c] = true;
+				ascii[Character.toUpperCase(c)] = true;
+			}
+			ascii['_'] = true;
+			break;
+		case 's':
+			ascii[' '] = true;
+			ascii['\t'] = true;
+			ascii['\n'] = true;
+			ascii['\u000B'] = true;
+			ascii['\f'] = true;
+			ascii['\r'] = true;
+			break;
+		default:
+			return false;
+		}
+		for (int b = 0; b < set.length; b++) {
+			if ((b < 128 && ascii[b]) != negated) {
+				set[b] = true;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,398 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.io.Text;
+
+import com.yahoo.eta.stats.cus.CountUniqueSketch;
+import com.yahoo.eta.stats.cus.CountUniqueSketchSerialization;
+
+/**
+ * An engine of approx_distinct: the sketch it counts distinct values with,
+ * how values are hashed into it, and how it is estimated and serialized.
+ * The count unique sketch is the default, hllpp is a HyperLogLog++ sketch
+ * whose partials stay small for groups of few values, and adaptive counts
+ * exactly up to a threshold before it turns to a count unique sketch.
+ *
+ * @author harshars
+ *
+ */
+abstract class DistinctCounter<S> extends SketchFeeder.Sketches<S> {
+
+	static final String ENGINE_CUS = "cus";
+	static final String ENGINE_HLLPP = "hllpp";
+	static final String ENGINE_ADAPTIVE = "adaptive";
+
+	/**
+	 * The name of the engine, as passed to approx_distinct.
+	 */
+	abstract String name();
+
+	/**
+	 * The id of the engine in the header of stored sketches.
+	 */
+	abstract byte id();
+
+	/**
+	 * The parameter of the engine that sketch was created with, for its
+	 * header.
+	 */
+	abstract int parameter(S sketch);
+
+	abstract S create();
+
+	abstract boolean isEmpty(S sketch);
+
+	abstract long cardinality(S sketch);
+
+	/**
+	 * The variance of the cardinality, as the error of approx_distinct.
+	 */
+	abstract double error(S sketch);
+
+	abstract byte[] serialize(S sketch);
+
+	/**
+	 * A sketch that others can be merged into while sketch is kept as it
+	 * is.
+	 */
+	abstract S copy(S sketch);
+
+	/**
+	 * Serializes sketch with a header holding its estimate, as output by
+	 * approx_distinct.
+	 */
+	byte[] store(S sketch) {
+		long estimate = isEmpty(sketch) ? 0 : cardinality(sketch);
+		return SketchBytes.envelope(id(), parameter(sketch), estimate, serialize(sketch));
+	}
+
+	/**
+	 * The engine of the serialized sketch in the bytes [offset, offset +
+	 * length).
+	 */
+	static DistinctCounter<?> forSketch(byte[] bytes, int offset, int length) {
+		if (SketchBytes.hasHeader(bytes, offset, length)) {
+			switch (SketchBytes.engine(bytes, offset)) {
+			case SketchBytes.COUNT_UNIQUE:
+				return COUNT_UNIQUE;
+			case SketchBytes.HLLPP:
+				return HLLPP;
+			case SketchBytes.ADAPTIVE:
+				return ADAPTIVE;
+			default:
+				throw new IllegalArgumentException("Not a sketch of approx_distinct but of engine "
+						+ SketchBytes.engine(bytes, offset));
+			}
+		}
+		if (HyperLogLogPlus.isSketch(bytes, offset, length)) {
+			return HLLPP;
+		}
+		return AdaptiveSketch.isSketch(bytes, offset, length) ? ADAPTIVE : COUNT_UNIQUE;
+	}
+
+	/**
+	 * The bytes that strings have always been hashed from by
+	 * approx_distinct: the text in a zero padded array of 3/2 its length,
+	 * as a BytesWritable grows to, so that sketches stay mergeable with the
+	 * ones built before.
+	 */
+	static byte[] paddedBytes(Text text) {
+		return paddedBytes(text.getBytes(), 0, text.getLength());
+	}
+
+	static byte[] paddedBytes(byte[] text, int start, int length) {
+		byte[] bytes = new byte[length * 3 / 2];
+		System.arraycopy(text, start, bytes, 0, length);
+		return bytes;
+	}
+
+	static final DistinctCounter<CountUniqueSketch> COUNT_UNIQUE = new DistinctCounter<CountUniqueSketch>() {
+		@Override
+		String name() {
+			return ENGINE_CUS;
+		}
+
+		@Override
+		byte id() {
+			return SketchBytes.COUNT_UNIQUE;
+		}
+
+		@Override
+		int parameter(CountUniqueSketch sketch) {
+			return 0;
+		}
+
+		@Override
+		CountUniqueSketch create() {
+			return new CountUniqueSketch();
+		}
+
+		@Override
+		void update(CountUniqueSketch sketch, int v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(CountUniqueSketch sketch, long v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(CountUniqueSketch sketch, Text v) {
+			sketch.update(paddedBytes(v));
+		}
+
+		@Override
+		void update(CountUniqueSketch sketch, String v) {
+			sketch.update(paddedBytes(new Text(v)));
+		}
+
+		@Override
+		void update(CountUniqueSketch sketch, byte[] utf8, int start, int length) {
+			sketch.update(paddedBytes(utf8, start, length));
+		}
+
+		@Override
+		CountUniqueSketch merge(CountUniqueSketch sketch, CountUniqueSketch other) {
+			return sketch.merge(other);
+		}
+
+		@Override
+		CountUniqueSketch deserialize(byte[] bytes, int offset, int length) {
+			return SketchBytes.countUnique(bytes, offset, length);
+		}
+
+		@Override
+		boolean isEmpty(CountUniqueSketch sketch) {
+			return sketch.isEmpty();
+		}
+
+		@Override
+		long cardinality(CountUniqueSketch sketch) {
+			return Math.round(sketch.getInverseEstimate());
+		}
+
+		@Override
+		double error(CountUniqueSketch sketch) {
+			return sketch.getVariance();
+		}
+
+		@Override
+		byte[] serialize(CountUniqueSketch sketch) {
+			return CountUniqueSketchSerialization.serializeSketch(sketch);
+		}
+
+		@Override
+		CountUniqueSketch copy(CountUniqueSketch sketch) {
+			// merges return a new sketch, so sketch is never changed
+			return sketch;
+		}
+	};
+
+	/**
+	 * The hllpp engine, creating sketches of precision p.
+	 */
+	static DistinctCounter<HyperLogLogPlus> hllpp(int p) {
+		return new HllppCounter(p);
+	}
+
+	// reads hllpp sketches of any precision
+	static final DistinctCounter<HyperLogLogPlus> HLLPP = hllpp(HyperLogLogPlus.DEFAULT_P);
+
+	/**
+	 * HyperLogLog++ sketches, in which ints hash as the bigint of the same
+	 * value and strings as their UTF-8 bytes.
+	 */
+	private static class HllppCounter extends DistinctCounter<HyperLogLogPlus> {
+
+		private final int p;
+
+		HllppCounter(int p) {
+			this.p = p;
+		}
+
+		@Override
+		String name() {
+			return ENGINE_HLLPP;
+		}
+
+		@Override
+		byte id() {
+			return SketchBytes.HLLPP;
+		}
+
+		@Override
+		int parameter(HyperLogLogPlus sketch) {
+			return sketch.getP();
+		}
+
+		@Override
+		HyperLogLogPlus create() {
+			return new HyperLogLogPlus(p);
+		}
+
+		@Override
+		void update(HyperLogLogPlus sketch, int v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(HyperLogLogPlus sketch, long v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(HyperLogLogPlus sketch, Text v) {
+			sketch.update(v.getBytes(), 0, v.getLength());
+		}
+
+		@Override
+		void update(HyperLogLogPlus sketch, String v) {
+			update(sketch, new Text(v));
+		}
+
+		@Override
+		void update(HyperLogLogPlus sketch, byte[] utf8, int start, int length) {
+			sketch.update(utf8, start, length);
+		}
+
+		@Override
+		HyperLogLogPlus merge(HyperLogLogPlus sketch, HyperLogLogPlus other) {
+			sketch.merge(other);
+			return sketch;
+		}
+
+		@Override
+		HyperLogLogPlus deserialize(byte[] bytes, int offset, int length) {
+			return SketchBytes.hllpp(bytes, offset, length);
+		}
+
+		@Override
+		boolean isEmpty(HyperLogLogPlus sketch) {
+			return sketch.isEmpty();
+		}
+
+		@Override
+		long cardinality(HyperLogLogPlus sketch) {
+			return sketch.cardinality();
+		}
+
+		@Override
+		double error(HyperLogLogPlus sketch) {
+			return sketch.getVariance();
+		}
+
+		@Override
+		byte[] serialize(HyperLogLogPlus sketch) {
+			return sketch.toBytes();
+		}
+
+		@Override
+		HyperLogLogPlus copy(HyperLogLogPlus sketch) {
+			HyperLogLogPlus copy = new HyperLogLogPlus(sketch.getP());
+			copy.merge(sketch);
+			return copy;
+		}
+	}
+
+	/**
+	 * The adaptive engine, exact up to threshold distinct values.
+	 */
+	static DistinctCounter<AdaptiveSketch> adaptive(int threshold) {
+		return new AdaptiveCounter(threshold);
+	}
+
+	// reads adaptive sketches of any threshold
+	static final DistinctCounter<AdaptiveSketch> ADAPTIVE = adaptive(AdaptiveSketch.DEFAULT_THRESHOLD);
+
+	/**
+	 * Adaptive sketches, which hash values as hllpp does.
+	 */
+	private static class AdaptiveCounter extends DistinctCounter<AdaptiveSketch> {
+
+		private final int threshold;
+
+		AdaptiveCounter(int threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		String name() {
+			return ENGINE_ADAPTIVE;
+		}
+
+		@Override
+		byte id() {
+			return SketchBytes.ADAPTIVE;
+		}
+
+		@Override
+		int parameter(AdaptiveSketch sketch) {
+			return sketch.getThreshold();
+		}
+
+		@Override
+		AdaptiveSketch create() {
+			return new AdaptiveSketch(threshold);
+		}
+
+		@Override
+		void update(AdaptiveSketch sketch, int v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(AdaptiveSketch sketch, long v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(AdaptiveSketch sketch, Text v) {
+			sketch.update(v.getBytes(), 0, v.getLength());
+		}
+
+		@Override
+		void update(AdaptiveSketch sketch, String v) {
+			update(sketch, new Text(v));
+		}
+
+		@Override
+		void update(AdaptiveSketch sketch, byte[] utf8, int start, int length) {
+			sketch.update(utf8, start, length);
+		}
+
+		@Override
+		AdaptiveSketch merge(AdaptiveSketch sketch, AdaptiveSketch other) {
+			return sketch.merge(other);
+		}
+
+		@Override
+		AdaptiveSketch deserialize(byte[] bytes, int offset, int length) {
+			return SketchBytes.adaptive(bytes, offset, length);
+		}
+
+		@Override
+		boolean isEmpty(AdaptiveSketch sketch) {
+			return sketch.isEmpty();
+		}
+
+		@Override
+		long cardinality(AdaptiveSketch sketch) {
+			return sketch.cardinality();
+		}
+
+		@Override
+		double error(AdaptiveSketch sketch) {
+			return sketch.getVariance();
+		}
+
+		@Override
+		byte[] serialize(AdaptiveSketch sketch) {
+			return sketch.toBytes();
+		}
+
+		@Override
+		AdaptiveSketch copy(AdaptiveSketch sketch) {
+			return new AdaptiveSketch(sketch.getThreshold()).merge(sketch);
+		}
+	}
+}
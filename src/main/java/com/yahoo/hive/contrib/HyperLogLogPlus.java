@@ -0,0 +1,406 @@
+package com.yahoo.hive.contrib;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * HyperLogLog++ sketch of the distinct 64 bit hashes of a stream, after
+ * Heule, Nunkesser and Hall, with 2^p registers.
+ * <p>
+ * Small sketches are sparse: a sorted list of the 2^25 finer registers
+ * that are set, each an int of its index and value, with new ones gathered
+ * unsorted and merged into the list in batches. Once the list would take
+ * more memory than the registers it is converted to them, one byte per
+ * register. Sparse sketches are estimated by linear counting over the 2^25
+ * registers, which is all but exact at the sizes they hold. There are no
+ * bias correction tables, so dense sketches fall back on linear counting
+ * over the registers where the raw HyperLogLog estimate is biased, up to
+ * 5/2 of their number, as the original HyperLogLog does.
+ * <p>
+ * Sketches of the same precision are merged in place. They serialize to
+ * the magic bytes "HLL", the format and p, then either the count and
+ * variable length deltas of the sparse list, or the registers.
+ *
+ * @author harshars
+ *
+ */
+class HyperLogLogPlus {
+
+	static final int MIN_P = 4;
+	static final int MAX_P = 18;
+	static final int DEFAULT_P = 14;
+
+	// the precision of the sparse list
+	static final int SPARSE_P = 25;
+
+	private static final byte[] MAGIC = {'H', 'L', 'L'};
+	private static final byte SPARSE = 1;
+	private static final byte DENSE = 2;
+
+	private static final int MIN_TEMP = 64;
+
+	private final int p;
+	private final int m;
+
+	// the registers once dense, null while sparse
+	private byte[] registers;
+
+	// sorted entries of the sparse list with one per index, and new entries
+	private int[] sparse;
+	private int sparseSize;
+	private int[] temp;
+	private int tempSize;
+
+	HyperLogLogPlus(int p) {
+		if (p < MIN_P || p > MAX_P) {
+			throw new IllegalArgumentException("The precision of an hllpp sketch must be from " + MIN_P + " to "
+					+ MAX_P + " but was " + p);
+		}
+		this.p = p;
+		this.m = 1 << p;
+		sparse = new int[0];
+		temp = new int[MIN_TEMP];
+	}
+
+	int getP() {
+		return p;
+	}
+
+	boolean isSparse() {
+		return registers == null;
+	}
+
+	boolean isEmpty() {
+		return registers == null && sparseSize == 0 && tempSize == 0;
+	}
+
+	void update(long v) {
+		add(hash(v));
+	}
+
+	void update(byte[] bytes, int offset, int length) {
+		add(hash(bytes, offset, length));
+	}
+
+	void add(long hash) {
+		if (registers != null) {
+			int index = (int) (hash >>> (64 - p));
+			// the bit below the last one read caps the run of zeros
+			byte rho = (byte) (Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1);
+			if (registers[index] < rho) {
+				registers[index] = rho;
+			}
+		} else {
+			int index = (int) (hash >>> (64 - SPARSE_P));
+			int rho = Long.numberOfLeadingZeros((hash << SPARSE_P) | (1L << (SPARSE_P - 1))) + 1;
+			temp[tempSize++] = index << 6 | rho;
+			if (tempSize == temp.length) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Merges other, of the same precision, into this sketch.
+	 */
+	void merge(HyperLogLogPlus other) {
+		if (other.p != p) {
+			throw new IllegalArgumentException("Can not merge hllpp sketches of precision " + p + " and "
+					+ other.p);
+		}
+		other.flush();
+		if (other.registers == null) {
+			if (registers == null) {
+				flush();
+				mergeSparse(other.sparse, other.sparseSize);
+			} else {
+				for (int i = 0; i < other.sparseSize; i++) {
+					setDense(other.sparse[i]);
+				}
+			}
+		} else {
+			if (registers == null) {
+				toDense();
+			}
+			byte[] others = other.registers;
+			for (int i = 0; i < m; i++) {
+				if (registers[i] < others[i]) {
+					registers[i] = others[i];
+				}
+			}
+		}
+	}
+
+	long cardinality() {
+		return Math.round(estimate());
+	}
+
+	double estimate() {
+		// flushing may convert the sketch to registers
+		flush();
+		if (registers == null) {
+			return linearCounting(1 << SPARSE_P, (1 << SPARSE_P) - sparseSize);
+		}
+		int zeros = 0;
+		double sum = 0;
+		for (int i = 0; i < m; i++) {
+			sum += 1.0 / (1L << registers[i]);
+			if (registers[i] == 0) {
+				zeros++;
+			}
+		}
+		double estimate = alpha() * m * m / sum;
+		return zeros > 0 && estimate <= 2.5 * m ? linearCounting(m, zeros) : estimate;
+	}
+
+	/**
+	 * The variance of the estimate: that of linear counting while it is
+	 * used, else (1.04 n / sqrt(m))^2.
+	 */
+	double getVariance() {
+		double n = estimate();
+		int buckets = registers == null ? 1 << SPARSE_P : m;
+		if (registers == null || n <= 2.5 * m) {
+			double t = n / buckets;
+			return buckets * (Math.exp(t) - t - 1);
+		}
+		double error = 1.04 * n / Math.sqrt(m);
+		return error * error;
+	}
+
+	byte[] toBytes() {
+		DataOutputBuffer out = new DataOutputBuffer();
+		try {
+			out.write(MAGIC);
+			flush();
+			if (registers == null) {
+				out.writeByte(SPARSE);
+				out.writeByte(p);
+				WritableUtils.writeVInt(out, sparseSize);
+				int previous = 0;
+				for (int i = 0; i < sparseSize; i++) {
+					WritableUtils.writeVInt(out, sparse[i] - previous);
+					previous = sparse[i];
+				}
+			} else {
+				out.writeByte(DENSE);
+				out.writeByte(p);
+				out.write(registers);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return SketchBytes.slice(out.getData(), 0, out.getLength());
+	}
+
+	/**
+	 * Whether the bytes [offset, offset + length) are a serialized hllpp
+	 * sketch.
+	 */
+	static boolean isSketch(byte[] bytes, int offset, int length) {
+		if (length < MAGIC.length + 2) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[offset + i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the sketch serialized in the bytes [offset, offset + length),
+	 * in place.
+	 */
+	static HyperLogLogPlus fromBytes(byte[] bytes, int offset, int length) {
+		if (!isSketch(bytes, offset, length)) {
+			throw new IllegalArgumentException("Not a serialized hllpp sketch");
+		}
+		byte format = bytes[offset + MAGIC.length];
+		HyperLogLogPlus sketch = new HyperLogLogPlus(bytes[offset + MAGIC.length + 1]);
+		int start = offset + MAGIC.length + 2;
+		if (format == DENSE) {
+			if (length - (start - offset) != sketch.m) {
+				throw new IllegalArgumentException("Truncated hllpp sketch");
+			}
+			// copied, as the registers are merged into in place
+			sketch.registers = new byte[sketch.m];
+			System.arraycopy(bytes, start, sketch.registers, 0, sketch.m);
+		} else if (format == SPARSE) {
+			DataInputBuffer in = new DataInputBuffer();
+			in.reset(bytes, start, length - (start - offset));
+			try {
+				int size = WritableUtils.readVInt(in);
+				sketch.sparse = new int[size];
+				int previous = 0;
+				for (int i = 0; i < size; i++) {
+					previous += WritableUtils.readVInt(in);
+					sketch.sparse[i] = previous;
+				}
+				sketch.sparseSize = size;
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Truncated hllpp sketch", e);
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown hllpp sketch format " + format);
+		}
+		return sketch;
+	}
+
+	/**
+	 * Sorts the new entries into the sparse list, and converts the sketch
+	 * to registers if the list has grown past their size.
+	 */
+	private void flush() {
+		if (tempSize == 0) {
+			return;
+		}
+		Arrays.sort(temp, 0, tempSize);
+		int n = tempSize;
+		tempSize = 0;
+		mergeSparse(temp, n);
+		// keep the batches in proportion to the list, so that merging
+		// them in stays linear
+		if (registers == null && temp.length < sparseSize / 4) {
+			temp = new int[sparseSize / 4];
+		}
+	}
+
+	/**
+	 * Merges the n sorted entries into the sparse list, keeping the largest
+	 * value of each index.
+	 */
+	private void mergeSparse(int[] entries, int n) {
+		int[] merged = new int[sparseSize + n];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < sparseSize || j < n) {
+			int entry = j == n || (i < sparseSize && sparse[i] < entries[j]) ? sparse[i++] : entries[j++];
+			// entries of one index sort by value, so a later one is larger
+			if (size > 0 && merged[size - 1] >>> 6 == entry >>> 6) {
+				merged[size - 1] = entry;
+			} else {
+				merged[size++] = entry;
+			}
+		}
+		sparse = merged;
+		sparseSize = size;
+		if (sparseSize > m / 4) {
+			toDense();
+		}
+	}
+
+	private void toDense() {
+		registers = new byte[m];
+		for (int i = 0; i < sparseSize; i++) {
+			setDense(sparse[i]);
+		}
+		for (int i = 0; i < tempSize; i++) {
+			setDense(temp[i]);
+		}
+		sparse = null;
+		sparseSize = 0;
+		temp = null;
+		tempSize = 0;
+	}
+
+	/**
+	 * Sets the register of a sparse entry. Its value is that of the bits
+	 * past the first p of the finer index, if any is set, else it carries on
+	 * from them into the value of the sparse entry.
+	 */
+	private void setDense(int entry) {
+		int index = entry >>> 6;
+		int width = SPARSE_P - p;
+		int low = index & ((1 << width) - 1);
+		byte rho = (byte) (low == 0 ? width + (entry & 63) : Integer.numberOfLeadingZeros(low) - (32 - width) + 1);
+		int register = index >>> width;
+		if (registers[register] < rho) {
+			registers[register] = rho;
+		}
+	}
+
+	private double alpha() {
+		switch (m) {
+		case 16:
+			return 0.673;
+		case 32:
+			return 0.697;
+		case 64:
+			return 0.709;
+		default:
+			return 0.7213 / (1 + 1.079 / m);
+		}
+	}
+
+	private static double linearCounting(int buckets, int empty) {
+		return buckets * Math.log((double) buckets / empty);
+	}
+
+	private static final long M = 0xc6a4a7935bd1e995L;
+	private static final int R = 47;
+	private static final long SEED = 0x9747b28cL;
+
+	/**
+	 * 64 bit MurmurHash2 of v, as of its 8 little endian bytes.
+	 */
+	static long hash(long v) {
+		long h = SEED ^ (8 * M);
+		long k = v * M;
+		k ^= k >>> R;
+		k *= M;
+		h ^= k;
+		h *= M;
+		h ^= h >>> R;
+		h *= M;
+		h ^= h >>> R;
+		return h;
+	}
+
+	/**
+	 * 64 bit MurmurHash2 of the bytes [offset, offset + length). The cases
+	 * of the tail bytes fall through on purpose.
+	 */
+	@SuppressWarnings("fallthrough")
+	static long hash(byte[] bytes, int offset, int length) {
+		long h = SEED ^ (length * M);
+		int end = offset + (length & ~7);
+		for (int i = offset; i < end; i += 8) {
+			long k = (bytes[i] & 0xffL) | (bytes[i + 1] & 0xffL) << 8 | (bytes[i + 2] & 0xffL) << 16
+					| (bytes[i + 3] & 0xffL) << 24 | (bytes[i + 4] & 0xffL) << 32 | (bytes[i + 5] & 0xffL) << 40
+					| (bytes[i + 6] & 0xffL) << 48 | (bytes[i + 7] & 0xffL) << 56;
+			k *= M;
+			k ^= k >>> R;
+			k *= M;
+			h ^= k;
+			h *= M;
+		}
+		switch (length & 7) {
+		case 7:
+			h ^= (bytes[end + 6] & 0xffL) << 48;
+		case 6:
+			h ^= (bytes[end + 5] & 0xffL) << 40;
+		case 5:
+			h ^= (bytes[end + 4] & 0xffL) << 32;
+		case 4:
+			h ^= (bytes[end + 3] & 0xffL) << 24;
+		case 3:
+			h ^= (bytes[end + 2] & 0xffL) << 16;
+		case 2:
+			h ^= (bytes[end + 1] & 0xffL) << 8;
+		case 1:
+			h ^= bytes[end] & 0xffL;
+			h *= M;
+		}
+		h ^= h >>> R;
+		h *= M;
+		h ^= h >>> R;
+		return h;
+	}
+}
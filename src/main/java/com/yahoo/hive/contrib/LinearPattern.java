@@ -0,0 +1,932 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Regex matcher whose running time is linear in the length of the input,
+ * used by reseq(x, regex, 'dfa') so that one malformed line can not stall a
+ * task the way java.util.regex backtracking can.
+ *
+ * The regex is compiled into a Thompson NFA that is simulated over all its
+ * states at once, as a Pike VM whose threads are kept in priority order.
+ * Before the forward scan, a backward pass records for every position which
+ * states can still reach a match, so dead threads are never started and
+ * every match is found in a single forward pass over the input.
+ *
+ * Supported syntax: literals, escapes (\t \n \r \f \a \e \xhh \\uhhhh and
+ * escaped punctuation), ., character classes with ranges, negation and
+ * \d \w \s \D \W \S, groups (capturing groups are treated as non-capturing),
+ * alternation, the quantifiers * + ? {n} {n,} {n,m}, ^ at the start and $ at
+ * the end, and lazy quantifiers. Back references, lookaround, flags and
+ * possessive quantifiers are rejected. Matches are leftmost-first, as in
+ * java.util.regex: alternatives are preferred in order, greedy quantifiers
+ * prefer one more repetition and lazy ones one fewer, and $ also matches
+ * before a line terminator that ends the input.
+ *
+ * java.util.regex leaves a repetition after an iteration that matched the
+ * empty string. So the threads in a repetition whose body can match the
+ * empty string also carry which of its iterations started at the current
+ * position, and a thread is only merged with one in the same state whose
+ * iterations started at the same positions, as its continuation is then
+ * the same.
+ *
+ * @author harshars
+ *
+ */
+final class LinearPattern {
+
+	// cap on the number of NFA states a counted repetition can expand into
+	static final int MAX_STATES = 10000;
+	// cap on the marks of the states, which grow with the nesting of
+	// repetitions whose bodies can match the empty string
+	static final int MAX_SLOTS = 4 * MAX_STATES;
+	// the level of a thread none of whose iterations started at its position
+	private static final int NONE = Integer.MAX_VALUE;
+
+	private static final int CHAR = 0;
+	private static final int SPLIT = 1;
+	private static final int MATCH = 2;
+
+	private final String regex;
+	private final boolean anchorStart;
+	private final boolean anchorEnd;
+	private final int start;
+	// NFA, states are indexed 0..size-1
+	private final int[] type;
+	private final int[] out;
+	private final int[] out1;
+	// for the state that ends an iteration of a repetition whose body can
+	// match the empty string, the state after the repetition, else -1
+	private final int[] exit;
+	// for a state that starts an iteration of such a repetition, the first
+	// state of the iteration, else -1
+	private final int[] enter;
+	// the number of such repetitions a state is in, and for the states that
+	// start or end their iterations, that of the iterations
+	private final int[] depth;
+	private final int[] level;
+	// the first mark of every state, a split has one per depth and one more
+	private final int[] slot;
+	private final int slots;
+	private final CharSet[] sets;
+	private final int words;
+	// epsilon closure of the out state of every CHAR state, as a bitset
+	private final long[][] closureOut;
+	private final boolean[] outCanMatch;
+	private final int[] consuming;
+
+	private LinearPattern(String regex, boolean anchorStart, boolean anchorEnd,
+			List<State> states, State startState) {
+		this.regex = regex;
+		this.anchorStart = anchorStart;
+		this.anchorEnd = anchorEnd;
+		int n = states.size();
+		type = new int[n];
+		out = new int[n];
+		out1 = new int[n];
+		exit = new int[n];
+		enter = new int[n];
+		depth = new int[n];
+		level = new int[n];
+		slot = new int[n];
+		sets = new CharSet[n];
+		int marks = 0;
+		for (int i = 0; i < n; i++) {
+			State s = states.get(i);
+			type[i] = s.type;
+			out[i] = s.out == null ? -1 : s.out.id;
+			out1[i] = s.out1 == null ? -1 : s.out1.id;
+			exit[i] = s.exit == null ? -1 : s.exit.id;
+			enter[i] = s.enter == null ? -1 : s.enter.id;
+			depth[i] = s.depth;
+			// a state that ends an iteration is in the repetition
+			level[i] = s.enter == null ? 0 : (s.exit == null ? s.depth + 1 : s.depth);
+			sets[i] = s.set;
+			slot[i] = marks;
+			marks += type[i] == SPLIT ? s.depth + 1 : 1;
+			if (marks > MAX_SLOTS) {
+				throw new IllegalArgumentException("regex is too large for the dfa engine");
+			}
+		}
+		slots = marks;
+		start = startState.id;
+		words = (n + 63) >>> 6;
+		List<Integer> chars = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			if (type[i] == CHAR) {
+				chars.add(i);
+			}
+		}
+		consuming = new int[chars.size()];
+		closureOut = new long[n][];
+		outCanMatch = new boolean[n];
+		for (int c = 0; c < consuming.length; c++) {
+			int q = chars.get(c);
+			consuming[c] = q;
+			closureOut[q] = closure(out[q]);
+			for (int i = 0; i < n; i++) {
+				if (type[i] == MATCH && (closureOut[q][i >>> 6] & (1L << i)) != 0) {
+					outCanMatch[q] = true;
+				}
+			}
+		}
+	}
+
+	String pattern() {
+		return regex;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the regex uses unsupported syntax.
+	 */
+	static LinearPattern compile(String regex) {
+		Parser parser = new Parser(regex);
+		boolean anchorStart = parser.consume('^');
+		Node node = parser.alternation();
+		boolean anchorEnd = parser.consume('$');
+		if (!parser.atEnd()) {
+			throw parser.error("unsupported syntax");
+		}
+		if ((anchorStart || anchorEnd) && node instanceof Alternation) {
+			throw parser.error("anchors around an alternation are not supported");
+		}
+		List<State> states = new ArrayList<State>();
+		State match = new State(MATCH, states);
+		State startState = node.compile(match, states);
+		return new LinearPattern(regex, anchorStart, anchorEnd, states, startState);
+	}
+
+	Matcher matcher(CharSequence input) {
+		return new Matcher(input);
+	}
+
+	private long[] closure(int from) {
+		long[] set = new long[words];
+		int[] stack = new int[type.length];
+		int top = 0;
+		stack[top++] = from;
+		set[from >>> 6] |= 1L << from;
+		while (top > 0) {
+			int q = stack[--top];
+			if (type[q] == SPLIT) {
+				for (int next : new int[] { out[q], out1[q], exit[q] }) {
+					if (next >= 0 && (set[next >>> 6] & (1L << next)) == 0) {
+						set[next >>> 6] |= 1L << next;
+						stack[top++] = next;
+					}
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Finds successive leftmost-first matches, in the manner of
+	 * java.util.regex.Matcher.
+	 */
+	final class Matcher {
+		private final CharSequence input;
+		private final int length;
+		// where $ matches before a line terminator that ends the input
+		private final int lineEnd;
+		// live[i] holds the CHAR states that consume input[i] and can then
+		// still reach a match
+		private final long[] live;
+
+		// the threads at pos and pos + 1, highest priority first
+		private int[] cstates = new int[type.length];
+		private int[] cstarts = new int[type.length];
+		private int ccount;
+		private int[] nstates = new int[type.length];
+		private int[] nstarts = new int[type.length];
+		private int ncount;
+		private final int[] mark = new int[slots];
+		private int generation = 1;
+		// the states to visit and the level of their threads, the outermost
+		// repetition with an iteration that started at the current position
+		private final int[] stack = new int[2 * slots + 1];
+		private final int[] levels = new int[2 * slots + 1];
+		// whether a thread of the list being built has matched, which cuts
+		// off the threads of lower priority
+		private boolean matched;
+
+		private int pos;
+		private int searchFrom;
+		private int bestStart = -1;
+		private int bestEnd = -1;
+		private int matchStart = -1;
+		private int matchEnd = -1;
+
+		Matcher(CharSequence input) {
+			this.input = input;
+			this.length = input.length();
+			this.lineEnd = lineEnd(input, length);
+			this.live = new long[length * words];
+			for (int i = length - 1; i >= 0; i--) {
+				char c = input.charAt(i);
+				for (int q : consuming) {
+					if (sets[q].matches(c) && canMatch(q, i + 1)) {
+						live[i * words + (q >>> 6)] |= 1L << q;
+					}
+				}
+			}
+		}
+
+		private int lineEnd(CharSequence input, int length) {
+			if (length >= 2 && input.charAt(length - 2) == '\r' && input.charAt(length - 1) == '\n') {
+				return length - 2;
+			}
+			if (length >= 1) {
+				char c = input.charAt(length - 1);
+				if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+					return length - 1;
+				}
+			}
+			return length;
+		}
+
+		private boolean atEnd(int i) {
+			return !anchorEnd || i == length || i == lineEnd;
+		}
+
+		private boolean canMatch(int q, int i) {
+			if (outCanMatch[q] && atEnd(i)) {
+				return true;
+			}
+			if (i == length) {
+				return false;
+			}
+			long[] closure = closureOut[q];
+			int base = i * words;
+			for (int w = 0; w < words; w++) {
+				if ((closure[w] & live[base + w]) != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean find() {
+			while (true) {
+				if (bestStart < 0 && pos >= searchFrom && (!anchorStart || pos == 0)) {
+					// a new thread has the lowest priority, and the states
+					// held by earlier threads take precedence
+					generation++;
+					for (int t = 0; t < ccount; t++) {
+						mark[slot[cstates[t]]] = generation;
+					}
+					matched = false;
+					add(start, pos, pos, false);
+				}
+				// the threads left all rank above the best match, which
+				// stands once they are done
+				if (bestStart >= 0 && ccount == 0) {
+					matchStart = bestStart;
+					matchEnd = bestEnd;
+					searchFrom = bestEnd == bestStart ? bestEnd + 1 : bestEnd;
+					bestStart = -1;
+					return true;
+				}
+				if (pos >= length || (ccount == 0 && (anchorStart || searchFrom > length))) {
+					return false;
+				}
+				step();
+			}
+		}
+
+		int start() {
+			return matchStart;
+		}
+
+		int end() {
+			return matchEnd;
+		}
+
+		private void step() {
+			generation++;
+			ncount = 0;
+			matched = false;
+			for (int t = 0; t < ccount && !matched; t++) {
+				add(out[cstates[t]], cstarts[t], pos + 1, true);
+			}
+			int[] tmp = cstates;
+			cstates = nstates;
+			nstates = tmp;
+			tmp = cstarts;
+			cstarts = nstarts;
+			nstarts = tmp;
+			ccount = ncount;
+			pos++;
+		}
+
+		/**
+		 * Adds the epsilon closure of q to the thread list for position i in
+		 * priority order, keeping only threads that can still reach a match.
+		 * A match ends the list, as the threads after it rank below it.
+		 */
+		private void add(int q, int threadStart, int i, boolean next) {
+			int top = 0;
+			stack[top] = q;
+			levels[top++] = NONE;
+			while (top > 0) {
+				int s = stack[--top];
+				// the iterations of repetitions the state is not in are over
+				int l = levels[top] > depth[s] ? NONE : levels[top];
+				int m = type[s] == SPLIT ? slot[s] + Math.min(l - 1, depth[s]) : slot[s];
+				if (mark[m] == generation) {
+					continue;
+				}
+				mark[m] = generation;
+				switch (type[s]) {
+				case SPLIT:
+					if (exit[s] >= 0 && l <= level[s]) {
+						// an iteration that matched the empty string leaves
+						// the repetition, as in java.util.regex
+						stack[top] = exit[s];
+						levels[top++] = l;
+						break;
+					}
+					// out is preferred, so it is visited first
+					if (out1[s] >= 0) {
+						stack[top] = out1[s];
+						levels[top++] = out1[s] == enter[s] ? Math.min(l, level[s]) : l;
+					}
+					stack[top] = out[s];
+					levels[top++] = out[s] == enter[s] ? Math.min(l, level[s]) : l;
+					break;
+				case MATCH:
+					if (atEnd(i)) {
+						bestStart = threadStart;
+						bestEnd = i;
+						matched = true;
+						return;
+					}
+					break;
+				default:
+					if (i < length && (live[i * words + (s >>> 6)] & (1L << s)) != 0) {
+						if (next) {
+							nstates[ncount] = s;
+							nstarts[ncount++] = threadStart;
+						} else {
+							cstates[ccount] = s;
+							cstarts[ccount++] = threadStart;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static final class State {
+		final int type;
+		final int id;
+		State out;
+		State out1;
+		State exit;
+		State enter;
+		int depth;
+		CharSet set;
+
+		State(int type, List<State> states) {
+			if (states.size() >= MAX_STATES) {
+				throw new IllegalArgumentException("regex is too large for the dfa engine");
+			}
+			this.type = type;
+			this.id = states.size();
+			states.add(this);
+		}
+	}
+
+	private abstract static class Node {
+		/**
+		 * Compiles this node in front of next, returning the entry state.
+		 */
+		abstract State compile(State next, List<State> states);
+
+		/**
+		 * @return whether this node can match the empty string.
+		 */
+		abstract boolean nullable();
+	}
+
+	private static final class Atom extends Node {
+		final CharSet set;
+
+		Atom(CharSet set) {
+			this.set = set;
+		}
+
+		@Override
+		State compile(State next, List<State> states) {
+			State s = new State(CHAR, states);
+			s.set = set;
+			s.out = next;
+			return s;
+		}
+
+		@Override
+		boolean nullable() {
+			return false;
+		}
+	}
+
+	private static final class Concat extends Node {
+		final List<Node> nodes;
+
+		Concat(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		State compile(State next, List<State> states) {
+			State s = next;
+			for (int i = nodes.size() - 1; i >= 0; i--) {
+				s = nodes.get(i).compile(s, states);
+			}
+			return s;
+		}
+
+		@Override
+		boolean nullable() {
+			for (Node node : nodes) {
+				if (!node.nullable()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Alternation extends Node {
+		final List<Node> nodes;
+
+		Alternation(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		State compile(State next, List<State> states) {
+			State s = nodes.get(nodes.size() - 1).compile(next, states);
+			for (int i = nodes.size() - 2; i >= 0; i--) {
+				State split = new State(SPLIT, states);
+				split.out = nodes.get(i).compile(next, states);
+				split.out1 = s;
+				s = split;
+			}
+			return s;
+		}
+
+		@Override
+		boolean nullable() {
+			for (Node node : nodes) {
+				if (node.nullable()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class Repeat extends Node {
+		final Node node;
+		final int min;
+		// -1 for unbounded
+		final int max;
+		final boolean lazy;
+
+		Repeat(Node node, int min, int max, boolean lazy) {
+			this.node = node;
+			this.min = min;
+			this.max = max;
+			this.lazy = lazy;
+		}
+
+		@Override
+		boolean nullable() {
+			return min == 0 || node.nullable();
+		}
+
+		@Override
+		State compile(State next, List<State> states) {
+			if (node.nullable()) {
+				return compileNullable(next, states);
+			}
+			State s = next;
+			if (max < 0) {
+				State loop = new State(SPLIT, states);
+				State body = node.compile(loop, states);
+				// the out of a split is the preferred branch
+				loop.out = lazy ? next : body;
+				loop.out1 = lazy ? body : next;
+				s = loop;
+			} else {
+				for (int i = min; i < max; i++) {
+					State split = new State(SPLIT, states);
+					State body = node.compile(s, states);
+					split.out = lazy ? next : body;
+					split.out1 = lazy ? body : next;
+					s = split;
+				}
+			}
+			for (int i = 0; i < min; i++) {
+				s = node.compile(s, states);
+			}
+			return s;
+		}
+
+		/**
+		 * Compiles a body that can match the empty string. Each iteration
+		 * is started by a state that enters it, and all but the last are
+		 * ended by one that leaves the repetition if the iteration matched
+		 * the empty string.
+		 */
+		private State compileNullable(State next, List<State> states) {
+			State tail = next;
+			if (max < 0) {
+				int from = states.size();
+				State loop = new State(SPLIT, states);
+				State body = node.compile(loop, states);
+				iterate(loop, body, next, true);
+				loop.exit = next;
+				deepen(states, from, states.size());
+				if (min == 0) {
+					State s = new State(SPLIT, states);
+					iterate(s, body, next, true);
+					return s;
+				}
+				tail = loop;
+			}
+			for (int i = max < 0 ? min : max; i > 0; i--) {
+				int from = states.size();
+				State body = node.compile(tail, states);
+				State s = new State(SPLIT, states);
+				iterate(s, body, next, i > min);
+				if (i > 1) {
+					// s ends the iteration before
+					s.exit = next;
+					deepen(states, from, states.size());
+				} else {
+					deepen(states, from, states.size() - 1);
+				}
+				tail = s;
+			}
+			return tail;
+		}
+
+		private void iterate(State s, State body, State next, boolean optional) {
+			if (optional) {
+				// the out of a split is the preferred branch
+				s.out = lazy ? next : body;
+				s.out1 = lazy ? body : next;
+			} else {
+				s.out = body;
+			}
+			s.enter = body;
+		}
+
+		private static void deepen(List<State> states, int from, int to) {
+			for (int i = from; i < to; i++) {
+				states.get(i).depth++;
+			}
+		}
+	}
+
+	private static final class Parser {
+		final String regex;
+		int pos;
+
+		Parser(String regex) {
+			this.regex = regex;
+		}
+
+		boolean atEnd() {
+			return pos == regex.length();
+		}
+
+		boolean consume(char c) {
+			if (!atEnd() && regex.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at index " + pos
+					+ " of regex " + regex + " for the dfa engine");
+		}
+
+		Node alternation() {
+			List<Node> nodes = new ArrayList<Node>();
+			nodes.add(concatenation());
+			while (consume('|')) {
+				nodes.add(concatenation());
+			}
+			return nodes.size() == 1 ? nodes.get(0) : new Alternation(nodes);
+		}
+
+		Node concatenation() {
+			List<Node> nodes = new ArrayList<Node>();
+			while (!atEnd()) {
+				char c = regex.charAt(pos);
+				if (c == '|' || c == ')' || (c == '$' && pos == regex.length() - 1)) {
+					break;
+				}
+				nodes.add(quantified(atom()));
+			}
+			return new Concat(nodes);
+		}
+
+		Node quantified(Node node) {
+			while (!atEnd()) {
+				char c = regex.charAt(pos);
+				int min;
+				int max;
+				if (c == '*') {
+					pos++;
+					min = 0;
+					max = -1;
+				} else if (c == '+') {
+					pos++;
+					min = 1;
+					max = -1;
+				} else if (c == '?') {
+					pos++;
+					min = 0;
+					max = 1;
+				} else if (c == '{') {
+					pos++;
+					min = number();
+					max = min;
+					if (consume(',')) {
+						max = atEnd() || regex.charAt(pos) == '}' ? -1 : number();
+					}
+					if (!consume('}') || (max >= 0 && max < min)) {
+						throw error("bad repetition");
+					}
+				} else {
+					return node;
+				}
+				if (consume('+')) {
+					throw error("possessive quantifiers are not supported");
+				}
+				node = new Repeat(node, min, max, consume('?'));
+			}
+			return node;
+		}
+
+		int number() {
+			int start = pos;
+			while (!atEnd() && Character.isDigit(regex.charAt(pos))) {
+				pos++;
+			}
+			if (start == pos || pos - start > 4) {
+				throw error("bad repetition");
+			}
+			return Integer.parseInt(regex.substring(start, pos));
+		}
+
+		Node atom() {
+			char c = regex.charAt(pos++);
+			switch (c) {
+			case '(':
+				if (consume('?')) {
+					if (consume(':')) {
+						// non-capturing group
+					} else if (consume('<') && !atEnd() && Character.isLetter(regex.charAt(pos))) {
+						// named group
+						int end = regex.indexOf('>', pos);
+						if (end < 0) {
+							throw error("unterminated group name");
+						}
+						pos = end + 1;
+					} else {
+						throw error("lookaround and flags are not supported");
+					}
+				}
+				Node node = alternation();
+				if (!consume(')')) {
+					throw error("unclosed group");
+				}
+				return node;
+			case '[':
+				return new Atom(charClass());
+			case '.':
+				return new Atom(CharSet.DOT);
+			case '\\':
+				CharSet set = escape(false);
+				return new Atom(set);
+			case '^':
+			case '$':
+				throw error("anchors are only supported at the ends of the regex");
+			case ')':
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw error("dangling metacharacter");
+			default:
+				return new Atom(CharSet.of(c));
+			}
+		}
+
+		CharSet charClass() {
+			boolean negated = consume('^');
+			CharSet set = new CharSet();
+			boolean first = true;
+			while (true) {
+				if (atEnd()) {
+					throw error("unclosed character class");
+				}
+				char c = regex.charAt(pos);
+				if (c == ']' && !first) {
+					pos++;
+					break;
+				}
+				first = false;
+				if (c == '[' || regex.startsWith("&&", pos)) {
+					throw error("nested character classes are not supported");
+				}
+				pos++;
+				int lo;
+				if (c == '\\') {
+					CharSet escaped = escape(true);
+					if (escaped.single() < 0) {
+						set.addAll(escaped);
+						continue;
+					}
+					lo = escaped.single();
+				} else {
+					lo = c;
+				}
+				if (pos + 1 < regex.length() && regex.charAt(pos) == '-'
+						&& regex.charAt(pos + 1) != ']') {
+					pos++;
+					int hi = regex.charAt(pos++);
+					if (hi == '\\') {
+						hi = escape(true).single();
+					}
+					if (hi < lo) {
+						throw error("bad character range");
+					}
+					set.add(lo, hi);
+				} else {
+					set.add(lo, lo);
+				}
+			}
+			return negated ? set.negate() : set;
+		}
+
+		CharSet escape(boolean inClass) {
+			if (atEnd()) {
+				throw error("trailing backslash");
+			}
+			char e = regex.charAt(pos++);
+			switch (e) {
+			case 'd':
+			case 'D':
+			case 'w':
+			case 'W':
+			case 's':
+			case 'S':
+				return CharSet.shorthand(e);
+			case 't':
+				return CharSet.of('\t');
+			case 'n':
+				return CharSet.of('\n');
+			case 'r':
+				return CharSet.of('\r');
+			case 'f':
+				return CharSet.of('\f');
+			case 'a':
+				return CharSet.of('\u0007');
+			case 'e':
+				return CharSet.of('\u001B');
+			case 'x':
+				return CharSet.of((char) hex(2));
+			case 'u':
+				return CharSet.of((char) hex(4));
+			default:
+				if (e < 128 && !Character.isLetterOrDigit(e)) {
+					return CharSet.of(e);
+				}
+				throw error("unsupported escape \\" + e);
+			}
+		}
+
+		int hex(int digits) {
+			if (pos + digits > regex.length()) {
+				throw error("bad hex escape");
+			}
+			try {
+				int v = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+				pos += digits;
+				return v;
+			} catch (NumberFormatException e) {
+				throw error("bad hex escape");
+			}
+		}
+	}
+
+	/**
+	 * A set of chars, as sorted disjoint ranges plus an ASCII lookup table.
+	 */
+	static final class CharSet {
+		static final CharSet DOT = new CharSet().add('\n', '\n').add('\r', '\r')
+				.add('\u0085', '\u0085').add('\u2028', '\u2029').negate();
+
+		private final List<int[]> ranges = new ArrayList<int[]>();
+		private final boolean[] ascii = new boolean[128];
+
+		static CharSet of(char c) {
+			return new CharSet().add(c, c);
+		}
+
+		static CharSet shorthand(char e) {
+			CharSet set = new CharSet();
+			switch (Character.toLowerCase(e)) {
+			case 'd':
+				set.add('0', '9');
+				break;
+			case 'w':
+				set.add('0', '9').add('a', 'z').add('A', 'Z').add('_', '_');
+				break;
+			default:
+				set.add(' ', ' ').add('\t', '\r');
+			}
+			return Character.isUpperCase(e) ? set.negate() : set;
+		}
+
+		CharSet add(int lo, int hi) {
+			for (int c = lo; c <= hi && c < 128; c++) {
+				ascii[c] = true;
+			}
+			List<int[]> merged = new ArrayList<int[]>();
+			int[] range = new int[] { lo, hi };
+			for (int[] r : ranges) {
+				if (r[1] + 1 < range[0] || range[1] + 1 < r[0]) {
+					merged.add(r);
+				} else {
+					range = new int[] { Math.min(r[0], range[0]), Math.max(r[1], range[1]) };
+				}
+			}
+			merged.add(range);
+			java.util.Collections.sort(merged, new java.util.Comparator<int[]>() {
+				public int compare(int[] a, int[] b) {
+					return a[0] - b[0];
+				}
+			});
+			ranges.clear();
+			ranges.addAll(merged);
+			return this;
+		}
+
+		CharSet addAll(CharSet other) {
+			for (int[] r : other.ranges) {
+				add(r[0], r[1]);
+			}
+			return this;
+		}
+
+		CharSet negate() {
+			CharSet set = new CharSet();
+			int next = 0;
+			for (int[] r : ranges) {
+				if (r[0] > next) {
+					set.add(next, r[0] - 1);
+				}
+				next = r[1] + 1;
+			}
+			if (next <= Character.MAX_VALUE) {
+				set.add(next, Character.MAX_VALUE);
+			}
+			return set;
+		}
+
+		/**
+		 * @return the only char in this set, or -1.
+		 */
+		int single() {
+			if (ranges.size() == 1 && ranges.get(0)[0] == ranges.get(0)[1]) {
+				return ranges.get(0)[0];
+			}
+			return -1;
+		}
+
+		boolean matches(char c) {
+			if (c < 128) {
+				return ascii[c];
+			}
+			for (int[] r : ranges) {
+				if (c < r[0]) {
+					return false;
+				}
+				if (c <= r[1]) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.yahoo.hive.contrib;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long to a positive int count, kept in two
+ * parallel primitive arrays with linear probing. A count of zero marks an
+ * empty slot, so only positive counts can be stored. Entries are visited by
+ * slot: {@link #capacity()}, {@link #keyAt(int)} and {@link #countAt(int)}.
+ *
+ * @author harshars
+ *
+ */
+class LongIntHashMap {
+
+	private static final int MIN_CAPACITY = 8;
+
+	private long[] keys;
+	private int[] counts;
+	private int size;
+	private int mask;
+
+	LongIntHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	LongIntHashMap(int expected) {
+		allocate(tableSize(expected));
+	}
+
+	/**
+	 * Adds delta, which must be positive, to the count of key and returns
+	 * the new count.
+	 */
+	int add(long key, int delta) {
+		int i = slot(key, mask);
+		while (counts[i] != 0) {
+			if (keys[i] == key) {
+				return counts[i] += delta;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		counts[i] = delta;
+		if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+			rehash(keys.length << 1);
+		}
+		return delta;
+	}
+
+	/**
+	 * Returns the count of key, or 0 if it is absent.
+	 */
+	int get(long key) {
+		int i = slot(key, mask);
+		while (counts[i] != 0) {
+			if (keys[i] == key) {
+				return counts[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/**
+	 * Returns the keys in ascending order.
+	 */
+	long[] sortedKeys() {
+		long[] sorted = new long[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (counts[i] != 0) {
+				sorted[n++] = keys[i];
+			}
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	int capacity() {
+		return keys.length;
+	}
+
+	long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Returns the count held in slot, or 0 if the slot is empty.
+	 */
+	int countAt(int slot) {
+		return counts[slot];
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		allocate(capacity);
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldCounts[j] != 0) {
+				int i = slot(oldKeys[j], mask);
+				while (counts[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				counts[i] = oldCounts[j];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		counts = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	static int tableSize(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expected + (expected >> 1)) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Home slot of key: the finalizer of MurmurHash3, so that sequential ids
+	 * spread over the table.
+	 */
+	static int slot(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+}
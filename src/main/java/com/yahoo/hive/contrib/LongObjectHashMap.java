@@ -0,0 +1,124 @@
+package com.yahoo.hive.contrib;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long to a non-null object, kept in two
+ * parallel arrays with linear probing. A null value marks an empty slot.
+ * Entries are visited by slot: {@link #capacity()}, {@link #keyAt(int)} and
+ * {@link #valueAt(int)}.
+ *
+ * @author harshars
+ *
+ */
+class LongObjectHashMap<V> {
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	LongObjectHashMap() {
+		this(0);
+	}
+
+	LongObjectHashMap(int expected) {
+		allocate(LongIntHashMap.tableSize(expected));
+	}
+
+	/**
+	 * Returns the value of key, or null if it is absent.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		int i = LongIntHashMap.slot(key, mask);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				return (V) values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Associates value, which must not be null, with key.
+	 */
+	void put(long key, V value) {
+		int i = LongIntHashMap.slot(key, mask);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Returns the keys in ascending order.
+	 */
+	long[] sortedKeys() {
+		long[] sorted = new long[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				sorted[n++] = keys[i];
+			}
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	int capacity() {
+		return keys.length;
+	}
+
+	long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Returns the value held in slot, or null if the slot is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	V valueAt(int slot) {
+		return (V) values[slot];
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] != null) {
+				int i = LongIntHashMap.slot(oldKeys[j], mask);
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+}
@@ -14,10 +14,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
-import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.io.BytesWritable;
 
@@ -54,6 +51,9 @@ public class MinHashUDAF extends AbstractGenericUDAFResolver{
 		PrimitiveObjectInspector inputOI;
 		IntObjectInspector kOI;
 
+		// chosen in init() from the input type
+		SketchFeeder<MinHash> feeder;
+
 		// intermediate results
 		BinaryObjectInspector partialOI;
 		
@@ -65,6 +65,7 @@ public class MinHashUDAF extends AbstractGenericUDAFResolver{
 			super.init(m, parameters);
 			if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
 				inputOI = (PrimitiveObjectInspector) parameters[0];
+				feeder = SketchFeeder.create(inputOI, SketchFeeder.MIN_HASH);
 				kOI = (IntObjectInspector)parameters[1];
 			} else {
 				partialOI = (BinaryObjectInspector) parameters[0];
@@ -86,49 +87,56 @@ public class MinHashUDAF extends AbstractGenericUDAFResolver{
 			if (parameters[0] == null) {
 				return;
 			}
-			Object obj = parameters[0];
 			MinHashAggBuffer aggBuffer = (MinHashAggBuffer) buffer;
-			
+			// serialized sketches are adopted by an empty buffer rather than
+			// merged into a new one
+			if (!aggBuffer.initialized() && !feeder.merges()) {
+				aggBuffer.signature = new MinHash(kOI.get(parameters[1]));
+			}
+			aggBuffer.signature = feeder.feed(aggBuffer.signature, parameters[0]);
+		}
+
+		/**
+		 * Batch form of {@link #iterate(AggregationBuffer, Object[])} for an
+		 * int or bigint column, laid out as a Hive column vector: the values
+		 * are vector[0, size), and when noNulls is false the ones flagged in
+		 * isNull are null. k is the number of buckets, as passed to iterate().
+		 */
+		public void iterateBatch(AggregationBuffer buffer, int k, long[] vector, boolean[] isNull,
+				boolean noNulls, int size) throws HiveException {
+			MinHashAggBuffer aggBuffer = (MinHashAggBuffer) buffer;
 			if (!aggBuffer.initialized()) {
-				int k = kOI.get(parameters[1]);
+				if (SketchFeeder.firstNonNull(isNull, noNulls, size) == size) {
+					return;
+				}
 				aggBuffer.signature = new MinHash(k);
 			}
-			if (inputOI != null) {
-				switch (inputOI.getPrimitiveCategory()) {
-				case INT: {
-					int v = ((IntObjectInspector) inputOI).get(obj);
-					aggBuffer.signature.update(v);
-					break;
-				}
-				case LONG: {
-					long v = ((LongObjectInspector) inputOI).get(obj);
-					aggBuffer.signature.update(v);
-					break;
-				}
-				case STRING: {
-					String v = ((StringObjectInspector) inputOI)
-							.getPrimitiveJavaObject(obj);
-					aggBuffer.signature.update(v);
-					break;
-				}
-				case BINARY:
-				default: {
-					BytesWritable binary = PrimitiveObjectInspectorUtils
-							.getBinary(obj, inputOI);
-					byte[] bytes = binary.getBytes();
-					if (inputOI instanceof BinaryObjectInspector) {
-						byte[] trimmedBytes = new byte[binary.getLength()];
-						System.arraycopy(bytes, 0, trimmedBytes, 0,
-								trimmedBytes.length);
-						MinHash other = MinHash.fromBytes(trimmedBytes);
-						aggBuffer.signature = aggBuffer.signature.merge(other);
-					} else {
-						aggBuffer.signature.update(bytes);
-					}
-				}
+			try {
+				aggBuffer.signature = feeder.feed(aggBuffer.signature, vector, isNull, noNulls, size);
+			} catch (IllegalArgumentException e) {
+				throw new HiveException(e.getMessage());
+			}
+		}
+
+		/**
+		 * Batch form of {@link #iterate(AggregationBuffer, Object[])} for a
+		 * string or binary column, laid out as a Hive column vector: value i
+		 * is the bytes [start[i], start[i] + length[i]) of vector[i].
+		 */
+		public void iterateBatch(AggregationBuffer buffer, int k, byte[][] vector, int[] start, int[] length,
+				boolean[] isNull, boolean noNulls, int size) throws HiveException {
+			MinHashAggBuffer aggBuffer = (MinHashAggBuffer) buffer;
+			if (!aggBuffer.initialized() && !feeder.merges()) {
+				if (SketchFeeder.firstNonNull(isNull, noNulls, size) == size) {
+					return;
 				}
+				aggBuffer.signature = new MinHash(k);
+			}
+			try {
+				aggBuffer.signature = feeder.feed(aggBuffer.signature, vector, start, length, isNull, noNulls, size);
+			} catch (IllegalArgumentException e) {
+				throw new HiveException(e.getMessage());
 			}
-				
 		}
 
 		@Override
@@ -137,14 +145,7 @@ public class MinHashUDAF extends AbstractGenericUDAFResolver{
 			if (obj != null) {
 				BytesWritable bw = (BytesWritable) obj;
 				MinHashAggBuffer aggBuffer = (MinHashAggBuffer) buffer;
-				byte[] bytes = new byte[bw.getLength()];
-				System.arraycopy(bw.getBytes(), 0, bytes, 0, bw.getLength());
-
-				MinHash other = MinHash.fromBytes(bytes);
-				if (!aggBuffer.initialized()) {
-					aggBuffer.signature = new MinHash(other.getK());
-				}
-				aggBuffer.signature = aggBuffer.signature.merge(other);
+				aggBuffer.merge(SketchBytes.minHash(bw));
 			}
 		}
 
@@ -157,8 +158,13 @@ public class MinHashUDAF extends AbstractGenericUDAFResolver{
 		@Override
 		public BytesWritable terminate(AggregationBuffer buffer) throws HiveException {
 			MinHashAggBuffer aggBuffer = (MinHashAggBuffer) buffer;
+			// like approx_distinct, a group with no values has no signature
+			if (!aggBuffer.initialized() || aggBuffer.signature.isEmpty()) {
+				return null;
+			}
 			BytesWritable signature = new BytesWritable();
-			byte [] b = aggBuffer.signature.toBytes();
+			byte [] b = SketchBytes.envelope(SketchBytes.MIN_HASH, aggBuffer.signature.getK(), -1,
+					aggBuffer.signature.toBytes());
 			signature.set(b, 0, b.length);
 			return signature;
 		}
@@ -167,6 +173,9 @@ public class MinHashUDAF extends AbstractGenericUDAFResolver{
 		public Object terminatePartial(AggregationBuffer buffer)
 				throws HiveException {
 			MinHashAggBuffer aggBuffer = (MinHashAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
 			byte [] b = aggBuffer.signature.toBytes();
 			partial.set(b, 0, b.length);
 			return partial;
@@ -179,11 +188,23 @@ public class MinHashUDAF extends AbstractGenericUDAFResolver{
 			return signature != null;
 		}
 		
+		/**
+		 * Keeps an empty signature of the same k for the next group.
+		 */
 		public void reset() {
 			if (signature != null) {
 				signature = signature.empty();
 			}
 		}
+
+		/**
+		 * Merges other into the signature. Signatures can not be merged in
+		 * place, so an empty buffer takes other as it is, which saves
+		 * merging the first partial into an empty signature.
+		 */
+		public void merge(MinHash other) {
+			signature = signature == null || signature.isEmpty() ? other : signature.merge(other);
+		}
 	}
 }
 
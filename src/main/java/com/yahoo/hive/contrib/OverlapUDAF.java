@@ -95,26 +95,11 @@ public class OverlapUDAF extends AbstractGenericUDAFResolver {
 				throws HiveException {
 			BytesWritable xbinary = PrimitiveObjectInspectorUtils.getBinary(
 					parameters[0], inputOIx);
-
-			ContainmentAggBuffer aggBuffer = (ContainmentAggBuffer) buffer;
-			ModHash xSignature = fromBytes(xbinary);
-			if (!aggBuffer.initialized()) {
-				aggBuffer.xsignature = xSignature.empty();
-				aggBuffer.ysignature = xSignature.empty();
-			}
-			aggBuffer.xsignature = aggBuffer.xsignature
-					.merge(xSignature);
 			BytesWritable ybinary = PrimitiveObjectInspectorUtils.getBinary(
 					parameters[1], inputOIy);
-			aggBuffer.ysignature = aggBuffer.ysignature
-					.merge(fromBytes(ybinary));
-		}
 
-		private ModHash fromBytes(BytesWritable binary) {
-			byte[] xbytes = binary.getBytes();
-			byte[] trimmedBytes = new byte[binary.getLength()];
-			System.arraycopy(xbytes, 0, trimmedBytes, 0, trimmedBytes.length);
-			return ModHash.fromBytes(trimmedBytes);
+			ContainmentAggBuffer aggBuffer = (ContainmentAggBuffer) buffer;
+			aggBuffer.merge(SketchBytes.modHash(xbinary), SketchBytes.modHash(ybinary));
 		}
 
 		@Override
@@ -123,25 +108,14 @@ public class OverlapUDAF extends AbstractGenericUDAFResolver {
 			if (obj != null) {
 				ContainmentAggBuffer aggBuffer = (ContainmentAggBuffer) buffer;
 				BytesWritable bw = (BytesWritable) obj;
-				byte[] bytes = new byte[bw.getLength()];
-				System.arraycopy(bw.getBytes(), 0, bytes, 0, bw.getLength());
+				// the lengths and signatures are read in place
+				byte[] bytes = bw.getBytes();
 				int xLength = Ints.fromBytes(bytes[0], bytes[1], bytes[2],
 						bytes[3]);
 				int yLength = Ints.fromBytes(bytes[4], bytes[5], bytes[6],
 						bytes[7]);
-				byte[] xBytes = new byte[xLength];
-				System.arraycopy(bytes, 8, xBytes, 0, xLength);
-				byte[] yBytes = new byte[yLength];
-				System.arraycopy(bytes, 8 + xLength, yBytes, 0, yLength);
-				ModHash xSignature = ModHash.fromBytes(xBytes);
-				ModHash ySignature = ModHash.fromBytes(yBytes);
-				if (!aggBuffer.initialized()) {
-					aggBuffer.xsignature = xSignature.empty();
-					aggBuffer.ysignature = ySignature.empty();
-				}
-				
-				aggBuffer.xsignature = aggBuffer.xsignature.merge(xSignature);
-				aggBuffer.ysignature = aggBuffer.ysignature.merge(ySignature);
+				aggBuffer.merge(SketchBytes.modHash(bytes, 8, xLength),
+						SketchBytes.modHash(bytes, 8 + xLength, yLength));
 			}
 		}
 
@@ -154,6 +128,9 @@ public class OverlapUDAF extends AbstractGenericUDAFResolver {
 		@Override
 		public Object terminate(AggregationBuffer buffer) throws HiveException {
 			ContainmentAggBuffer aggBuffer = (ContainmentAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
 			ModHash x = aggBuffer.xsignature;
 			ModHash y = aggBuffer.ysignature;
 			double cEst = x.containmentEstimate(y).getAinB();
@@ -165,6 +142,9 @@ public class OverlapUDAF extends AbstractGenericUDAFResolver {
 		public Object terminatePartial(AggregationBuffer buffer)
 				throws HiveException {
 			ContainmentAggBuffer aggBuffer = (ContainmentAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
 			byte[] xBytes = aggBuffer.xsignature.toBytes();
 			byte[] yBytes = aggBuffer.ysignature.toBytes();
 			byte[] bytes = new byte[xBytes.length + yBytes.length + 8];
@@ -192,9 +172,22 @@ public class OverlapUDAF extends AbstractGenericUDAFResolver {
 		}
 
 		public void reset() {
+			xsignature = null;
+			ysignature = null;
+		}
+
+		/**
+		 * Merges x and y into the signatures. Signatures can not be merged
+		 * in place, so an empty buffer takes x and y as they are, which
+		 * saves merging the first row into empty signatures.
+		 */
+		public void merge(ModHash x, ModHash y) {
 			if (initialized()) {
-				xsignature = xsignature.empty();
-				ysignature = xsignature.empty();
+				xsignature = xsignature.merge(x);
+				ysignature = ysignature.merge(y);
+			} else {
+				xsignature = x;
+				ysignature = y;
 			}
 		}
 	}
@@ -0,0 +1,62 @@
+package com.yahoo.hive.contrib;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded LRU cache of compiled regular expressions, keyed by the regex text.
+ * Used by the regex UDFs when the pattern is a column rather than a literal.
+ *
+ * @author harshars
+ *
+ */
+class PatternCache {
+
+	static final int DEFAULT_CAPACITY = 64;
+
+	private final LinkedHashMap<String, Pattern> cache;
+	private final LinkedHashMap<String, LinearPattern> linearCache;
+
+	PatternCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	PatternCache(int capacity) {
+		cache = newLru(capacity);
+		linearCache = newLru(capacity);
+	}
+
+	private static <V> LinkedHashMap<String, V> newLru(final int capacity) {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	Pattern get(String regex) {
+		Pattern pattern = cache.get(regex);
+		if (pattern == null) {
+			pattern = Pattern.compile(regex);
+			cache.put(regex, pattern);
+		}
+		return pattern;
+	}
+
+	LinearPattern getLinear(String regex) {
+		LinearPattern pattern = linearCache.get(regex);
+		if (pattern == null) {
+			pattern = LinearPattern.compile(regex);
+			linearCache.put(regex, pattern);
+		}
+		return pattern;
+	}
+
+	int size() {
+		return cache.size();
+	}
+}
@@ -0,0 +1,34 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+
+/**
+ * Resequences a string into an array of doubles, using the provided regex.
+ * @author harshars
+ *
+ */
+@Description(name = "reseq_double",
+value = "_FUNC_(x, regex) - resequences the string based on regex, parsing each match "
++ "(or its first capture group) as a double",
+extended = "Example:\n"
++ "  > SELECT _FUNC_('lat=37.42,lon=-122.08','-?[\\\\d.]+') FROM src LIMIT 1;\n"
++ "  [37.42,-122.08]\n")
+public class ReseqDoubleUDF extends ReseqNumericUDF {
+
+	@Override
+	String name() {
+		return "reseq_double";
+	}
+
+	@Override
+	NumericList newList() {
+		return new DoubleList();
+	}
+
+	@Override
+	ObjectInspector elementObjectInspector() {
+		return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+	}
+}
@@ -0,0 +1,187 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Companion of {@link ReseqUDF} that emits each regex match as a row, instead
+ * of collecting the matches of a line into an array. When the regex is a
+ * literal with capture groups, each group becomes a column, named after the
+ * group if it is a named group, group1..groupN otherwise.
+ *
+ * @author harshars
+ *
+ */
+@Description(name = "reseq_explode",
+value = "_FUNC_(x, regex) - emits one row per match of regex in the string, "
++ "with one column per capture group if regex is a literal with groups",
+extended = "Example:\n"
++ "  > SELECT m.* FROM src LATERAL VIEW _FUNC_(line, 'catid(\\\\d+)value(\\\\d+)') m;\n"
++ "  123	456\n"
++ "  234	344\n")
+public class ReseqExplodeUDTF extends GenericUDTF {
+
+	static final String MATCH = "match";
+
+	private ObjectInspectorConverters.Converter[] converters;
+	private Pattern constantPattern;
+	private ByteClassMatcher byteMatcher;
+	private final PatternCache patterns = new PatternCache();
+	private int groupCount;
+
+	// a single row and its cells are reused for every forwarded match
+	private Object[] row;
+	private Text[] cells;
+
+	@Override
+	public StructObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		if (arguments.length != 2) {
+			throw new UDFArgumentLengthException(
+					"The function reseq_explode(s, regexp) takes exactly 2 arguments.");
+		}
+
+		converters = new ObjectInspectorConverters.Converter[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			converters[i] = ObjectInspectorConverters
+					.getConverter(
+							arguments[i],
+							PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+		}
+
+		constantPattern = null;
+		byteMatcher = null;
+		groupCount = 0;
+		List<String> fieldNames = new ArrayList<String>();
+		if (arguments[1] instanceof ConstantObjectInspector) {
+			Object regex = ((ConstantObjectInspector) arguments[1]).getWritableConstantValue();
+			if (regex != null) {
+				constantPattern = Pattern.compile(regex.toString());
+				groupCount = constantPattern.matcher("").groupCount();
+				if (groupCount == 0) {
+					byteMatcher = ByteClassMatcher.compile(regex.toString());
+				} else {
+					fieldNames.addAll(groupNames(regex.toString(), groupCount));
+				}
+			}
+		}
+		if (fieldNames.isEmpty()) {
+			fieldNames.add(MATCH);
+		}
+
+		List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+		row = new Object[fieldNames.size()];
+		cells = new Text[fieldNames.size()];
+		for (int i = 0; i < fieldNames.size(); i++) {
+			fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+			cells[i] = new Text();
+		}
+		return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+	}
+
+	@Override
+	public void process(Object[] arguments) throws HiveException {
+		if (arguments[0] == null || arguments[1] == null) {
+			return;
+		}
+		Text s = (Text) converters[0].convert(arguments[0]);
+		if (byteMatcher != null) {
+			byte[] bytes = s.getBytes();
+			int end = s.getLength();
+			int start = byteMatcher.find(bytes, 0, end);
+			while (start >= 0) {
+				int matchEnd = byteMatcher.matchEnd(bytes, start, end);
+				cells[0].set(bytes, start, matchEnd - start);
+				row[0] = cells[0];
+				forward(row);
+				start = byteMatcher.find(bytes, matchEnd, end);
+			}
+			return;
+		}
+		Pattern pattern = constantPattern;
+		if (pattern == null) {
+			Text regex = (Text) converters[1].convert(arguments[1]);
+			pattern = patterns.get(regex.toString());
+		}
+		Matcher matcher = pattern.matcher(s.toString());
+		while (matcher.find()) {
+			if (groupCount == 0) {
+				cells[0].set(matcher.group());
+				row[0] = cells[0];
+			} else {
+				for (int i = 0; i < groupCount; i++) {
+					String group = matcher.group(i + 1);
+					if (group == null) {
+						row[i] = null;
+					} else {
+						cells[i].set(group);
+						row[i] = cells[i];
+					}
+				}
+			}
+			forward(row);
+		}
+	}
+
+	@Override
+	public void close() throws HiveException {
+	}
+
+	/**
+	 * Names the capture groups of a regex in group order, using the name of
+	 * (?&lt;name&gt;...) groups and groupN for numbered ones.
+	 */
+	static List<String> groupNames(String regex, int groupCount) {
+		List<String> names = new ArrayList<String>();
+		boolean inClass = false;
+		for (int i = 0; i < regex.length() && names.size() < groupCount; i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+					int end = regex.indexOf("\\E", i + 2);
+					i = end < 0 ? regex.length() : end + 1;
+				} else {
+					i++;
+				}
+			} else if (inClass) {
+				inClass = c != ']';
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '(') {
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+					if (i + 3 < regex.length() && regex.charAt(i + 2) == '<'
+							&& regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!') {
+						int end = regex.indexOf('>', i + 3);
+						names.add(regex.substring(i + 3, end));
+					}
+				} else {
+					names.add("group" + (names.size() + 1));
+				}
+			}
+		}
+		while (names.size() < groupCount) {
+			names.add("group" + (names.size() + 1));
+		}
+		return names;
+	}
+
+	@Override
+	public String toString() {
+		return "reseq_explode";
+	}
+}
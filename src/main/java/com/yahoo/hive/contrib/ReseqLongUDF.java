@@ -0,0 +1,34 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+
+/**
+ * Resequences a string into an array of bigints, using the provided regex.
+ * @author harshars
+ *
+ */
+@Description(name = "reseq_long",
+value = "_FUNC_(x, regex) - resequences the string based on regex, parsing each match "
++ "(or its first capture group) as a bigint",
+extended = "Example:\n"
++ "  > SELECT _FUNC_('catid123value456score1catid234value344score2','catid(\\\\d+)') FROM src LIMIT 1;\n"
++ "  [123,234]\n")
+public class ReseqLongUDF extends ReseqNumericUDF {
+
+	@Override
+	String name() {
+		return "reseq_long";
+	}
+
+	@Override
+	NumericList newList() {
+		return new LongList();
+	}
+
+	@Override
+	ObjectInspector elementObjectInspector() {
+		return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+	}
+}
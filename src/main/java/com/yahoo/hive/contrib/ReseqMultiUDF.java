@@ -0,0 +1,213 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Resequences a string against several regexes in a single pass. The regexes
+ * are combined into one alternation, with a group around each regex to tell
+ * which one matched. A region of the string is attributed to the first regex
+ * that matches there, so regexes whose matches overlap should still be run
+ * through separate reseq calls. Null regexes are left out.
+ *
+ * @author harshars
+ *
+ */
+@Description(name = "reseq_multi",
+value = "_FUNC_(x, array(regex1, regex2, ...)) - resequences the string based on each regex, "
++ "returns a map of regex to the matches of that regex",
+extended = "Example:\n"
++ "  > SELECT _FUNC_('catid123value456score1catid234value344score2', array('catid\\\\d+','value\\\\d+')) FROM src LIMIT 1;\n"
++ "  {\"catid\\\\d+\":[\"catid123\",\"catid234\"],\"value\\\\d+\":[\"value456\",\"value344\"]}\n")
+public class ReseqMultiUDF extends GenericUDF {
+	private ObjectInspectorConverters.Converter inputConverter;
+	private ObjectInspectorConverters.Converter regexConverter;
+	private ListObjectInspector regexesOI;
+	// compiled once in initialize() when the regex array is a literal
+	private MultiPattern constantPatterns;
+	// the regexes of the last row, kept while the rows bring the same ones
+	MultiPattern lastPatterns;
+	private final PatternCache patterns = new PatternCache();
+
+	@Override
+	public Map<Text, List<Text>> evaluate(DeferredObject[] arguments) throws HiveException {
+		assert (arguments.length == 2);
+
+		if (arguments[0].get() == null || arguments[1].get() == null) {
+			return null;
+		}
+
+		Text s = (Text) inputConverter.convert(arguments[0].get());
+		MultiPattern multi = constantPatterns;
+		if (multi == null) {
+			String[] regexes = regexes(arguments[1].get());
+			if (lastPatterns == null || !Arrays.equals(regexes, lastPatterns.regexes)) {
+				lastPatterns = new MultiPattern(regexes, patterns);
+			}
+			multi = lastPatterns;
+		}
+
+		List<List<Text>> matches = new ArrayList<List<Text>>(multi.regexes.length);
+		Map<Text, List<Text>> result = new HashMap<Text, List<Text>>();
+		for (int i = 0; i < multi.regexes.length; i++) {
+			List<Text> found = new ArrayList<Text>();
+			matches.add(found);
+			result.put(new Text(multi.regexes[i]), found);
+		}
+		multi.scan(s.toString(), matches);
+		return result;
+	}
+
+	/**
+	 * The regexes of the array list, without the null ones.
+	 */
+	private String[] regexes(Object list) {
+		int n = regexesOI.getListLength(list);
+		List<String> regexes = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++) {
+			Text regex = (Text) regexConverter.convert(regexesOI.getListElement(list, i));
+			if (regex != null) {
+				regexes.add(regex.toString());
+			}
+		}
+		return regexes.toArray(new String[regexes.size()]);
+	}
+
+	@Override
+	public String getDisplayString(String[] children) {
+		assert (children.length == 2);
+		return "reseq_multi(" + children[0] + ", " + children[1] + ")";
+	}
+
+	@Override
+	public ObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		if (arguments.length != 2) {
+			throw new UDFArgumentLengthException(
+					"The function reseq_multi(s, array(regexp, ...)) takes exactly 2 arguments.");
+		}
+		if (arguments[1].getCategory() != Category.LIST) {
+			throw new UDFArgumentTypeException(1,
+					"An array of regexes is expected but "
+							+ arguments[1].getTypeName()
+							+ " was passed as parameter.");
+		}
+
+		inputConverter = ObjectInspectorConverters.getConverter(arguments[0],
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+		regexesOI = (ListObjectInspector) arguments[1];
+		regexConverter = ObjectInspectorConverters.getConverter(
+				regexesOI.getListElementObjectInspector(),
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+
+		constantPatterns = null;
+		lastPatterns = null;
+		if (arguments[1] instanceof ConstantObjectInspector) {
+			Object constant = ((ConstantObjectInspector) arguments[1]).getWritableConstantValue();
+			if (constant != null) {
+				constantPatterns = new MultiPattern(regexes(constant), patterns);
+			}
+		}
+
+		return ObjectInspectorFactory.getStandardMapObjectInspector(
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+				ObjectInspectorFactory.getStandardListObjectInspector(
+						PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+	}
+
+	/**
+	 * Several regexes compiled into one alternation (r1)|(r2)|..., along with
+	 * the group number that wraps each regex.
+	 */
+	static class MultiPattern {
+		final String[] regexes;
+		final int[] groups;
+		// null if the regexes can not be combined, e.g. back references
+		final Pattern combined;
+		final Pattern[] separate;
+
+		MultiPattern(String[] regexes, PatternCache cache) {
+			this.regexes = regexes;
+			this.groups = new int[regexes.length];
+			this.separate = new Pattern[regexes.length];
+			StringBuilder alternation = new StringBuilder();
+			int group = 1;
+			boolean combinable = true;
+			for (int i = 0; i < regexes.length; i++) {
+				separate[i] = cache.get(regexes[i]);
+				groups[i] = group;
+				group += 1 + separate[i].matcher("").groupCount();
+				combinable &= !hasBackReference(regexes[i]);
+				if (i > 0) {
+					alternation.append('|');
+				}
+				alternation.append('(').append(regexes[i]).append(')');
+			}
+			Pattern p = null;
+			if (combinable) {
+				try {
+					p = cache.get(alternation.toString());
+				} catch (PatternSyntaxException e) {
+					// e.g. the same group name in two regexes
+					p = null;
+				}
+			}
+			this.combined = p;
+		}
+
+		void scan(String s, List<List<Text>> matches) {
+			if (combined == null) {
+				for (int i = 0; i < separate.length; i++) {
+					Matcher matcher = separate[i].matcher(s);
+					while (matcher.find()) {
+						matches.get(i).add(new Text(matcher.group()));
+					}
+				}
+				return;
+			}
+			Matcher matcher = combined.matcher(s);
+			while (matcher.find()) {
+				for (int i = 0; i < groups.length; i++) {
+					if (matcher.start(groups[i]) >= 0) {
+						matches.get(i).add(new Text(matcher.group()));
+						break;
+					}
+				}
+			}
+		}
+
+		private static boolean hasBackReference(String regex) {
+			for (int i = 0; i + 1 < regex.length(); i++) {
+				if (regex.charAt(i) == '\\') {
+					char c = regex.charAt(i + 1);
+					if (Character.isDigit(c) || c == 'k') {
+						return true;
+					}
+					i++;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package com.yahoo.hive.contrib;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Base of the typed variants of {@link ReseqUDF}, which parse each match
+ * straight from the input into a primitive-backed list instead of returning
+ * the matches as strings. If the regex has a capture group, the first group
+ * is parsed, otherwise the whole match. Matches that do not parse, or
+ * overflow, become nulls, as with a cast.
+ *
+ * @author harshars
+ *
+ */
+public abstract class ReseqNumericUDF extends GenericUDF {
+	private ObjectInspectorConverters.Converter[] converters;
+	private Pattern constantPattern;
+	private ByteClassMatcher byteMatcher;
+	private final PatternCache patterns = new PatternCache();
+	// reused across rows
+	private NumericList result;
+
+	abstract String name();
+
+	abstract NumericList newList();
+
+	abstract ObjectInspector elementObjectInspector();
+
+	@Override
+	public List<Object> evaluate(DeferredObject[] arguments) throws HiveException {
+		assert (arguments.length == 2);
+
+		if (arguments[0].get() == null || arguments[1].get() == null) {
+			return null;
+		}
+
+		Text s = (Text) converters[0].convert(arguments[0].get());
+		result.clear();
+		if (byteMatcher != null) {
+			byte[] bytes = s.getBytes();
+			int end = s.getLength();
+			int start = byteMatcher.find(bytes, 0, end);
+			while (start >= 0) {
+				int matchEnd = byteMatcher.matchEnd(bytes, start, end);
+				result.add(bytes, start, matchEnd);
+				start = byteMatcher.find(bytes, matchEnd, end);
+			}
+			return result;
+		}
+		Pattern pattern = constantPattern;
+		if (pattern == null) {
+			Text regex = (Text) converters[1].convert(arguments[1].get());
+			pattern = patterns.get(regex.toString());
+		}
+		String input = s.toString();
+		Matcher matcher = pattern.matcher(input);
+		int group = matcher.groupCount() > 0 ? 1 : 0;
+		while (matcher.find()) {
+			if (matcher.start(group) < 0) {
+				result.addNull();
+			} else {
+				result.add(input, matcher.start(group), matcher.end(group));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String getDisplayString(String[] children) {
+		assert (children.length == 2);
+		return name() + "(" + children[0] + ", " + children[1] + ")";
+	}
+
+	@Override
+	public ObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		if (arguments.length != 2) {
+			throw new UDFArgumentLengthException(
+					"The function " + name() + "(s, regexp) takes exactly 2 arguments.");
+		}
+
+		converters = new ObjectInspectorConverters.Converter[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			converters[i] = ObjectInspectorConverters
+					.getConverter(
+							arguments[i],
+							PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+		}
+		constantPattern = null;
+		byteMatcher = null;
+		if (arguments[1] instanceof ConstantObjectInspector) {
+			Object regex = ((ConstantObjectInspector) arguments[1]).getWritableConstantValue();
+			if (regex != null) {
+				constantPattern = Pattern.compile(regex.toString());
+				byteMatcher = ByteClassMatcher.compile(regex.toString());
+			}
+		}
+		result = newList();
+
+		return ObjectInspectorFactory.getStandardListObjectInspector(elementObjectInspector());
+	}
+
+	/**
+	 * List of numbers kept in a primitive array. The writable handed out for
+	 * an index is owned by the list and reused across rows.
+	 */
+	abstract static class NumericList extends AbstractList<Object> {
+		boolean[] nulls = new boolean[16];
+		int size;
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void clear() {
+			size = 0;
+		}
+
+		void addNull() {
+			grow();
+			nulls[size++] = true;
+		}
+
+		void grow() {
+			if (size == nulls.length) {
+				boolean[] n = new boolean[size * 2];
+				System.arraycopy(nulls, 0, n, 0, size);
+				nulls = n;
+				resize(size * 2);
+			}
+		}
+
+		abstract void resize(int capacity);
+
+		/**
+		 * Parses the UTF-8 bytes [start, end) and appends the value.
+		 */
+		abstract void add(byte[] bytes, int start, int end);
+
+		/**
+		 * Parses the chars [start, end) and appends the value.
+		 */
+		abstract void add(CharSequence chars, int start, int end);
+	}
+
+	static class LongList extends NumericList {
+		long[] values = new long[16];
+		LongWritable[] writables = new LongWritable[16];
+
+		@Override
+		public LongWritable get(int index) {
+			if (nulls[index]) {
+				return null;
+			}
+			if (writables[index] == null) {
+				writables[index] = new LongWritable();
+			}
+			writables[index].set(values[index]);
+			return writables[index];
+		}
+
+		@Override
+		void resize(int capacity) {
+			long[] v = new long[capacity];
+			System.arraycopy(values, 0, v, 0, values.length);
+			values = v;
+			LongWritable[] w = new LongWritable[capacity];
+			System.arraycopy(writables, 0, w, 0, writables.length);
+			writables = w;
+		}
+
+		@Override
+		void add(byte[] bytes, int start, int end) {
+			grow();
+			boolean negative = start < end && bytes[start] == '-';
+			int i = start < end && (bytes[start] == '-' || bytes[start] == '+') ? start + 1 : start;
+			boolean valid = i < end;
+			long v = 0;
+			for (; i < end && valid; i++) {
+				int d = bytes[i] - '0';
+				// accumulate negatively so that Long.MIN_VALUE fits
+				valid = d >= 0 && d <= 9 && v >= (Long.MIN_VALUE + d) / 10;
+				v = v * 10 - d;
+			}
+			valid &= negative || v != Long.MIN_VALUE;
+			nulls[size] = !valid;
+			values[size++] = negative ? v : -v;
+		}
+
+		@Override
+		void add(CharSequence chars, int start, int end) {
+			grow();
+			boolean negative = start < end && chars.charAt(start) == '-';
+			int i = start < end && (chars.charAt(start) == '-' || chars.charAt(start) == '+') ? start + 1 : start;
+			boolean valid = i < end;
+			long v = 0;
+			for (; i < end && valid; i++) {
+				int d = chars.charAt(i) - '0';
+				valid = d >= 0 && d <= 9 && v >= (Long.MIN_VALUE + d) / 10;
+				v = v * 10 - d;
+			}
+			valid &= negative || v != Long.MIN_VALUE;
+			nulls[size] = !valid;
+			values[size++] = negative ? v : -v;
+		}
+	}
+
+	static class DoubleList extends NumericList {
+		// powers of ten that are exactly representable as doubles
+		private static final double[] POWERS_OF_TEN = new double[23];
+		static {
+			POWERS_OF_TEN[0] = 1;
+			for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+				POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+			}
+		}
+		// 2^53, the largest mantissa that a double holds exactly
+		private static final long MAX_EXACT = 1L << 53;
+
+		double[] values = new double[16];
+		DoubleWritable[] writables = new DoubleWritable[16];
+
+		@Override
+		public DoubleWritable get(int index) {
+			if (nulls[index]) {
+				return null;
+			}
+			if (writables[index] == null) {
+				writables[index] = new DoubleWritable();
+			}
+			writables[index].set(values[index]);
+			return writables[index];
+		}
+
+		@Override
+		void resize(int capacity) {
+			double[] v = new double[capacity];
+			System.arraycopy(values, 0, v, 0, values.length);
+			values = v;
+			DoubleWritable[] w = new DoubleWritable[capacity];
+			System.arraycopy(writables, 0, w, 0, writables.length);
+			writables = w;
+		}
+
+		@Override
+		void add(byte[] bytes, int start, int end) {
+			grow();
+			// plain decimals like 12.25 are parsed exactly without a String
+			boolean negative = start < end && bytes[start] == '-';
+			int i = start < end && (bytes[start] == '-' || bytes[start] == '+') ? start + 1 : start;
+			long mantissa = 0;
+			int digits = 0;
+			int fraction = -1;
+			for (; i < end; i++) {
+				byte b = bytes[i];
+				if (b == '.' && fraction < 0) {
+					fraction = 0;
+				} else if (b >= '0' && b <= '9' && mantissa < MAX_EXACT / 10) {
+					mantissa = mantissa * 10 + (b - '0');
+					digits++;
+					if (fraction >= 0) {
+						fraction++;
+					}
+				} else {
+					break;
+				}
+			}
+			if (i == end && digits > 0 && fraction < POWERS_OF_TEN.length) {
+				double v = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+				nulls[size] = false;
+				values[size++] = negative ? -v : v;
+			} else {
+				set(decode(bytes, start, end));
+			}
+		}
+
+		private void set(String s) {
+			try {
+				values[size] = Double.parseDouble(s);
+				nulls[size++] = false;
+			} catch (NumberFormatException e) {
+				nulls[size++] = true;
+			}
+		}
+
+		@Override
+		void add(CharSequence chars, int start, int end) {
+			grow();
+			set(chars.subSequence(start, end).toString());
+		}
+	}
+
+	private static String decode(byte[] bytes, int start, int end) {
+		try {
+			return Text.decode(bytes, start, end - start);
+		} catch (CharacterCodingException e) {
+			return "";
+		}
+	}
+}
@@ -8,8 +8,10 @@ import java.util.regex.Pattern;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
@@ -22,53 +24,141 @@ import org.apache.hadoop.io.Text;
  *
  */
 @Description(name = "reseq",
-value = "_FUNC_(x, regex) - resequences the string based on regex",
+value = "_FUNC_(x, regex[, engine]) - resequences the string based on regex, "
++ "engine 'dfa' matches in time linear in the length of x, with no back references or lookaround",
 extended = "Example:\n"
 + "  > SELECT _FUNC_('catid123value456score1catid234value344score2','\\d+') FROM src LIMIT 1;\n"
++ "  [123,456,1,234,344,2]\n"
++ "  > SELECT _FUNC_('catid123value456score1catid234value344score2','\\d+','dfa') FROM src LIMIT 1;\n"
 + "  [123,456,1,234,344,2]\n")
 public class ReseqUDF extends GenericUDF {
+	static final String ENGINE_REGEX = "regex";
+	static final String ENGINE_DFA = "dfa";
+
 	private ObjectInspectorConverters.Converter[] converters;
+	private boolean dfa;
+	// compiled once in initialize() when the regex is a literal
+	private Pattern constantPattern;
+	private LinearPattern constantLinearPattern;
+	// byte-level matcher for literal regexes like \d+ or [a-z]+, null otherwise
+	private ByteClassMatcher byteMatcher;
+	// otherwise patterns are compiled lazily and cached by regex text
+	private final PatternCache patterns = new PatternCache();
+	// the result list and its Text elements are reused across rows
+	private final ArrayList<Text> result = new ArrayList<Text>();
+	private final ArrayList<Text> pool = new ArrayList<Text>();
 
 	@Override
 	public List<Text> evaluate(DeferredObject[] arguments) throws HiveException {
-		assert (arguments.length == 2);
+		assert (arguments.length == 2 || arguments.length == 3);
 
 		if (arguments[0].get() == null || arguments[1].get() == null) {
 			return null;
 		}
 
 		Text s = (Text) converters[0].convert(arguments[0].get());
-		Text regex = (Text) converters[1].convert(arguments[1].get());
-		Pattern pattern = Pattern.compile(regex.toString());
+		result.clear();
+		if (byteMatcher != null) {
+			byte[] bytes = s.getBytes();
+			int end = s.getLength();
+			int start = byteMatcher.find(bytes, 0, end);
+			while (start >= 0) {
+				int matchEnd = byteMatcher.matchEnd(bytes, start, end);
+				nextText().set(bytes, start, matchEnd - start);
+				start = byteMatcher.find(bytes, matchEnd, end);
+			}
+			return result;
+		}
+		if (dfa) {
+			LinearPattern pattern = constantLinearPattern;
+			if (pattern == null) {
+				Text regex = (Text) converters[1].convert(arguments[1].get());
+				try {
+					pattern = patterns.getLinear(regex.toString());
+				} catch (IllegalArgumentException e) {
+					throw new HiveException(e.getMessage());
+				}
+			}
+			String input = s.toString();
+			LinearPattern.Matcher matcher = pattern.matcher(input);
+			while (matcher.find()) {
+				nextText().set(input.substring(matcher.start(), matcher.end()));
+			}
+			return result;
+		}
+		Pattern pattern = constantPattern;
+		if (pattern == null) {
+			Text regex = (Text) converters[1].convert(arguments[1].get());
+			pattern = patterns.get(regex.toString());
+		}
 		Matcher matcher = pattern.matcher(s.toString());
-		ArrayList<Text> result = new ArrayList<Text>();
 		while (matcher.find()) {
-			result.add(new Text(matcher.group()));
+			nextText().set(matcher.group());
 		}
 		return result;
 	}
 
+	private Text nextText() {
+		int i = result.size();
+		if (i == pool.size()) {
+			pool.add(new Text());
+		}
+		Text t = pool.get(i);
+		result.add(t);
+		return t;
+	}
+
 	@Override
 	public String getDisplayString(String[] children) {
-		assert (children.length == 2);
-		return "reseq(" + children[0] + ", " + children[1] + ")";
+		assert (children.length == 2 || children.length == 3);
+		return "reseq(" + children[0] + ", " + children[1]
+				+ (children.length == 3 ? ", " + children[2] : "") + ")";
 	}
 
 	@Override
 	public ObjectInspector initialize(ObjectInspector[] arguments)
 			throws UDFArgumentException {
-		if (arguments.length != 2) {
+		if (arguments.length != 2 && arguments.length != 3) {
 			throw new UDFArgumentLengthException(
-					"The function reseq(s, regexp) takes exactly 2 arguments.");
+					"The function reseq(s, regexp[, engine]) takes 2 or 3 arguments.");
+		}
+		dfa = false;
+		if (arguments.length == 3) {
+			Object engine = arguments[2] instanceof ConstantObjectInspector
+					? ((ConstantObjectInspector) arguments[2]).getWritableConstantValue() : null;
+			if (engine == null || !(ENGINE_DFA.equalsIgnoreCase(engine.toString())
+					|| ENGINE_REGEX.equalsIgnoreCase(engine.toString()))) {
+				throw new UDFArgumentTypeException(2,
+						"The engine must be the literal '" + ENGINE_DFA + "' or '" + ENGINE_REGEX + "'.");
+			}
+			dfa = ENGINE_DFA.equalsIgnoreCase(engine.toString());
 		}
 
-		converters = new ObjectInspectorConverters.Converter[arguments.length];
-		for (int i = 0; i < arguments.length; i++) {
+		converters = new ObjectInspectorConverters.Converter[2];
+		for (int i = 0; i < converters.length; i++) {
 			converters[i] = ObjectInspectorConverters
 					.getConverter(
 							arguments[i],
 							PrimitiveObjectInspectorFactory.writableStringObjectInspector);
 		}
+		constantPattern = null;
+		constantLinearPattern = null;
+		byteMatcher = null;
+		if (arguments[1] instanceof ConstantObjectInspector) {
+			Object regex = ((ConstantObjectInspector) arguments[1]).getWritableConstantValue();
+			if (regex != null) {
+				if (dfa) {
+					try {
+						constantLinearPattern = LinearPattern.compile(regex.toString());
+					} catch (IllegalArgumentException e) {
+						throw new UDFArgumentException(e.getMessage());
+					}
+				} else {
+					constantPattern = Pattern.compile(regex.toString());
+				}
+				byteMatcher = ByteClassMatcher.compile(regex.toString());
+			}
+		}
 
 		return ObjectInspectorFactory
 				.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
@@ -0,0 +1,365 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * Hive Generic UDAF that keeps a uniform random sample of k values per group,
+ * so that arrays do not have to be collected first and subsampled with nth.
+ * Every value is tagged with a random priority and the k values with the
+ * smallest priorities are kept, which makes partials mergeable: the sample of
+ * a union is the k smallest priorities across the partial samples. Equal
+ * priorities are ordered by the hash of their values, so the sample does not
+ * depend on the order partials are merged in.
+ * <p>
+ * With a seed, the priority of a value is a hash of the seed, the value and
+ * its position in the split, rather than the next draw of a generator
+ * seeded the same in every split, which would give all splits the same
+ * priorities position by position.
+ *
+ * @author harshars
+ *
+ */
+@Description(name = "sample_k",
+value = "_FUNC_(x, k[, seed]) - returns a uniform random sample of at most k values of x",
+extended = "Example: SELECT sample_k(value, 100) FROM src GROUP BY key;")
+public class SampleUDAF extends AbstractGenericUDAFResolver {
+
+	static final Log log = LogFactory.getLog(SampleUDAF.class);
+
+	@Override
+	public SampleEvaluator getEvaluator(TypeInfo[] info)
+			throws SemanticException {
+		if (info.length < 2 || info.length > 3) {
+			throw new UDFArgumentTypeException(info.length - 1,
+					"Please specify two or three arguments.");
+		}
+		for (int i = 1; i < info.length; i++) {
+			if (!info[i].getCategory().equals(ObjectInspector.Category.PRIMITIVE)) {
+				throw new UDFArgumentTypeException(i,
+						"Only primitive type arguments are accepted but "
+								+ info[i].getTypeName()
+								+ " was passed as parameter.");
+			}
+		}
+		return new SampleEvaluator();
+	}
+
+	public static class SampleEvaluator extends GenericUDAFEvaluator {
+
+		static final String K = "k";
+		static final String PRIORITIES = "priorities";
+		static final String VALUES = "values";
+
+		// input OIs
+		ObjectInspector inputOI;
+		PrimitiveObjectInspector kOI;
+		PrimitiveObjectInspector seedOI;
+
+		// intermediate results
+		StructObjectInspector partialOI;
+		StructField kField;
+		StructField prioritiesField;
+		StructField valuesField;
+
+		ObjectInspector valueOI;
+
+		@Override
+		public ObjectInspector init(Mode m, ObjectInspector[] parameters)
+				throws HiveException {
+			super.init(m, parameters);
+			if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+				inputOI = parameters[0];
+				kOI = (PrimitiveObjectInspector) parameters[1];
+				seedOI = parameters.length > 2 ? (PrimitiveObjectInspector) parameters[2] : null;
+				valueOI = ObjectInspectorUtils.getStandardObjectInspector(inputOI);
+			} else {
+				partialOI = (StructObjectInspector) parameters[0];
+				kField = partialOI.getStructFieldRef(K);
+				prioritiesField = partialOI.getStructFieldRef(PRIORITIES);
+				valuesField = partialOI.getStructFieldRef(VALUES);
+				inputOI = ((ListObjectInspector) valuesField.getFieldObjectInspector())
+						.getListElementObjectInspector();
+				valueOI = ObjectInspectorUtils.getStandardObjectInspector(inputOI);
+			}
+
+			if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+				ArrayList<String> fNames = new ArrayList<String>();
+				fNames.add(K);
+				fNames.add(PRIORITIES);
+				fNames.add(VALUES);
+				ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+				foi.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+				foi.add(ObjectInspectorFactory.getStandardListObjectInspector(
+						PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+				foi.add(ObjectInspectorFactory.getStandardListObjectInspector(valueOI));
+				return ObjectInspectorFactory.getStandardStructObjectInspector(fNames, foi);
+			} else {
+				return ObjectInspectorFactory.getStandardListObjectInspector(valueOI);
+			}
+		}
+
+		@Override
+		public SampleAggBuffer getNewAggregationBuffer() throws HiveException {
+			SampleAggBuffer buffer = new SampleAggBuffer();
+			reset(buffer);
+			return buffer;
+		}
+
+		@Override
+		public void iterate(AggregationBuffer buffer, Object[] parameters)
+				throws HiveException {
+			if (parameters[0] == null) {
+				return;
+			}
+			SampleAggBuffer aggBuffer = (SampleAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				int k = parameters[1] == null ? 0 : PrimitiveObjectInspectorUtils.getInt(parameters[1], kOI);
+				if (k <= 0) {
+					throw new UDFArgumentException("The sample size of sample_k must be a positive int, but was "
+							+ parameters[1] + ".");
+				}
+				if (seedOI != null && parameters[2] != null) {
+					aggBuffer.init(k, null);
+					aggBuffer.seed = PrimitiveObjectInspectorUtils.getLong(parameters[2], seedOI);
+				} else {
+					aggBuffer.init(k, new Random());
+				}
+			}
+			double priority = aggBuffer.random != null ? aggBuffer.random.nextDouble()
+					: aggBuffer.priority(ObjectInspectorUtils.hashCode(parameters[0], inputOI));
+			aggBuffer.offer(priority, parameters[0], inputOI);
+		}
+
+		@Override
+		public void merge(AggregationBuffer buffer, Object partial)
+				throws HiveException {
+			if (partial == null) {
+				return;
+			}
+			SampleAggBuffer aggBuffer = (SampleAggBuffer) buffer;
+			int k = ((IntObjectInspector) kField.getFieldObjectInspector())
+					.get(partialOI.getStructFieldData(partial, kField));
+			if (!aggBuffer.initialized()) {
+				aggBuffer.init(k, null);
+			}
+			ListObjectInspector prioritiesOI = (ListObjectInspector) prioritiesField.getFieldObjectInspector();
+			DoubleObjectInspector priorityOI = (DoubleObjectInspector) prioritiesOI.getListElementObjectInspector();
+			ListObjectInspector valuesOI = (ListObjectInspector) valuesField.getFieldObjectInspector();
+			Object priorities = partialOI.getStructFieldData(partial, prioritiesField);
+			Object values = partialOI.getStructFieldData(partial, valuesField);
+			int n = prioritiesOI.getListLength(priorities);
+			for (int i = 0; i < n; i++) {
+				aggBuffer.offer(priorityOI.get(prioritiesOI.getListElement(priorities, i)),
+						valuesOI.getListElement(values, i), inputOI);
+			}
+		}
+
+		@Override
+		public void reset(AggregationBuffer buffer) throws HiveException {
+			((SampleAggBuffer) buffer).reset();
+		}
+
+		@Override
+		public Object terminatePartial(AggregationBuffer buffer)
+				throws HiveException {
+			SampleAggBuffer aggBuffer = (SampleAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
+			List<DoubleWritable> priorities = new ArrayList<DoubleWritable>(aggBuffer.size);
+			List<Object> values = new ArrayList<Object>(aggBuffer.size);
+			for (int i = 0; i < aggBuffer.size; i++) {
+				priorities.add(new DoubleWritable(aggBuffer.priorities[i]));
+				values.add(aggBuffer.values[i]);
+			}
+			ArrayList<Object> result = new ArrayList<Object>();
+			result.add(new IntWritable(aggBuffer.k));
+			result.add(priorities);
+			result.add(values);
+			return result;
+		}
+
+		@Override
+		public List<Object> terminate(AggregationBuffer buffer)
+				throws HiveException {
+			SampleAggBuffer aggBuffer = (SampleAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
+			List<Object> values = new ArrayList<Object>(aggBuffer.size);
+			for (int i = 0; i < aggBuffer.size; i++) {
+				values.add(aggBuffer.values[i]);
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * The k values with the smallest priorities, kept in a max-heap on
+	 * priority and then value hash, so that the value to evict is at the
+	 * root. The arrays grow with the sample, as most groups hold fewer than
+	 * k values.
+	 */
+	static class SampleAggBuffer implements AggregationBuffer {
+		private static final int INITIAL_LENGTH = 8;
+
+		int k;
+		// null when seeded
+		Random random;
+		long seed;
+		// the number of values iterated over, when seeded
+		long rows;
+		double[] priorities = new double[0];
+		int[] hashes = new int[0];
+		Object[] values = new Object[0];
+		int size;
+
+		boolean initialized() {
+			return k > 0;
+		}
+
+		void init(int k, Random random) {
+			this.k = k;
+			this.random = random;
+		}
+
+		/**
+		 * Grows the arrays to hold at least n values, doubling them up to k.
+		 */
+		private void ensureLength(int n) {
+			if (n <= priorities.length) {
+				return;
+			}
+			int length = Math.min(k, Math.max(n, Math.max(INITIAL_LENGTH, 2 * priorities.length)));
+			double[] p = new double[length];
+			System.arraycopy(priorities, 0, p, 0, size);
+			priorities = p;
+			int[] h = new int[length];
+			System.arraycopy(hashes, 0, h, 0, size);
+			hashes = h;
+			Object[] v = new Object[length];
+			System.arraycopy(values, 0, v, 0, size);
+			values = v;
+		}
+
+		void reset() {
+			for (int i = 0; i < size; i++) {
+				values[i] = null;
+			}
+			size = 0;
+			k = 0;
+			random = null;
+			seed = 0;
+			rows = 0;
+		}
+
+		/**
+		 * The seeded priority of the next value, of the given hash: a hash
+		 * of the seed, its position and the value, uniform in [0, 1).
+		 */
+		double priority(int hash) {
+			long h = HyperLogLogPlus.hash(HyperLogLogPlus.hash(seed + rows++) ^ hash);
+			return (h >>> 11) / (double) (1L << 53);
+		}
+
+		/**
+		 * Keeps value if its priority is among the k smallest seen so far;
+		 * the value is only hashed on ties or when it is kept, and only
+		 * copied when it is kept.
+		 */
+		void offer(double priority, Object value, ObjectInspector oi) {
+			if (size < k) {
+				ensureLength(size + 1);
+				int i = size++;
+				priorities[i] = priority;
+				hashes[i] = ObjectInspectorUtils.hashCode(value, oi);
+				values[i] = ObjectInspectorUtils.copyToStandardObject(value, oi);
+				siftUp(i);
+			} else if (priority <= priorities[0]) {
+				int hash = ObjectInspectorUtils.hashCode(value, oi);
+				if (priority < priorities[0] || hash < hashes[0]) {
+					priorities[0] = priority;
+					hashes[0] = hash;
+					values[0] = ObjectInspectorUtils.copyToStandardObject(value, oi);
+					siftDown(0);
+				}
+			}
+		}
+
+		/**
+		 * Whether the entry at i ranks after the one at j.
+		 */
+		private boolean after(int i, int j) {
+			return priorities[i] > priorities[j] || (priorities[i] == priorities[j] && hashes[i] > hashes[j]);
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!after(i, parent)) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int largest = i;
+				int left = 2 * i + 1;
+				int right = left + 1;
+				if (left < size && after(left, largest)) {
+					largest = left;
+				}
+				if (right < size && after(right, largest)) {
+					largest = right;
+				}
+				if (largest == i) {
+					return;
+				}
+				swap(i, largest);
+				i = largest;
+			}
+		}
+
+		private void swap(int i, int j) {
+			double p = priorities[i];
+			priorities[i] = priorities[j];
+			priorities[j] = p;
+			int h = hashes[i];
+			hashes[i] = hashes[j];
+			hashes[j] = h;
+			Object v = values[i];
+			values[i] = values[j];
+			values[j] = v;
+		}
+	}
+}
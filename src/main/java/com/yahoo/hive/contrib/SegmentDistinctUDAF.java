@@ -0,0 +1,217 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+
+import com.yahoo.eta.stats.cus.CountUniqueSketch;
+import com.yahoo.eta.stats.cus.CountUniqueSketchSerialization;
+
+/**
+ * Hive Generic UDAF that counts the distinct values of each key, like the
+ * size of the multisets of {@link SegmentUDAF} but with a count unique
+ * sketch per key, as in {@link ApproxDistinctCountUDAF}, so that the memory
+ * per key is bounded. Values are hashed as approx_distinct hashes them, so
+ * that the sketches of both merge. Values may also be serialized sketches,
+ * which are merged.
+ *
+ * @author harshars
+ *
+ */
+@Description(name = "segment_distinct",
+value = "_FUNC_(x,y) - counts the distinct values of y for each key x, returns a map of the form "
+		+ "[key , (cardinality: _ , error: _ , sketch: _)]",
+extended = "Example: SELECT segment_distinct(k,v) FROM src;")
+public class SegmentDistinctUDAF extends AbstractGenericUDAFResolver {
+
+	static final Log log = LogFactory.getLog(SegmentDistinctUDAF.class);
+
+	@Override
+	public SegmentDistinctEvaluator getEvaluator(TypeInfo[] info)
+			throws SemanticException {
+		if (info.length != 2) {
+			throw new UDFArgumentTypeException(info.length - 1,
+					"Please specify exactly two arguments.");
+		}
+		for (int i = 0; i < info.length; i++) {
+			if (!info[i].getCategory().equals(ObjectInspector.Category.PRIMITIVE)) {
+				throw new UDFArgumentTypeException(i,
+						"Only primitive type arguments are accepted but "
+								+ info[i].getTypeName()
+								+ " was passed as parameter.");
+			}
+		}
+		return new SegmentDistinctEvaluator();
+	}
+
+	public static class SegmentDistinctEvaluator extends GenericUDAFEvaluator {
+
+		static final String CARDINALITY = "cardinality";
+		static final String ERROR = "error";
+		static final String SKETCH = "sketch";
+
+		// input OIs
+		private PrimitiveObjectInspector inputKeyOI;
+		private PrimitiveObjectInspector inputValOI;
+
+		// hashes values as approx_distinct does, so that their sketches merge
+		private SketchFeeder<CountUniqueSketch> feeder;
+
+		// intermediate results
+		private MapObjectInspector partialOI;
+		private BinaryObjectInspector sketchOI;
+
+		// standard key, as held in the buffers
+		private PrimitiveObjectInspector keyOI;
+
+		@Override
+		public ObjectInspector init(Mode m, ObjectInspector[] parameters)
+				throws HiveException {
+			super.init(m, parameters);
+			if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+				inputKeyOI = (PrimitiveObjectInspector) parameters[0];
+				inputValOI = (PrimitiveObjectInspector) parameters[1];
+				try {
+					feeder = SketchFeeder.create(inputValOI, DistinctCounter.COUNT_UNIQUE);
+				} catch (UDFArgumentTypeException e) {
+					throw new UDFArgumentTypeException(1, e.getMessage());
+				}
+			} else {
+				partialOI = (MapObjectInspector) parameters[0];
+				inputKeyOI = (PrimitiveObjectInspector) partialOI.getMapKeyObjectInspector();
+				sketchOI = (BinaryObjectInspector) partialOI.getMapValueObjectInspector();
+			}
+			keyOI = (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI);
+
+			if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+				return ObjectInspectorFactory.getStandardMapObjectInspector(keyOI,
+						PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+			}
+			ArrayList<String> fNames = new ArrayList<String>();
+			fNames.add(CARDINALITY);
+			fNames.add(ERROR);
+			fNames.add(SKETCH);
+			ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+			foi.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+			foi.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+			foi.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+			return ObjectInspectorFactory.getStandardMapObjectInspector(keyOI,
+					ObjectInspectorFactory.getStandardStructObjectInspector(fNames, foi));
+		}
+
+		@Override
+		public SegmentDistinctAggBuffer getNewAggregationBuffer() throws HiveException {
+			SegmentDistinctAggBuffer buffer = new SegmentDistinctAggBuffer();
+			reset(buffer);
+			return buffer;
+		}
+
+		@Override
+		public void iterate(AggregationBuffer buffer, Object[] parameters)
+				throws HiveException {
+			Object k = parameters[0];
+			Object v = parameters[1];
+			if (k == null || v == null) {
+				return;
+			}
+			SegmentDistinctAggBuffer aggBuffer = (SegmentDistinctAggBuffer) buffer;
+			Object key = standardKey(aggBuffer, k);
+			CountUniqueSketch sketch = aggBuffer.sketches.get(key);
+			if (sketch == null && !feeder.merges()) {
+				sketch = new CountUniqueSketch();
+			}
+			try {
+				aggBuffer.sketches.put(key, feeder.feed(sketch, v));
+			} catch (IllegalArgumentException e) {
+				throw new HiveException(e.getMessage());
+			}
+		}
+
+		/**
+		 * The key as held in the buffer; standard keys are only copied the
+		 * first time they are seen.
+		 */
+		private Object standardKey(SegmentDistinctAggBuffer aggBuffer, Object k) {
+			if (inputKeyOI != keyOI) {
+				return ObjectInspectorUtils.copyToStandardObject(k, inputKeyOI);
+			}
+			return aggBuffer.sketches.containsKey(k) ? k : ObjectInspectorUtils.copyToStandardObject(k, inputKeyOI);
+		}
+
+		@Override
+		public void merge(AggregationBuffer buffer, Object partial)
+				throws HiveException {
+			if (partial == null) {
+				return;
+			}
+			SegmentDistinctAggBuffer aggBuffer = (SegmentDistinctAggBuffer) buffer;
+			for (Map.Entry<?, ?> e : partialOI.getMap(partial).entrySet()) {
+				if (e.getKey() == null || e.getValue() == null) {
+					continue;
+				}
+				CountUniqueSketch other = SketchBytes.countUnique(sketchOI.getPrimitiveWritableObject(e.getValue()));
+				Object key = standardKey(aggBuffer, e.getKey());
+				CountUniqueSketch sketch = aggBuffer.sketches.get(key);
+				aggBuffer.sketches.put(key, sketch == null ? other : sketch.merge(other));
+			}
+		}
+
+		@Override
+		public void reset(AggregationBuffer buffer) throws HiveException {
+			((SegmentDistinctAggBuffer) buffer).sketches = new HashMap<Object, CountUniqueSketch>();
+		}
+
+		@Override
+		public Object terminatePartial(AggregationBuffer buffer)
+				throws HiveException {
+			SegmentDistinctAggBuffer aggBuffer = (SegmentDistinctAggBuffer) buffer;
+			Map<Object, Object> ret = new HashMap<Object, Object>(2 * aggBuffer.sketches.size() + 2);
+			for (Map.Entry<Object, CountUniqueSketch> e : aggBuffer.sketches.entrySet()) {
+				ret.put(e.getKey(), new BytesWritable(CountUniqueSketchSerialization.serializeSketch(e.getValue())));
+			}
+			return ret;
+		}
+
+		@Override
+		public Object terminate(AggregationBuffer buffer) throws HiveException {
+			SegmentDistinctAggBuffer aggBuffer = (SegmentDistinctAggBuffer) buffer;
+			Map<Object, Object> ret = new HashMap<Object, Object>(2 * aggBuffer.sketches.size() + 2);
+			for (Map.Entry<Object, CountUniqueSketch> e : aggBuffer.sketches.entrySet()) {
+				CountUniqueSketch sketch = e.getValue();
+				ArrayList<Object> result = new ArrayList<Object>(3);
+				long cardinality = Math.round(sketch.getInverseEstimate());
+				result.add(new LongWritable(cardinality));
+				result.add(new DoubleWritable(sketch.getVariance()));
+				result.add(new BytesWritable(SketchBytes.envelope(SketchBytes.COUNT_UNIQUE, 0, cardinality,
+						CountUniqueSketchSerialization.serializeSketch(sketch))));
+				ret.put(e.getKey(), result);
+			}
+			return ret;
+		}
+	}
+
+	static class SegmentDistinctAggBuffer implements AggregationBuffer {
+		Map<Object, CountUniqueSketch> sketches;
+	}
+}
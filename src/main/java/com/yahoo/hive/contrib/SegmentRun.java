@@ -0,0 +1,250 @@
+package com.yahoo.hive.contrib;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.yahoo.hive.contrib.SegmentUDAF.LongMultiset;
+
+/**
+ * Binary form of segments sorted by key, used by {@link SegmentUDAF} both
+ * for the runs it spills to local disk and for its binary partials:
+ *
+ * <pre>
+ * run      := vint(segments) segment*
+ * segment  := key vint(nulls) vint(values) value*
+ * key      := vlong(key delta) | text
+ * value    := vlong(value delta) vint(count) | text vint(count)
+ * </pre>
+ *
+ * Integral keys and values are written as the difference to the previous
+ * one, which is small and non-negative since both are sorted. String values
+ * are written as text, so that a buffer drops its dictionary with the
+ * segments it spills. A partial merged from spilled runs is written
+ * as the runs are read, so its count of segments is reserved in the five
+ * byte form of a vint, which reads as any other, and set at the end.
+ *
+ * @author harshars
+ *
+ */
+class SegmentRun {
+
+	// bytes of a reserved segment count
+	private static final int COUNT_LENGTH = 5;
+
+	private SegmentRun() {
+	}
+
+	/**
+	 * Reserves room for the segment count of a run at the end of out, and
+	 * returns its offset for {@link #setCount(DataOutputBuffer, int, int)}.
+	 */
+	static int reserveCount(DataOutputBuffer out) throws IOException {
+		int offset = out.getLength();
+		out.write(new byte[COUNT_LENGTH]);
+		return offset;
+	}
+
+	/**
+	 * Sets the count reserved at offset to n, as a vint of a length byte
+	 * and four big-endian bytes.
+	 */
+	static void setCount(DataOutputBuffer out, int offset, int n) {
+		byte[] data = out.getData();
+		data[offset] = -116;
+		for (int i = 1; i < COUNT_LENGTH; i++) {
+			data[offset + i] = (byte) (n >>> (8 * (COUNT_LENGTH - 1 - i)));
+		}
+	}
+
+	/**
+	 * Writes counts; its values are written as the text of their code in
+	 * textValues if that is not null.
+	 */
+	static void writeMultiset(DataOutput out, LongMultiset counts, TextDictionary textValues)
+			throws IOException {
+		WritableUtils.writeVInt(out, counts.nullCount);
+		long[] values = counts.sortedKeys();
+		WritableUtils.writeVInt(out, values.length);
+		long previous = 0;
+		for (long value : values) {
+			if (textValues == null) {
+				WritableUtils.writeVLong(out, value - previous);
+			} else {
+				textValues.text((int) value).write(out);
+			}
+			WritableUtils.writeVInt(out, counts.get(value));
+			previous = value;
+		}
+	}
+
+	/**
+	 * Adds the counts of the next multiset in to counts, encoding text
+	 * values with textValues if that is not null. Returns the number of
+	 * entries new to counts.
+	 */
+	static int readMultiset(DataInput in, LongMultiset counts, TextDictionary textValues, Text scratch)
+			throws IOException {
+		int entries = 0;
+		int nulls = WritableUtils.readVInt(in);
+		if (nulls > 0) {
+			entries += counts.nullCount == 0 ? 1 : 0;
+			counts.nullCount += nulls;
+		}
+		int n = WritableUtils.readVInt(in);
+		long value = 0;
+		for (int i = 0; i < n; i++) {
+			if (textValues == null) {
+				value += WritableUtils.readVLong(in);
+			} else {
+				scratch.readFields(in);
+				value = textValues.encode(scratch);
+			}
+			int count = WritableUtils.readVInt(in);
+			entries += counts.add(value, count) == count ? 1 : 0;
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads the segments of a spilled run in key order. Readers order by
+	 * their current key.
+	 */
+	static class Reader implements Comparable<Reader> {
+		private final DataInputStream in;
+		private final boolean textKeys;
+		private int remaining;
+		long longKey;
+		final Text textKey = new Text();
+		private final Text scratch = new Text();
+
+		Reader(File file, boolean textKeys) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+			this.textKeys = textKeys;
+			this.remaining = WritableUtils.readVInt(in);
+		}
+
+		/**
+		 * Moves to the next segment, whose multiset must then be read with
+		 * {@link #readMultiset(LongMultiset, TextDictionary)}; returns false
+		 * at the end.
+		 */
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			if (textKeys) {
+				textKey.readFields(in);
+			} else {
+				longKey += WritableUtils.readVLong(in);
+			}
+			return true;
+		}
+
+		/**
+		 * Adds the multiset of the segment to counts, encoding text values
+		 * with textValues if that is not null.
+		 */
+		void readMultiset(LongMultiset counts, TextDictionary textValues) throws IOException {
+			SegmentRun.readMultiset(in, counts, textValues, scratch);
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+		public int compareTo(Reader o) {
+			if (textKeys) {
+				return textKey.compareTo(o.textKey);
+			}
+			return longKey < o.longKey ? -1 : (longKey == o.longKey ? 0 : 1);
+		}
+	}
+
+	/**
+	 * k-way merge of spilled runs, yielding each key once with the sum of
+	 * its multisets.
+	 */
+	static class Merger {
+		private final List<Reader> readers;
+		private final PriorityQueue<Reader> queue;
+		private final boolean textKeys;
+		long longKey;
+		final Text textKey = new Text();
+
+		Merger(List<File> runs, boolean textKeys) throws IOException {
+			this.textKeys = textKeys;
+			readers = new ArrayList<Reader>(runs.size());
+			queue = new PriorityQueue<Reader>(Math.max(runs.size(), 1));
+			try {
+				for (File run : runs) {
+					Reader reader = new Reader(run, textKeys);
+					readers.add(reader);
+					if (reader.next()) {
+						queue.add(reader);
+					}
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Moves to the next key and sets counts, which is cleared first, to
+		 * its multiset, whose text values are encoded with textValues if that
+		 * is not null; returns false at the end.
+		 */
+		boolean next(LongMultiset counts, TextDictionary textValues) throws IOException {
+			if (queue.isEmpty()) {
+				return false;
+			}
+			counts.clear();
+			counts.nullCount = 0;
+			Reader top = queue.poll();
+			if (textKeys) {
+				textKey.set(top.textKey);
+			} else {
+				longKey = top.longKey;
+			}
+			top.readMultiset(counts, textValues);
+			while (!queue.isEmpty() && queue.peek().compareTo(top) == 0) {
+				Reader reader = queue.poll();
+				reader.readMultiset(counts, textValues);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			if (top.next()) {
+				queue.add(top);
+			}
+			return true;
+		}
+
+		void close() throws IOException {
+			IOException failure = null;
+			for (Reader reader : readers) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+}
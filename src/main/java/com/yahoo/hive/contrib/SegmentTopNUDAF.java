@@ -0,0 +1,314 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Hive Generic UDAF that keeps the most frequent values of each key, like
+ * {@link SegmentUDAF} but with a bounded {@link SpaceSaving} summary of
+ * capacity counters per key instead of an exact multiset. For every value
+ * returned, count is an upper bound of its frequency and count - error a
+ * lower bound. Capacity defaults to 10 * n; a larger capacity gives smaller
+ * errors.
+ *
+ * @author harshars
+ *
+ */
+@Description(name = "segment_topn",
+value = "_FUNC_(x,y,n[,capacity]) - collects keys and the n most frequent values of each key into a map of the form "
+		+ "[key , (items: _ , counts: _ , errors: _)]",
+extended = "Example: SELECT segment_topn(k,v,10) FROM src;")
+public class SegmentTopNUDAF extends AbstractGenericUDAFResolver {
+
+	static final Log log = LogFactory.getLog(SegmentTopNUDAF.class);
+
+	static final int CAPACITY_FACTOR = 10;
+
+	@Override
+	public SegmentTopNEvaluator getEvaluator(TypeInfo[] info)
+			throws SemanticException {
+		if (info.length != 3 && info.length != 4) {
+			throw new UDFArgumentTypeException(info.length - 1,
+					"Please specify three or four arguments.");
+		}
+		for (int i = 0; i < info.length; i++) {
+			if (!info[i].getCategory().equals(ObjectInspector.Category.PRIMITIVE)) {
+				throw new UDFArgumentTypeException(i,
+						"Only primitive type arguments are accepted but "
+								+ info[i].getTypeName()
+								+ " was passed as parameter.");
+			}
+		}
+		return new SegmentTopNEvaluator();
+	}
+
+	public static class SegmentTopNEvaluator extends GenericUDAFEvaluator {
+
+		static final String N = "n";
+		static final String CAPACITY = "capacity";
+		static final String SEGMENTS = "segments";
+		static final String ITEMS = "items";
+		static final String COUNTS = "counts";
+		static final String ERRORS = "errors";
+
+		// input OIs
+		private PrimitiveObjectInspector inputKeyOI;
+		private PrimitiveObjectInspector inputValOI;
+		private PrimitiveObjectInspector nOI;
+		private PrimitiveObjectInspector capacityOI;
+
+		// intermediate results
+		private StructObjectInspector partialOI;
+		private StructField nField;
+		private StructField capacityField;
+		private StructField segmentsField;
+		private MapObjectInspector segmentsOI;
+		private StructObjectInspector summaryOI;
+		private StructField itemsField;
+		private StructField countsField;
+		private StructField errorsField;
+
+		// standard key and value, as held in the buffers
+		private PrimitiveObjectInspector keyOI;
+		private PrimitiveObjectInspector valOI;
+
+		@Override
+		public ObjectInspector init(Mode m, ObjectInspector[] parameters)
+				throws HiveException {
+			super.init(m, parameters);
+			if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+				inputKeyOI = (PrimitiveObjectInspector) parameters[0];
+				inputValOI = (PrimitiveObjectInspector) parameters[1];
+				nOI = (PrimitiveObjectInspector) parameters[2];
+				capacityOI = parameters.length > 3 ? (PrimitiveObjectInspector) parameters[3] : null;
+			} else {
+				partialOI = (StructObjectInspector) parameters[0];
+				nField = partialOI.getStructFieldRef(N);
+				capacityField = partialOI.getStructFieldRef(CAPACITY);
+				segmentsField = partialOI.getStructFieldRef(SEGMENTS);
+				segmentsOI = (MapObjectInspector) segmentsField.getFieldObjectInspector();
+				summaryOI = (StructObjectInspector) segmentsOI.getMapValueObjectInspector();
+				itemsField = summaryOI.getStructFieldRef(ITEMS);
+				countsField = summaryOI.getStructFieldRef(COUNTS);
+				errorsField = summaryOI.getStructFieldRef(ERRORS);
+				inputKeyOI = (PrimitiveObjectInspector) segmentsOI.getMapKeyObjectInspector();
+				inputValOI = (PrimitiveObjectInspector) ((ListObjectInspector) itemsField
+						.getFieldObjectInspector()).getListElementObjectInspector();
+			}
+			keyOI = (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI);
+			valOI = (PrimitiveObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(inputValOI);
+
+			ArrayList<String> sNames = new ArrayList<String>();
+			sNames.add(ITEMS);
+			sNames.add(COUNTS);
+			sNames.add(ERRORS);
+			ArrayList<ObjectInspector> soi = new ArrayList<ObjectInspector>();
+			soi.add(ObjectInspectorFactory.getStandardListObjectInspector(valOI));
+			soi.add(ObjectInspectorFactory.getStandardListObjectInspector(
+					PrimitiveObjectInspectorFactory.writableLongObjectInspector));
+			soi.add(ObjectInspectorFactory.getStandardListObjectInspector(
+					PrimitiveObjectInspectorFactory.writableLongObjectInspector));
+			ObjectInspector segmentsOutputOI = ObjectInspectorFactory.getStandardMapObjectInspector(keyOI,
+					ObjectInspectorFactory.getStandardStructObjectInspector(sNames, soi));
+
+			if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+				ArrayList<String> fNames = new ArrayList<String>();
+				fNames.add(N);
+				fNames.add(CAPACITY);
+				fNames.add(SEGMENTS);
+				ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+				foi.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+				foi.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+				foi.add(segmentsOutputOI);
+				return ObjectInspectorFactory.getStandardStructObjectInspector(fNames, foi);
+			}
+			return segmentsOutputOI;
+		}
+
+		@Override
+		public SegmentTopNAggBuffer getNewAggregationBuffer() throws HiveException {
+			SegmentTopNAggBuffer buffer = new SegmentTopNAggBuffer();
+			reset(buffer);
+			return buffer;
+		}
+
+		@Override
+		public void iterate(AggregationBuffer buffer, Object[] parameters)
+				throws HiveException {
+			Object k = parameters[0];
+			Object v = parameters[1];
+			if (k == null || v == null) {
+				return;
+			}
+			SegmentTopNAggBuffer aggBuffer = (SegmentTopNAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				int n = PrimitiveObjectInspectorUtils.getInt(parameters[2], nOI);
+				int capacity = capacityOI != null && parameters[3] != null
+						? PrimitiveObjectInspectorUtils.getInt(parameters[3], capacityOI)
+						: CAPACITY_FACTOR * n;
+				if (n <= 0) {
+					throw new HiveException("segment_topn(x, y, n, capacity) needs n > 0, got n = " + n);
+				}
+				aggBuffer.init(n, capacity);
+			}
+			SpaceSaving summary = summary(aggBuffer, k);
+			// standard values are looked up as they are, and only copied when new
+			boolean standard = inputValOI == valOI;
+			Object val = standard ? v : ObjectInspectorUtils.copyToStandardObject(v, inputValOI);
+			int i = summary.indexOf(val);
+			if (i >= 0) {
+				summary.increment(i, 1);
+			} else {
+				summary.insert(standard ? ObjectInspectorUtils.copyToStandardObject(v, inputValOI) : val, 1);
+			}
+		}
+
+		private SpaceSaving summary(SegmentTopNAggBuffer aggBuffer, Object k) {
+			boolean standard = inputKeyOI == keyOI;
+			Object key = standard ? k : ObjectInspectorUtils.copyToStandardObject(k, inputKeyOI);
+			SpaceSaving summary = aggBuffer.summaries.get(key);
+			if (summary == null) {
+				summary = new SpaceSaving(aggBuffer.capacity);
+				aggBuffer.summaries.put(standard ? ObjectInspectorUtils.copyToStandardObject(k, inputKeyOI) : key,
+						summary);
+			}
+			return summary;
+		}
+
+		@Override
+		public void merge(AggregationBuffer buffer, Object partial)
+				throws HiveException {
+			if (partial == null) {
+				return;
+			}
+			SegmentTopNAggBuffer aggBuffer = (SegmentTopNAggBuffer) buffer;
+			int n = ((IntObjectInspector) nField.getFieldObjectInspector())
+					.get(partialOI.getStructFieldData(partial, nField));
+			int capacity = ((IntObjectInspector) capacityField.getFieldObjectInspector())
+					.get(partialOI.getStructFieldData(partial, capacityField));
+			if (!aggBuffer.initialized()) {
+				aggBuffer.init(n, capacity);
+			}
+			ListObjectInspector itemsOI = (ListObjectInspector) itemsField.getFieldObjectInspector();
+			ListObjectInspector countsOI = (ListObjectInspector) countsField.getFieldObjectInspector();
+			ListObjectInspector errorsOI = (ListObjectInspector) errorsField.getFieldObjectInspector();
+			LongObjectInspector countOI = (LongObjectInspector) countsOI.getListElementObjectInspector();
+			LongObjectInspector errorOI = (LongObjectInspector) errorsOI.getListElementObjectInspector();
+
+			Map<?, ?> segments = segmentsOI.getMap(partialOI.getStructFieldData(partial, segmentsField));
+			for (Map.Entry<?, ?> e : segments.entrySet()) {
+				Object items = summaryOI.getStructFieldData(e.getValue(), itemsField);
+				Object counts = summaryOI.getStructFieldData(e.getValue(), countsField);
+				Object errors = summaryOI.getStructFieldData(e.getValue(), errorsField);
+				int size = itemsOI.getListLength(items);
+				Object[] otherItems = new Object[size];
+				long[] otherCounts = new long[size];
+				long[] otherErrors = new long[size];
+				for (int i = 0; i < size; i++) {
+					otherItems[i] = ObjectInspectorUtils.copyToStandardObject(
+							itemsOI.getListElement(items, i), inputValOI);
+					otherCounts[i] = countOI.get(countsOI.getListElement(counts, i));
+					otherErrors[i] = errorOI.get(errorsOI.getListElement(errors, i));
+				}
+				summary(aggBuffer, e.getKey()).merge(otherItems, otherCounts, otherErrors, size, capacity);
+			}
+		}
+
+		@Override
+		public void reset(AggregationBuffer buffer) throws HiveException {
+			((SegmentTopNAggBuffer) buffer).reset();
+		}
+
+		@Override
+		public Object terminatePartial(AggregationBuffer buffer)
+				throws HiveException {
+			SegmentTopNAggBuffer aggBuffer = (SegmentTopNAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
+			ArrayList<Object> result = new ArrayList<Object>(3);
+			result.add(new IntWritable(aggBuffer.n));
+			result.add(new IntWritable(aggBuffer.capacity));
+			// every counter is shipped, the merge needs them all
+			result.add(emit(aggBuffer, aggBuffer.capacity));
+			return result;
+		}
+
+		@Override
+		public Map<Object, Object> terminate(AggregationBuffer buffer)
+				throws HiveException {
+			SegmentTopNAggBuffer aggBuffer = (SegmentTopNAggBuffer) buffer;
+			return emit(aggBuffer, aggBuffer.n);
+		}
+
+		private Map<Object, Object> emit(SegmentTopNAggBuffer aggBuffer, int n) {
+			Map<Object, Object> ret = new HashMap<Object, Object>(2 * aggBuffer.summaries.size() + 2);
+			for (Map.Entry<Object, SpaceSaving> e : aggBuffer.summaries.entrySet()) {
+				SpaceSaving summary = e.getValue();
+				int[] top = summary.top(n);
+				List<Object> items = new ArrayList<Object>(top.length);
+				List<LongWritable> counts = new ArrayList<LongWritable>(top.length);
+				List<LongWritable> errors = new ArrayList<LongWritable>(top.length);
+				for (int i : top) {
+					items.add(summary.item(i));
+					counts.add(new LongWritable(summary.count(i)));
+					errors.add(new LongWritable(summary.error(i)));
+				}
+				ArrayList<Object> struct = new ArrayList<Object>(3);
+				struct.add(items);
+				struct.add(counts);
+				struct.add(errors);
+				ret.put(e.getKey(), struct);
+			}
+			return ret;
+		}
+	}
+
+	static class SegmentTopNAggBuffer implements AggregationBuffer {
+		int n;
+		int capacity;
+		Map<Object, SpaceSaving> summaries;
+
+		boolean initialized() {
+			return n > 0;
+		}
+
+		void init(int n, int capacity) {
+			this.n = n;
+			this.capacity = Math.max(capacity, n);
+		}
+
+		void reset() {
+			n = 0;
+			capacity = 0;
+			summaries = new HashMap<Object, SpaceSaving>();
+		}
+	}
+}
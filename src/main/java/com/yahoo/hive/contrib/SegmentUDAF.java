@@ -1,48 +1,116 @@
 package com.yahoo.hive.contrib;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardMapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.WritableIntObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * Hive Generic UDAF that collects keys and values into a map of the form [key , multiset(values)]
  * The multiset is represented by a hashmap {val -> count}.
+ * Keys and values of the integral types are held as primitive longs in
+ * open-addressing tables, and are only boxed when the map is emitted.
+ * String values are held as int codes of a dictionary of each buffer, which
+ * goes away with the buffer, and decoded when the map is emitted.
+ * <p>
+ * With a budget, a buffer that holds more than budget keys and distinct
+ * values is sorted and spilled to a local temp file as a {@link SegmentRun},
+ * and the runs are merged and deleted when the buffer is emitted. A spill
+ * drops the dictionary of the string values along with the segments, as
+ * runs hold the values as text. The budget bounds a buffer while it
+ * aggregates, but terminate and map partials still build the merged map
+ * whole; only binary partials are streamed from the runs, so on the map
+ * side the budget only bounds memory along with 'binary'. It is set with
+ * the option 'budget=n', or for the merge side, where the options are not
+ * passed, with hive.contrib.segment.budget in the query's conf (e.g. with
+ * 'set hive.contrib.segment.budget=n'). Spilling is done for integral or
+ * string keys with integral or string values; other types ignore the budget.
+ * <p>
+ * With the option 'binary', and for the same types, partials are shipped
+ * as struct&lt;segments:binary, key, value&gt; where segments is a
+ * {@link SegmentRun} and key and value are always null, only carrying the
+ * types to the merge side.
+ * <p>
+ * The conf is read when the query is compiled, and the budget travels to
+ * the tasks with the evaluator in the plan.
  * 
  * @author harshars
  * 
  */
 @Description(name = "segment", 
-value = "_FUNC_(x,y) - collects keys and values into a map of the form [key , multiset(values)]",
-extended = "Example: SELECT segment(k,v) FROM src;")
+value = "_FUNC_(x,y[,options]) - collects keys and values into a map of the form [key , multiset(values)]",
+extended = "Example: SELECT segment(k,v) FROM src;\n"
++ "  options is a constant string of comma separated name=value pairs:\n"
++ "  budget=n spills a buffer to local disk once it holds more than n keys and distinct values,\n"
++ "    which only bounds the memory of the map side along with binary\n"
++ "  binary ships partials as one compact binary blob rather than a map")
 public class SegmentUDAF extends AbstractGenericUDAFResolver {
 
 	static final Log log = LogFactory.getLog(SegmentUDAF.class);
+
+	static final String BUDGET_PROPERTY = "hive.contrib.segment.budget";
+
+	static final String SEGMENTS = "segments";
+	static final String KEY = "key";
+	static final String VALUE = "value";
 	
 	@Override
 	public SegmentEvaluator getEvaluator(TypeInfo[] info)
 			throws SemanticException {
-		if (info.length != 2) {
+		if (info.length != 2 && info.length != 3) {
 			throw new UDFArgumentTypeException(info.length - 1,
-					"Please specify exactly two arguments");
+					"Please specify two or three arguments");
 		}
 		Category category1 = info[0].getCategory();
 		if (!category1.equals(ObjectInspector.Category.PRIMITIVE)) {
@@ -58,43 +126,161 @@ public class SegmentUDAF extends AbstractGenericUDAFResolver {
 							+ info[1].getTypeName()
 							+ " was passed as parameter.");
 		}
-		return new SegmentEvaluator();
+		if (info.length == 3 && !info[2].getCategory().equals(ObjectInspector.Category.PRIMITIVE)) {
+			throw new UDFArgumentTypeException(2,
+					"The options must be a constant string but "
+							+ info[2].getTypeName()
+							+ " was passed as parameter.");
+		}
+		SegmentEvaluator evaluator = new SegmentEvaluator();
+		SessionState session = SessionState.get();
+		if (session != null && session.getConf() != null) {
+			evaluator.readConf(session.getConf());
+		}
+		return evaluator;
 	}
 	
 	public static class SegmentEvaluator extends GenericUDAFEvaluator {
 		private PrimitiveObjectInspector  inputKeyOI;
-		private ObjectInspector inputValOI;
-		private StandardMapObjectInspector multisetValOI;
+		private PrimitiveObjectInspector inputValOI;
+		private MapObjectInspector multisetValOI;
 		private StandardMapObjectInspector mergeOI;
-		private StandardMapObjectInspector partialOI;
-		
+		private MapObjectInspector partialOI;
+		// the emitted key and value types
+		private PrimitiveObjectInspector outputKeyOI;
+		private PrimitiveObjectInspector outputValOI;
+		// whether keys and values are held as longs
+		private boolean longKeys;
+		private boolean longValues;
+		// whether string values are held as codes of the buffer's dictionary
+		private boolean textValues;
+		// the budget of the query's conf, kept as a bean property so that it
+		// is serialized with the plan
+		private long defaultBudget;
+		// keys and distinct values a buffer may hold before it spills, 0 for no limit
+		private long budget;
+		// partials are struct<segments:binary, key, value> rather than maps
+		private boolean binary;
+		private StructObjectInspector binaryPartialOI;
+		private StructField segmentsField;
+		private final LongWritable scratchKey = new LongWritable();
+		private final Text scratchText = new Text();
+
+		/**
+		 * Takes the default budget from conf.
+		 */
+		void readConf(Configuration conf) {
+			defaultBudget = conf.getLong(BUDGET_PROPERTY, 0L);
+		}
+
+		public long getDefaultBudget() {
+			return defaultBudget;
+		}
+
+		public void setDefaultBudget(long defaultBudget) {
+			this.defaultBudget = defaultBudget;
+		}
 
 		public ObjectInspector init(Mode m, ObjectInspector[] parameters)
 				throws HiveException {
 			super.init(m, parameters);
 			// init output object inspectors
 			// The output of a partial aggregation is a list
-			if (m == Mode.PARTIAL1) {
+			budget = defaultBudget;
+			binary = false;
+			if (m == Mode.PARTIAL1 || (m == Mode.COMPLETE && parameters.length >= 2)) {
+				if (parameters.length == 3) {
+					configure(parameters[2]);
+				}
 				inputKeyOI = (PrimitiveObjectInspector) parameters[0];
-				inputValOI = parameters[1];
+				inputValOI = (PrimitiveObjectInspector) parameters[1];
 				WritableIntObjectInspector countOI = PrimitiveObjectInspectorFactory.writableIntObjectInspector;
 				multisetValOI = ObjectInspectorFactory.getStandardMapObjectInspector(inputValOI, countOI );
 				mergeOI = ObjectInspectorFactory.getStandardMapObjectInspector(
 						   ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI),
 						   ObjectInspectorUtils.getStandardObjectInspector(multisetValOI) );
+			} else if (parameters[0].getCategory() == Category.STRUCT) {
+				binary = true;
+				binaryPartialOI = (StructObjectInspector) parameters[0];
+				segmentsField = binaryPartialOI.getStructFieldRef(SEGMENTS);
+				inputKeyOI = (PrimitiveObjectInspector) binaryPartialOI.getStructFieldRef(KEY).getFieldObjectInspector();
+				inputValOI = (PrimitiveObjectInspector) binaryPartialOI.getStructFieldRef(VALUE).getFieldObjectInspector();
+				multisetValOI = ObjectInspectorFactory.getStandardMapObjectInspector(inputValOI,
+						PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+				mergeOI = ObjectInspectorFactory.getStandardMapObjectInspector(
+						   ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI),
+						   ObjectInspectorUtils.getStandardObjectInspector(multisetValOI) );
 			} else {
-				partialOI = (StandardMapObjectInspector) parameters[0];
+				partialOI = (MapObjectInspector) parameters[0];
 				inputKeyOI = (PrimitiveObjectInspector) partialOI.getMapKeyObjectInspector();
-				multisetValOI = (StandardMapObjectInspector) partialOI.getMapValueObjectInspector();
-				inputValOI = multisetValOI.getMapKeyObjectInspector();
+				multisetValOI = (MapObjectInspector) partialOI.getMapValueObjectInspector();
+				inputValOI = (PrimitiveObjectInspector) multisetValOI.getMapKeyObjectInspector();
 				mergeOI =  (StandardMapObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(partialOI);
 			}
+			outputKeyOI = (PrimitiveObjectInspector) mergeOI.getMapKeyObjectInspector();
+			outputValOI = (PrimitiveObjectInspector) ((MapObjectInspector) mergeOI
+					.getMapValueObjectInspector()).getMapKeyObjectInspector();
+			longKeys = isIntegral(inputKeyOI.getPrimitiveCategory());
+			longValues = isIntegral(inputValOI.getPrimitiveCategory());
+			textValues = inputValOI.getPrimitiveCategory() == PrimitiveCategory.STRING;
+			if (textValues) {
+				longValues = true;
+			}
+			// runs and binary partials are written for these types only
+			boolean compact = longValues
+					&& (longKeys || inputKeyOI.getPrimitiveCategory() == PrimitiveCategory.STRING);
+			if (budget > 0 && !compact) {
+				log.warn("segment() can not spill " + inputKeyOI.getTypeName() + " keys with "
+						+ inputValOI.getTypeName() + " values, ignoring the budget");
+				budget = 0;
+			}
+			if (binary && !compact) {
+				log.warn("segment() has no binary partials for " + inputKeyOI.getTypeName() + " keys with "
+						+ inputValOI.getTypeName() + " values, using maps");
+				binary = false;
+			}
+			if (binary && (m == Mode.PARTIAL1 || m == Mode.PARTIAL2)) {
+				ArrayList<String> fNames = new ArrayList<String>();
+				fNames.add(SEGMENTS);
+				fNames.add(KEY);
+				fNames.add(VALUE);
+				ArrayList<ObjectInspector> foi = new ArrayList<ObjectInspector>();
+				foi.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+				foi.add(outputKeyOI);
+				foi.add(outputValOI);
+				return ObjectInspectorFactory.getStandardStructObjectInspector(fNames, foi);
+			}
 			return mergeOI;
 		}
 
+		private void configure(ObjectInspector optionsOI) throws UDFArgumentException {
+			if (!(optionsOI instanceof ConstantObjectInspector)) {
+				throw new UDFArgumentTypeException(2, "The options of segment() must be a constant string.");
+			}
+			Object options = ((ConstantObjectInspector) optionsOI).getWritableConstantValue();
+			if (options == null) {
+				return;
+			}
+			for (String option : options.toString().split(",")) {
+				String[] nameValue = option.trim().split("=", 2);
+				String name = nameValue[0].trim();
+				String value = nameValue.length > 1 ? nameValue[1].trim() : null;
+				if (name.length() == 0) {
+					continue;
+				} else if (name.equals("budget") && value != null && value.matches("\\d{1,18}")) {
+					budget = Long.parseLong(value);
+				} else if (name.equals("binary") && value == null) {
+					binary = true;
+				} else {
+					throw new UDFArgumentException("Unknown or malformed segment() option '" + option.trim()
+							+ "', expected budget=n or binary");
+				}
+			}
+		}
+
 		@Override
 		public SegmentAggBuffer getNewAggregationBuffer() throws HiveException {
-			SegmentAggBuffer buff= new SegmentAggBuffer();
+			SegmentAggBuffer buff = longKeys ? new LongKeyAggBuffer() : new ObjectKeyAggBuffer();
 			reset(buff);
 			return buff;
 		}
@@ -107,81 +293,542 @@ public class SegmentUDAF extends AbstractGenericUDAFResolver {
 
 			if (k != null) {
 				SegmentAggBuffer myagg = (SegmentAggBuffer) agg;
-				put(k, v, myagg);
+				myagg.entries += add(myagg.segment(k, inputKeyOI, this), v, inputValOI, 1, myagg.dictionary);
+				if (budget > 0 && myagg.entries > budget) {
+					spill(myagg);
+				}
 			}
 		}
 
 		@Override
 		public void merge(AggregationBuffer agg, Object partial)
 				throws HiveException {
+			if (partial == null) {
+				return;
+			}
 			SegmentAggBuffer myagg = (SegmentAggBuffer) agg;
-			Map<Object,Object> partialResult = (HashMap<Object,Object>)  partialOI.getMap(partial);
-			for(Object i : partialResult.keySet()) {
-				merge(i, partialResult.get(i), myagg);
+			if (binary) {
+				mergeBinary(myagg, PrimitiveObjectInspectorUtils.getBinary(
+						binaryPartialOI.getStructFieldData(partial, segmentsField),
+						(PrimitiveObjectInspector) segmentsField.getFieldObjectInspector()));
+				return;
+			}
+			IntObjectInspector countOI = (IntObjectInspector) multisetValOI.getMapValueObjectInspector();
+			for (Map.Entry<?, ?> e : partialOI.getMap(partial).entrySet()) {
+				Object multiset = myagg.segment(e.getKey(), inputKeyOI, this);
+				for (Map.Entry<?, ?> c : multisetValOI.getMap(e.getValue()).entrySet()) {
+					myagg.entries += add(multiset, c.getKey(), inputValOI, countOI.get(c.getValue()), myagg.dictionary);
+				}
+				if (budget > 0 && myagg.entries > budget) {
+					spill(myagg);
+				}
 			}
 		}
 
 		@Override
 		public void reset(AggregationBuffer buff) throws HiveException {
-			SegmentAggBuffer arrayBuff = (SegmentAggBuffer) buff;
-			arrayBuff.delegate = new HashMap<Object,Object>();
+			SegmentAggBuffer aggBuffer = (SegmentAggBuffer) buff;
+			aggBuffer.clear();
+			aggBuffer.entries = 0;
+			// replaced rather than cleared, as emitted multisets decode from it
+			aggBuffer.dictionary = textValues ? new TextDictionary() : null;
+			deleteRuns(aggBuffer);
+		}
+
+		private void deleteRuns(SegmentAggBuffer buffer) {
+			if (buffer.runs != null) {
+				for (File run : buffer.runs) {
+					if (!run.delete()) {
+						log.warn("Could not delete " + run);
+					}
+				}
+				buffer.runs = null;
+			}
 		}
 
 		@Override
 		public Object terminate(AggregationBuffer buffer) throws HiveException {
-			SegmentAggBuffer aggBuffer = (SegmentAggBuffer) buffer;
-			Map<Object,Object> result = new HashMap<Object,Object>(aggBuffer.delegate);
-			return result;
+			return emit((SegmentAggBuffer) buffer);
+		}
 
+		@Override
+		public Object terminatePartial(AggregationBuffer buffer) throws HiveException {
+			if (binary) {
+				// the key and value fields are always null, they only carry the types
+				ArrayList<Object> ret = new ArrayList<Object>(3);
+				ret.add(toBinary((SegmentAggBuffer) buffer));
+				ret.add(null);
+				ret.add(null);
+				return ret;
+			}
+			return emit((SegmentAggBuffer) buffer);
 		}
 
-		private void put(Object key, Object val, SegmentAggBuffer buffer) {
-			Object keyCopy = ObjectInspectorUtils.copyToStandardObject(key, this.inputKeyOI );
-			Object valCopy = ObjectInspectorUtils.copyToStandardObject(val, this.inputValOI );
-			Map<Object,IntWritable> multiset = (Map<Object, IntWritable>) buffer.delegate.get(keyCopy);
-			if (multiset == null) {
-				multiset = new HashMap<Object,IntWritable>();
-				buffer.delegate.put(keyCopy, multiset);
+		private Map<Object, Object> emit(SegmentAggBuffer buffer) throws HiveException {
+			if (buffer.runs == null) {
+				return buffer.toMap(this);
 			}
-			IntWritable count = multiset.get(valCopy);
-			if (count == null) {
-				multiset.put(valCopy, new IntWritable(1));
-			} else {
-				count.set(count.get() + 1);
+			try {
+				spill(buffer);
+				return mergeRuns(buffer);
+			} finally {
+				deleteRuns(buffer);
 			}
 		}
 
-		private void merge(Object key, Object val, SegmentAggBuffer buffer) {
-			Object keyCopy = ObjectInspectorUtils.copyToStandardObject(key, this.inputKeyOI );
-			Map<Object, IntWritable> valCopy = (Map<Object, IntWritable>)this.multisetValOI.getMap(val);
-			Map<Object,IntWritable> multiset = (Map<Object, IntWritable>) buffer.delegate.get(keyCopy);
-			if (multiset == null) {
-				multiset = new HashMap<Object,IntWritable>();
-				buffer.delegate.put(keyCopy, multiset);
-			}
-			for (Map.Entry<Object, IntWritable> e : valCopy.entrySet()) {
-				Object k = e.getKey();
-				IntWritable v = multiset.get(k);
-				if (v == null) {
-					v = new IntWritable(0);
+		/**
+		 * Writes the segments held in memory to a new run and clears them,
+		 * along with the dictionary.
+		 */
+		private void spill(SegmentAggBuffer buffer) throws HiveException {
+			if (buffer.size() == 0) {
+				return;
+			}
+			try {
+				File run = File.createTempFile("segment", ".run");
+				if (buffer.runs == null) {
+					buffer.runs = new ArrayList<File>();
+				}
+				buffer.runs.add(run);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(run), 64 * 1024));
+				try {
+					buffer.writeRun(out, buffer.dictionary);
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				throw new HiveException("Could not spill segment() buffer", e);
+			}
+			buffer.clear();
+			buffer.entries = 0;
+			buffer.dictionary = textValues ? new TextDictionary() : null;
+		}
+
+		/**
+		 * k-way merge of the spilled runs into the emitted map.
+		 */
+		private Map<Object, Object> mergeRuns(SegmentAggBuffer buffer) throws HiveException {
+			try {
+				SegmentRun.Merger merger = new SegmentRun.Merger(buffer.runs, !longKeys);
+				try {
+					Map<Object, Object> ret = new HashMap<Object, Object>();
+					// the emitted multisets decode from it
+					TextDictionary dictionary = textValues ? new TextDictionary() : null;
+					LongMultiset counts = new LongMultiset();
+					while (merger.next(counts, dictionary)) {
+						ret.put(longKeys ? emitKey(merger.longKey) : emitKey(merger.textKey),
+								emitMultiset(counts, dictionary));
+						// the emitted view holds on to counts
+						counts = new LongMultiset();
+					}
+					return ret;
+				} finally {
+					merger.close();
+				}
+			} catch (IOException e) {
+				throw new HiveException("Could not read spilled segment() runs", e);
+			}
+		}
+
+		/**
+		 * Writes the segments of buffer, spilled or not, as a
+		 * {@link SegmentRun} with text values.
+		 */
+		private BytesWritable toBinary(SegmentAggBuffer buffer) throws HiveException {
+			DataOutputBuffer out = new DataOutputBuffer();
+			try {
+				if (buffer.runs == null) {
+					buffer.writeRun(out, buffer.dictionary);
+				} else {
+					// the merged runs are written as they are read, and only
+					// one merged multiset and its values are held at a time
+					try {
+						spill(buffer);
+						int count = SegmentRun.reserveCount(out);
+						int n = 0;
+						long previous = 0;
+						SegmentRun.Merger merger = new SegmentRun.Merger(buffer.runs, !longKeys);
+						try {
+							LongMultiset counts = new LongMultiset();
+							TextDictionary dictionary = textValues ? new TextDictionary() : null;
+							while (merger.next(counts, dictionary)) {
+								if (longKeys) {
+									WritableUtils.writeVLong(out, merger.longKey - previous);
+									previous = merger.longKey;
+								} else {
+									merger.textKey.write(out);
+								}
+								SegmentRun.writeMultiset(out, counts, dictionary);
+								if (textValues) {
+									dictionary = new TextDictionary();
+								}
+								n++;
+							}
+						} finally {
+							merger.close();
+						}
+						SegmentRun.setCount(out, count, n);
+					} finally {
+						deleteRuns(buffer);
+					}
+				}
+			} catch (IOException e) {
+				throw new HiveException("Could not write segment() partial", e);
+			}
+			byte[] bytes = new byte[out.getLength()];
+			System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+			return new BytesWritable(bytes);
+		}
+
+		/**
+		 * Adds a binary partial straight into buffer.
+		 */
+		private void mergeBinary(SegmentAggBuffer buffer, BytesWritable partial) throws HiveException {
+			DataInputBuffer in = new DataInputBuffer();
+			in.reset(partial.getBytes(), 0, partial.getLength());
+			try {
+				int n = WritableUtils.readVInt(in);
+				long key = 0;
+				for (int i = 0; i < n; i++) {
+					Object multiset;
+					if (longKeys) {
+						key += WritableUtils.readVLong(in);
+						scratchKey.set(key);
+						multiset = buffer.segment(scratchKey, PrimitiveObjectInspectorFactory.writableLongObjectInspector, this);
+					} else {
+						scratchText.readFields(in);
+						// held in the standard form of the output key
+						multiset = outputKeyOI.preferWritable()
+								? buffer.segment(scratchText, PrimitiveObjectInspectorFactory.writableStringObjectInspector, this)
+								: buffer.segment(scratchText.toString(), PrimitiveObjectInspectorFactory.javaStringObjectInspector, this);
+					}
+					buffer.entries += SegmentRun.readMultiset(in, (LongMultiset) multiset, buffer.dictionary, scratchText);
+					if (budget > 0 && buffer.entries > budget) {
+						spill(buffer);
+					}
+				}
+			} catch (IOException e) {
+				throw new HiveException("Could not read segment() partial", e);
+			}
+		}
+
+		/**
+		 * A new empty multiset: a {@link LongMultiset} for integral values
+		 * and string codes, a map from the standard value to its count
+		 * otherwise.
+		 */
+		Object newMultiset() {
+			if (longValues) {
+				return new LongMultiset();
+			}
+			return new HashMap<Object, IntWritable>();
+		}
+
+		/**
+		 * Adds count to val in multiset, whose string values are codes of
+		 * dictionary, and returns the number of new entries, 1 or 0.
+		 */
+		@SuppressWarnings("unchecked")
+		private int add(Object multiset, Object val, PrimitiveObjectInspector valOI, int count,
+				TextDictionary dictionary) {
+			if (longValues) {
+				LongMultiset counts = (LongMultiset) multiset;
+				if (val == null) {
+					counts.nullCount += count;
+					return counts.nullCount == count ? 1 : 0;
+				}
+				return counts.add(encodeValue(val, valOI, dictionary), count) == count ? 1 : 0;
+			}
+			Map<Object, IntWritable> counts = (Map<Object, IntWritable>) multiset;
+			// standard values are looked up as they are, and only copied when new
+			boolean standard = valOI == outputValOI;
+			IntWritable c = counts.get(standard ? val : (val = ObjectInspectorUtils.copyToStandardObject(val, valOI)));
+			if (c == null) {
+				counts.put(standard ? ObjectInspectorUtils.copyToStandardObject(val, valOI) : val,
+						new IntWritable(count));
+				return 1;
+			}
+			c.set(c.get() + count);
+			return 0;
+		}
+
+		private long encodeValue(Object val, PrimitiveObjectInspector valOI, TextDictionary dictionary) {
+			if (textValues) {
+				return dictionary.encode(((StringObjectInspector) valOI).getPrimitiveWritableObject(val));
+			}
+			return PrimitiveObjectInspectorUtils.getLong(val, valOI);
+		}
+
+		Object decodeValue(long code, TextDictionary dictionary) {
+			if (textValues) {
+				return outputValOI.preferWritable() ? dictionary.text((int) code) : dictionary.string((int) code);
+			}
+			return box(code, outputValOI);
+		}
+
+		Object emitKey(long key) {
+			return box(key, outputKeyOI);
+		}
+
+		private Object emitKey(Text key) {
+			return outputKeyOI.preferWritable() ? new Text(key) : key.toString();
+		}
+
+		/**
+		 * The multiset as emitted: maps as they are, count tables as a view
+		 * that boxes each entry, decoding strings from dictionary, when it is
+		 * iterated. Neither is copied, so an emitted multiset must not be
+		 * changed afterwards.
+		 */
+		@SuppressWarnings("unchecked")
+		Map<Object, Object> emitMultiset(Object multiset, TextDictionary dictionary) {
+			if (!longValues) {
+				return (Map<Object, Object>) multiset;
+			}
+			return new MultisetView((LongMultiset) multiset, this, dictionary);
+		}
+	}
+
+	static boolean isIntegral(PrimitiveCategory category) {
+		switch (category) {
+		case BYTE:
+		case SHORT:
+		case INT:
+		case LONG:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Boxes an integral value as the java or writable object that oi expects.
+	 */
+	static Object box(long v, PrimitiveObjectInspector oi) {
+		boolean writable = oi.preferWritable();
+		switch (oi.getPrimitiveCategory()) {
+		case BYTE:
+			return writable ? new ByteWritable((byte) v) : Byte.valueOf((byte) v);
+		case SHORT:
+			return writable ? new ShortWritable((short) v) : Short.valueOf((short) v);
+		case INT:
+			return writable ? new IntWritable((int) v) : Integer.valueOf((int) v);
+		default:
+			return writable ? new LongWritable(v) : Long.valueOf(v);
+		}
+	}
+
+	/**
+	 * Counts of integral values. Null values are counted apart since the
+	 * table has no null key.
+	 */
+	static class LongMultiset extends LongIntHashMap {
+		int nullCount;
+	}
+
+	/**
+	 * Read-only map view of a {@link LongMultiset}, from the decoded value to
+	 * its count.
+	 */
+	static class MultisetView extends AbstractMap<Object, Object> {
+		private final LongMultiset counts;
+		private final SegmentEvaluator evaluator;
+		private final TextDictionary dictionary;
+
+		MultisetView(LongMultiset counts, SegmentEvaluator evaluator, TextDictionary dictionary) {
+			this.counts = counts;
+			this.evaluator = evaluator;
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		public int size() {
+			return counts.size() + (counts.nullCount > 0 ? 1 : 0);
+		}
+
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<Object, Object>>() {
+				@Override
+				public int size() {
+					return MultisetView.this.size();
+				}
+
+				@Override
+				public Iterator<Map.Entry<Object, Object>> iterator() {
+					return new Iterator<Map.Entry<Object, Object>>() {
+						private int slot = next(0);
+						private boolean nulls = counts.nullCount > 0;
+
+						private int next(int i) {
+							while (i < counts.capacity() && counts.countAt(i) == 0) {
+								i++;
+							}
+							return i;
+						}
+
+						public boolean hasNext() {
+							return slot < counts.capacity() || nulls;
+						}
+
+						public Map.Entry<Object, Object> next() {
+							if (slot < counts.capacity()) {
+								Map.Entry<Object, Object> e = new SimpleImmutableEntry<Object, Object>(
+										evaluator.decodeValue(counts.keyAt(slot), dictionary), new IntWritable(counts.countAt(slot)));
+								slot = next(slot + 1);
+								return e;
+							}
+							if (!nulls) {
+								throw new NoSuchElementException();
+							}
+							nulls = false;
+							return new SimpleImmutableEntry<Object, Object>(null, new IntWritable(counts.nullCount));
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
 				}
-				v.set(v.get() + e.getValue().get());
-				multiset.put(k, v );
+			};
+		}
+	}
+
+	/**
+	 * The segments of one group, from key to multiset. The implementation
+	 * is chosen by the evaluator from the key type.
+	 */
+	abstract static class SegmentAggBuffer implements AggregationBuffer {
+		// keys and distinct values held in memory
+		long entries;
+		// spilled runs, or null
+		List<File> runs;
+		// codes of the string values of the multisets and runs, or null
+		TextDictionary dictionary;
+
+		/**
+		 * Returns the multiset of key, creating it if needed.
+		 */
+		abstract Object segment(Object key, PrimitiveObjectInspector keyOI, SegmentEvaluator evaluator);
+
+		abstract Map<Object, Object> toMap(SegmentEvaluator evaluator);
+
+		/**
+		 * Writes the segments held in memory as a {@link SegmentRun}, with
+		 * text values from textValues if it is not null.
+		 */
+		abstract void writeRun(DataOutput out, TextDictionary textValues) throws IOException;
+
+		abstract int size();
+
+		abstract void clear();
+	}
+
+	static class LongKeyAggBuffer extends SegmentAggBuffer {
+		final LongObjectHashMap<Object> delegate = new LongObjectHashMap<Object>();
+
+		@Override
+		Object segment(Object key, PrimitiveObjectInspector keyOI, SegmentEvaluator evaluator) {
+			long k = PrimitiveObjectInspectorUtils.getLong(key, keyOI);
+			Object multiset = delegate.get(k);
+			if (multiset == null) {
+				multiset = evaluator.newMultiset();
+				delegate.put(k, multiset);
+				entries++;
 			}
+			return multiset;
 		}
 
 		@Override
-		public Object terminatePartial(AggregationBuffer buffer) throws HiveException {
-			SegmentAggBuffer aggBuffer = (SegmentAggBuffer) buffer;
-			Map<Object,Object> ret = new HashMap<Object,Object>();
-			for (Map.Entry<Object, Object> e : aggBuffer.delegate.entrySet()) {
-				Map<Object, Object> v = (Map<Object, Object>) e.getValue();
-				ret.put(e.getKey(), new HashMap<Object, Object>(v));
+		void writeRun(DataOutput out, TextDictionary textValues) throws IOException {
+			long[] keys = delegate.sortedKeys();
+			WritableUtils.writeVInt(out, keys.length);
+			long previous = 0;
+			for (long key : keys) {
+				WritableUtils.writeVLong(out, key - previous);
+				SegmentRun.writeMultiset(out, (LongMultiset) delegate.get(key), textValues);
+				previous = key;
+			}
+		}
+
+		@Override
+		int size() {
+			return delegate.size();
+		}
+
+		@Override
+		Map<Object, Object> toMap(SegmentEvaluator evaluator) {
+			Map<Object, Object> ret = new HashMap<Object, Object>(2 * delegate.size() + 2);
+			for (int i = 0; i < delegate.capacity(); i++) {
+				Object multiset = delegate.valueAt(i);
+				if (multiset != null) {
+					ret.put(evaluator.emitKey(delegate.keyAt(i)), evaluator.emitMultiset(multiset, dictionary));
+				}
 			}
 			return ret;
 		}
+
+		@Override
+		void clear() {
+			delegate.clear();
+		}
 	}
-	static class SegmentAggBuffer implements AggregationBuffer {
-		Map<Object,Object> delegate = new HashMap<Object,Object>();
+
+	static class ObjectKeyAggBuffer extends SegmentAggBuffer {
+		// replaced rather than cleared, as it may have been emitted
+		Map<Object, Object> delegate = new HashMap<Object, Object>();
+
+		@Override
+		Object segment(Object key, PrimitiveObjectInspector keyOI, SegmentEvaluator evaluator) {
+			// standard keys are looked up as they are, and only copied when new
+			boolean standard = keyOI == evaluator.outputKeyOI;
+			Object keyCopy = standard ? key : ObjectInspectorUtils.copyToStandardObject(key, keyOI);
+			Object multiset = delegate.get(keyCopy);
+			if (multiset == null) {
+				multiset = evaluator.newMultiset();
+				delegate.put(standard ? ObjectInspectorUtils.copyToStandardObject(key, keyOI) : keyCopy, multiset);
+				entries++;
+			}
+			return multiset;
+		}
+
+		@Override
+		void writeRun(DataOutput out, TextDictionary textValues) throws IOException {
+			// string keys, in the byte order of their text
+			TreeMap<Text, Object> sorted = new TreeMap<Text, Object>();
+			for (Map.Entry<Object, Object> e : delegate.entrySet()) {
+				Object key = e.getKey();
+				sorted.put(key instanceof Text ? (Text) key : new Text(key.toString()), e.getValue());
+			}
+			WritableUtils.writeVInt(out, sorted.size());
+			for (Map.Entry<Text, Object> e : sorted.entrySet()) {
+				e.getKey().write(out);
+				SegmentRun.writeMultiset(out, (LongMultiset) e.getValue(), textValues);
+			}
+		}
+
+		@Override
+		int size() {
+			return delegate.size();
+		}
+
+		@Override
+		Map<Object, Object> toMap(SegmentEvaluator evaluator) {
+			if (!evaluator.longValues) {
+				// the multisets are emitted as they are
+				return delegate;
+			}
+			Map<Object, Object> ret = new HashMap<Object, Object>(2 * delegate.size() + 2);
+			for (Map.Entry<Object, Object> e : delegate.entrySet()) {
+				ret.put(e.getKey(), evaluator.emitMultiset(e.getValue(), dictionary));
+			}
+			return ret;
+		}
+
+		@Override
+		void clear() {
+			delegate = new HashMap<Object, Object>();
+		}
 	}
 }
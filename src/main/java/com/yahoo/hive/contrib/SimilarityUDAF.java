@@ -95,26 +95,11 @@ public class SimilarityUDAF extends AbstractGenericUDAFResolver {
 				throws HiveException {
 			BytesWritable xbinary = PrimitiveObjectInspectorUtils.getBinary(
 					parameters[0], inputOIx);
-
-			OverlapAggBuffer aggBuffer = (OverlapAggBuffer) buffer;
-			MinHash xSignature = fromBytes(xbinary);
-			if (!aggBuffer.initialized()) {
-				aggBuffer.xsignature = new MinHash(xSignature.getK());
-				aggBuffer.ysignature = new MinHash(xSignature.getK());
-			}
-			aggBuffer.xsignature = aggBuffer.xsignature
-					.merge(xSignature);
 			BytesWritable ybinary = PrimitiveObjectInspectorUtils.getBinary(
 					parameters[1], inputOIy);
-			aggBuffer.ysignature = aggBuffer.ysignature
-					.merge(fromBytes(ybinary));
-		}
 
-		private MinHash fromBytes(BytesWritable binary) {
-			byte[] xbytes = binary.getBytes();
-			byte[] trimmedBytes = new byte[binary.getLength()];
-			System.arraycopy(xbytes, 0, trimmedBytes, 0, trimmedBytes.length);
-			return MinHash.fromBytes(trimmedBytes);
+			OverlapAggBuffer aggBuffer = (OverlapAggBuffer) buffer;
+			aggBuffer.merge(SketchBytes.minHash(xbinary), SketchBytes.minHash(ybinary));
 		}
 
 		@Override
@@ -123,25 +108,14 @@ public class SimilarityUDAF extends AbstractGenericUDAFResolver {
 			if (obj != null) {
 				OverlapAggBuffer aggBuffer = (OverlapAggBuffer) buffer;
 				BytesWritable bw = (BytesWritable) obj;
-				byte[] bytes = new byte[bw.getLength()];
-				System.arraycopy(bw.getBytes(), 0, bytes, 0, bw.getLength());
+				// the lengths and signatures are read in place
+				byte[] bytes = bw.getBytes();
 				int xLength = Ints.fromBytes(bytes[0], bytes[1], bytes[2],
 						bytes[3]);
 				int yLength = Ints.fromBytes(bytes[4], bytes[5], bytes[6],
 						bytes[7]);
-				byte[] xBytes = new byte[xLength];
-				System.arraycopy(bytes, 8, xBytes, 0, xLength);
-				byte[] yBytes = new byte[yLength];
-				System.arraycopy(bytes, 8 + xLength, yBytes, 0, yLength);
-				MinHash xSignature = MinHash.fromBytes(xBytes);
-				if (!aggBuffer.initialized()) {
-					aggBuffer.xsignature = new MinHash(xSignature.getK());
-					aggBuffer.ysignature = new MinHash(xSignature.getK());
-				}
-				
-				aggBuffer.xsignature = aggBuffer.xsignature.merge(xSignature);
-				aggBuffer.ysignature = aggBuffer.ysignature.merge(MinHash
-						.fromBytes(yBytes));
+				aggBuffer.merge(SketchBytes.minHash(bytes, 8, xLength),
+						SketchBytes.minHash(bytes, 8 + xLength, yLength));
 			}
 		}
 
@@ -154,6 +128,9 @@ public class SimilarityUDAF extends AbstractGenericUDAFResolver {
 		@Override
 		public Object terminate(AggregationBuffer buffer) throws HiveException {
 			OverlapAggBuffer aggBuffer = (OverlapAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
 			MinHash x = aggBuffer.xsignature;
 			MinHash y = aggBuffer.ysignature;
 			double jaccard = x.jaccardSimilarity(y);
@@ -165,6 +142,9 @@ public class SimilarityUDAF extends AbstractGenericUDAFResolver {
 		public Object terminatePartial(AggregationBuffer buffer)
 				throws HiveException {
 			OverlapAggBuffer aggBuffer = (OverlapAggBuffer) buffer;
+			if (!aggBuffer.initialized()) {
+				return null;
+			}
 			byte[] xBytes = aggBuffer.xsignature.toBytes();
 			byte[] yBytes = aggBuffer.ysignature.toBytes();
 			byte[] bytes = new byte[xBytes.length + yBytes.length + 8];
@@ -192,9 +172,22 @@ public class SimilarityUDAF extends AbstractGenericUDAFResolver {
 		}
 
 		public void reset() {
+			xsignature = null;
+			ysignature = null;
+		}
+
+		/**
+		 * Merges x and y into the signatures. Signatures can not be merged
+		 * in place, so an empty buffer takes x and y as they are, which
+		 * saves merging the first row into empty signatures.
+		 */
+		public void merge(MinHash x, MinHash y) {
 			if (initialized()) {
-				xsignature = xsignature.empty();
-				ysignature = xsignature.empty();
+				xsignature = xsignature.merge(x);
+				ysignature = ysignature.merge(y);
+			} else {
+				xsignature = x;
+				ysignature = y;
 			}
 		}
 	}
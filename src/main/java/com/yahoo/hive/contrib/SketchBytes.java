@@ -0,0 +1,190 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.io.BytesWritable;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.yahoo.eta.stats.cus.CountUniqueSketch;
+import com.yahoo.eta.stats.cus.CountUniqueSketchSerialization;
+import com.yahoo.streamlib.MinHash;
+import com.yahoo.streamlib.ModHash;
+
+/**
+ * Deserialization of sketches from a slice of a byte array, as held by a
+ * {@link BytesWritable}. The sketch libraries only read whole arrays, so a
+ * slice that already spans its whole array is handed over as it is, and
+ * only other slices are copied, once.
+ * <p>
+ * The sketches output by approx_distinct, minhash, modhash and
+ * segment_distinct are wrapped in a fixed size header: the magic bytes
+ * "YSK", a version, the engine id, its parameter (k, p or the threshold, 0
+ * for count unique sketches), the cardinality estimate, -1 for signatures,
+ * and the length of the serialized sketch that follows. Estimates and
+ * compatibility can be read from the header alone. Sketches without a
+ * header, as written before it and as partials still are, are read as
+ * they are.
+ *
+ * @author harshars
+ *
+ */
+final class SketchBytes {
+
+	private SketchBytes() {
+	}
+
+	// engine ids
+	static final byte COUNT_UNIQUE = 1;
+	static final byte HLLPP = 2;
+	static final byte ADAPTIVE = 3;
+	static final byte MIN_HASH = 4;
+	static final byte MOD_HASH = 5;
+
+	private static final byte[] MAGIC = {'Y', 'S', 'K'};
+	static final byte VERSION = 1;
+
+	// magic, version, engine, parameter, estimate and payload length
+	static final int HEADER_LENGTH = MAGIC.length + 1 + 1 + 4 + 8 + 4;
+	private static final int ENGINE = MAGIC.length + 1;
+	private static final int PARAMETER = ENGINE + 1;
+	private static final int ESTIMATE = PARAMETER + 4;
+	private static final int LENGTH = ESTIMATE + 8;
+
+	/**
+	 * Wraps a serialized sketch in a header.
+	 */
+	static byte[] envelope(byte engine, int parameter, long estimate, byte[] payload) {
+		byte[] bytes = new byte[HEADER_LENGTH + payload.length];
+		System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+		bytes[MAGIC.length] = VERSION;
+		bytes[ENGINE] = engine;
+		System.arraycopy(Ints.toByteArray(parameter), 0, bytes, PARAMETER, 4);
+		System.arraycopy(Longs.toByteArray(estimate), 0, bytes, ESTIMATE, 8);
+		System.arraycopy(Ints.toByteArray(payload.length), 0, bytes, LENGTH, 4);
+		System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+		return bytes;
+	}
+
+	/**
+	 * Whether the bytes [offset, offset + length) are a header and the
+	 * payload it gives the length of. Those of a later version than this
+	 * one can not be read.
+	 */
+	static boolean hasHeader(byte[] bytes, int offset, int length) {
+		if (length < HEADER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[offset + i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		// else a headerless sketch that happens to start with the magic
+		if (payloadLength(bytes, offset) != length - HEADER_LENGTH) {
+			return false;
+		}
+		if (bytes[offset + MAGIC.length] > VERSION) {
+			throw new IllegalArgumentException("Sketch version " + bytes[offset + MAGIC.length]
+					+ " is newer than the supported version " + VERSION);
+		}
+		return true;
+	}
+
+	// the fields of a header at offset
+
+	static byte engine(byte[] bytes, int offset) {
+		return bytes[offset + ENGINE];
+	}
+
+	static int parameter(byte[] bytes, int offset) {
+		return readInt(bytes, offset + PARAMETER);
+	}
+
+	static long estimate(byte[] bytes, int offset) {
+		int i = offset + ESTIMATE;
+		return Longs.fromBytes(bytes[i], bytes[i + 1], bytes[i + 2], bytes[i + 3], bytes[i + 4], bytes[i + 5],
+				bytes[i + 6], bytes[i + 7]);
+	}
+
+	static int payloadLength(byte[] bytes, int offset) {
+		return readInt(bytes, offset + LENGTH);
+	}
+
+	private static int readInt(byte[] bytes, int i) {
+		return Ints.fromBytes(bytes[i], bytes[i + 1], bytes[i + 2], bytes[i + 3]);
+	}
+
+	/**
+	 * Checks that a sketch with a header at offset is of engine.
+	 */
+	private static void checkEngine(byte[] bytes, int offset, byte engine) {
+		if (engine(bytes, offset) != engine) {
+			throw new IllegalArgumentException("Expected a sketch of engine " + engine + " but found engine "
+					+ engine(bytes, offset));
+		}
+	}
+
+	/**
+	 * Returns the bytes [offset, offset + length) as an array of exactly
+	 * length bytes, which is bytes itself if the slice spans all of it.
+	 */
+	static byte[] slice(byte[] bytes, int offset, int length) {
+		if (offset == 0 && length == bytes.length) {
+			return bytes;
+		}
+		byte[] slice = new byte[length];
+		System.arraycopy(bytes, offset, slice, 0, length);
+		return slice;
+	}
+
+	static CountUniqueSketch countUnique(BytesWritable bw) {
+		return countUnique(bw.getBytes(), 0, bw.getLength());
+	}
+
+	static CountUniqueSketch countUnique(byte[] bytes, int offset, int length) {
+		if (hasHeader(bytes, offset, length)) {
+			checkEngine(bytes, offset, COUNT_UNIQUE);
+			return countUnique(bytes, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+		}
+		return CountUniqueSketchSerialization.deserializeSketch(slice(bytes, offset, length));
+	}
+
+	static MinHash minHash(BytesWritable bw) {
+		return minHash(bw.getBytes(), 0, bw.getLength());
+	}
+
+	static MinHash minHash(byte[] bytes, int offset, int length) {
+		if (hasHeader(bytes, offset, length)) {
+			checkEngine(bytes, offset, MIN_HASH);
+			return minHash(bytes, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+		}
+		return MinHash.fromBytes(slice(bytes, offset, length));
+	}
+
+	static ModHash modHash(BytesWritable bw) {
+		return modHash(bw.getBytes(), 0, bw.getLength());
+	}
+
+	static ModHash modHash(byte[] bytes, int offset, int length) {
+		if (hasHeader(bytes, offset, length)) {
+			checkEngine(bytes, offset, MOD_HASH);
+			return modHash(bytes, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+		}
+		return ModHash.fromBytes(slice(bytes, offset, length));
+	}
+
+	static HyperLogLogPlus hllpp(byte[] bytes, int offset, int length) {
+		if (hasHeader(bytes, offset, length)) {
+			checkEngine(bytes, offset, HLLPP);
+			return hllpp(bytes, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+		}
+		return HyperLogLogPlus.fromBytes(bytes, offset, length);
+	}
+
+	static AdaptiveSketch adaptive(byte[] bytes, int offset, int length) {
+		if (hasHeader(bytes, offset, length)) {
+			checkEngine(bytes, offset, ADAPTIVE);
+			return adaptive(bytes, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+		}
+		return AdaptiveSketch.fromBytes(bytes, offset, length);
+	}
+}
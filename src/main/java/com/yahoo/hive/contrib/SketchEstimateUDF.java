@@ -0,0 +1,59 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Reads the cardinality of a sketch stored from approx_distinct, without
+ * aggregating it again. Sketches stored with a header have it read from
+ * there, and only older ones are deserialized and estimated.
+ * @author harshars
+ *
+ */
+@Description(name = "sketch_estimate",
+value = "_FUNC_(sketch) - returns the cardinality of a sketch from approx_distinct",
+extended = "Example:\n"
++ "  > SELECT day, _FUNC_(users) FROM rollup;\n")
+public class SketchEstimateUDF extends SketchUDF {
+
+	LongWritable result = new LongWritable();
+
+	@Override
+	public ObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		initialize(arguments, 1, 1);
+		return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+	}
+
+	@Override
+	public LongWritable evaluate(DeferredObject[] arguments) throws HiveException {
+		BytesWritable bw = bytes(arguments, 0);
+		if (bw == null) {
+			return null;
+		}
+		// checks the version and that it is a sketch of approx_distinct
+		engine(bw);
+		if (SketchBytes.hasHeader(bw.getBytes(), 0, bw.getLength())) {
+			result.set(SketchBytes.estimate(bw.getBytes(), 0));
+			return result;
+		}
+		Object sketch = sketch(bw, true);
+		result.set(counter.isEmpty(sketch) ? 0 : counter.cardinality(sketch));
+		return result;
+	}
+
+	@Override
+	String usage() {
+		return "sketch_estimate(sketch)";
+	}
+
+	@Override
+	public String getDisplayString(String[] children) {
+		return getDisplayString("sketch_estimate", children);
+	}
+}
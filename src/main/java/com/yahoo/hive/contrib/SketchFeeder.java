@@ -0,0 +1,342 @@
+package com.yahoo.hive.contrib;
+
+import java.nio.charset.CharacterCodingException;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+
+import com.yahoo.streamlib.MinHash;
+import com.yahoo.streamlib.ModHash;
+
+/**
+ * Feeds the values of one input column to a sketch. The feeder is chosen
+ * once in init() from the type of the column, so that iterate() makes a
+ * single call with no switch, instanceof or conversion per row.
+ * Serialized sketches are merged, and an empty buffer takes the first one
+ * as it is.
+ * <p>
+ * Feeders also take whole column batches, laid out as Hive's column
+ * vectors: a long[] for int and bigint columns, and byte[][] slices with
+ * start and length arrays for string and binary ones, each with an isNull
+ * mask that is only read when noNulls is false. A batch is hashed into the
+ * sketch in one loop.
+ *
+ * @author harshars
+ *
+ */
+abstract class SketchFeeder<S> {
+
+	final Sketches<S> sketches;
+
+	SketchFeeder(Sketches<S> sketches) {
+		this.sketches = sketches;
+	}
+
+	/**
+	 * Feeds the non null value o to sketch and returns the sketch to keep,
+	 * which is a new one if sketches were merged. sketch may only be null
+	 * if the feeder {@link #merges()}.
+	 */
+	abstract S feed(S sketch, Object o);
+
+	/**
+	 * Whether the feeder merges serialized sketches, which take the place
+	 * of a new empty sketch.
+	 */
+	boolean merges() {
+		return false;
+	}
+
+	/**
+	 * Feeds the values [0, size) of an int or bigint column batch to sketch,
+	 * which may not be null, and returns it.
+	 */
+	S feed(S sketch, long[] vector, boolean[] isNull, boolean noNulls, int size) {
+		throw new IllegalArgumentException("Only int or bigint values can be fed as a long column batch");
+	}
+
+	/**
+	 * Feeds the values [0, size) of a string or binary column batch to
+	 * sketch, and returns the sketch to keep as {@link #feed(Object, Object)}
+	 * does.
+	 */
+	S feed(S sketch, byte[][] vector, int[] start, int[] length, boolean[] isNull, boolean noNulls, int size) {
+		throw new IllegalArgumentException("Only string or binary values can be fed as a bytes column batch");
+	}
+
+	/**
+	 * The feeder for values of oi, an int, bigint, string or binary column.
+	 */
+	static <S> SketchFeeder<S> create(final PrimitiveObjectInspector oi, Sketches<S> sketches)
+			throws UDFArgumentTypeException {
+		switch (oi.getPrimitiveCategory()) {
+		case INT:
+			return new SketchFeeder<S>(sketches) {
+				@Override
+				S feed(S sketch, Object o) {
+					this.sketches.update(sketch, ((IntObjectInspector) oi).get(o));
+					return sketch;
+				}
+
+				@Override
+				S feed(S sketch, long[] vector, boolean[] isNull, boolean noNulls, int size) {
+					this.sketches.updateInts(sketch, vector, isNull, noNulls, size);
+					return sketch;
+				}
+			};
+		case LONG:
+			return new SketchFeeder<S>(sketches) {
+				@Override
+				S feed(S sketch, Object o) {
+					this.sketches.update(sketch, ((LongObjectInspector) oi).get(o));
+					return sketch;
+				}
+
+				@Override
+				S feed(S sketch, long[] vector, boolean[] isNull, boolean noNulls, int size) {
+					this.sketches.updateLongs(sketch, vector, isNull, noNulls, size);
+					return sketch;
+				}
+			};
+		case STRING:
+			if (oi.preferWritable()) {
+				return new SketchFeeder<S>(sketches) {
+					@Override
+					S feed(S sketch, Object o) {
+						this.sketches.update(sketch, ((StringObjectInspector) oi).getPrimitiveWritableObject(o));
+						return sketch;
+					}
+
+					@Override
+					S feed(S sketch, byte[][] vector, int[] start, int[] length, boolean[] isNull,
+							boolean noNulls, int size) {
+						this.sketches.updateStrings(sketch, vector, start, length, isNull, noNulls, size);
+						return sketch;
+					}
+				};
+			}
+			return new SketchFeeder<S>(sketches) {
+				@Override
+				S feed(S sketch, Object o) {
+					this.sketches.update(sketch, ((StringObjectInspector) oi).getPrimitiveJavaObject(o));
+					return sketch;
+				}
+
+				@Override
+				S feed(S sketch, byte[][] vector, int[] start, int[] length, boolean[] isNull,
+						boolean noNulls, int size) {
+					this.sketches.updateStrings(sketch, vector, start, length, isNull, noNulls, size);
+					return sketch;
+				}
+			};
+		case BINARY:
+			return new SketchFeeder<S>(sketches) {
+				@Override
+				S feed(S sketch, Object o) {
+					S other = this.sketches.deserialize(((BinaryObjectInspector) oi).getPrimitiveWritableObject(o));
+					return sketch == null ? other : this.sketches.merge(sketch, other);
+				}
+
+				@Override
+				S feed(S sketch, byte[][] vector, int[] start, int[] length, boolean[] isNull,
+						boolean noNulls, int size) {
+					for (int i = 0; i < size; i++) {
+						if (noNulls || !isNull[i]) {
+							S other = this.sketches.deserialize(vector[i], start[i], length[i]);
+							sketch = sketch == null ? other : this.sketches.merge(sketch, other);
+						}
+					}
+					return sketch;
+				}
+
+				@Override
+				boolean merges() {
+					return true;
+				}
+			};
+		default:
+			throw new UDFArgumentTypeException(0, "Only int, bigint, string or binary values can be sketched but "
+					+ oi.getTypeName() + " was passed as parameter.");
+		}
+	}
+
+	/**
+	 * The operations of one kind of sketch.
+	 */
+	abstract static class Sketches<S> {
+		abstract void update(S sketch, int v);
+
+		abstract void update(S sketch, long v);
+
+		abstract void update(S sketch, Text v);
+
+		abstract void update(S sketch, String v);
+
+		/**
+		 * Updates sketch with the string of UTF-8 bytes [start, start + length),
+		 * hashed as {@link #update(Object, Text)} hashes it.
+		 */
+		abstract void update(S sketch, byte[] utf8, int start, int length);
+
+		abstract S merge(S sketch, S other);
+
+		abstract S deserialize(byte[] bytes, int offset, int length);
+
+		S deserialize(BytesWritable bw) {
+			return deserialize(bw.getBytes(), 0, bw.getLength());
+		}
+
+		// the batch loops test noNulls once rather than per value
+
+		void updateInts(S sketch, long[] vector, boolean[] isNull, boolean noNulls, int size) {
+			if (noNulls) {
+				for (int i = 0; i < size; i++) {
+					update(sketch, (int) vector[i]);
+				}
+			} else {
+				for (int i = 0; i < size; i++) {
+					if (!isNull[i]) {
+						update(sketch, (int) vector[i]);
+					}
+				}
+			}
+		}
+
+		void updateLongs(S sketch, long[] vector, boolean[] isNull, boolean noNulls, int size) {
+			if (noNulls) {
+				for (int i = 0; i < size; i++) {
+					update(sketch, vector[i]);
+				}
+			} else {
+				for (int i = 0; i < size; i++) {
+					if (!isNull[i]) {
+						update(sketch, vector[i]);
+					}
+				}
+			}
+		}
+
+		void updateStrings(S sketch, byte[][] vector, int[] start, int[] length, boolean[] isNull,
+				boolean noNulls, int size) {
+			if (noNulls) {
+				for (int i = 0; i < size; i++) {
+					update(sketch, vector[i], start[i], length[i]);
+				}
+			} else {
+				for (int i = 0; i < size; i++) {
+					if (!isNull[i]) {
+						update(sketch, vector[i], start[i], length[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The index of the first value of a column batch that is not null, or
+	 * size if they all are.
+	 */
+	static int firstNonNull(boolean[] isNull, boolean noNulls, int size) {
+		int i = 0;
+		if (!noNulls) {
+			while (i < size && isNull[i]) {
+				i++;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Decodes the UTF-8 bytes [start, start + length) for the signatures,
+	 * which hash strings as strings.
+	 */
+	static String decode(byte[] bytes, int start, int length) {
+		try {
+			return Text.decode(bytes, start, length);
+		} catch (CharacterCodingException e) {
+			throw new IllegalArgumentException("Invalid UTF-8 string", e);
+		}
+	}
+
+	// signatures hash strings as strings
+
+	static final Sketches<MinHash> MIN_HASH = new Sketches<MinHash>() {
+		@Override
+		void update(MinHash sketch, int v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(MinHash sketch, long v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(MinHash sketch, Text v) {
+			sketch.update(v.toString());
+		}
+
+		@Override
+		void update(MinHash sketch, String v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(MinHash sketch, byte[] utf8, int start, int length) {
+			sketch.update(decode(utf8, start, length));
+		}
+
+		@Override
+		MinHash merge(MinHash sketch, MinHash other) {
+			return sketch.merge(other);
+		}
+
+		@Override
+		MinHash deserialize(byte[] bytes, int offset, int length) {
+			return SketchBytes.minHash(bytes, offset, length);
+		}
+	};
+
+	static final Sketches<ModHash> MOD_HASH = new Sketches<ModHash>() {
+		@Override
+		void update(ModHash sketch, int v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(ModHash sketch, long v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(ModHash sketch, Text v) {
+			sketch.update(v.toString());
+		}
+
+		@Override
+		void update(ModHash sketch, String v) {
+			sketch.update(v);
+		}
+
+		@Override
+		void update(ModHash sketch, byte[] utf8, int start, int length) {
+			sketch.update(decode(utf8, start, length));
+		}
+
+		@Override
+		ModHash merge(ModHash sketch, ModHash other) {
+			return sketch.merge(other);
+		}
+
+		@Override
+		ModHash deserialize(byte[] bytes, int offset, int length) {
+			return SketchBytes.modHash(bytes, offset, length);
+		}
+	};
+}
@@ -0,0 +1,86 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Estimates the cardinality of the intersection of the sketches of a row,
+ * stored from approx_distinct. None of the sketches can be intersected
+ * directly, so the estimate comes from the cardinalities of the unions of
+ * every subset of them, by inclusion-exclusion: |A and B| = |A| + |B| -
+ * |A or B|. The errors of all the unions add up, so the estimate is only
+ * reliable for intersections that are not much smaller than the sketches;
+ * it is clamped to [0, the smallest cardinality].
+ * @author harshars
+ *
+ */
+@Description(name = "sketch_intersect",
+value = "_FUNC_(sketch1, sketch2, ...) - estimates the cardinality of the intersection of "
++ "2 to 8 sketches from approx_distinct, by inclusion-exclusion over their unions, or null if any is null",
+extended = "Example:\n"
++ "  > SELECT _FUNC_(web_users, app_users) FROM rollup;\n")
+public class SketchIntersectUDF extends SketchUDF {
+
+	// the unions of all 2^n - 1 subsets are estimated
+	static final int MAX_SKETCHES = 8;
+
+	LongWritable result = new LongWritable();
+
+	@Override
+	public ObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		initialize(arguments, 2, MAX_SKETCHES);
+		return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+	}
+
+	@Override
+	public LongWritable evaluate(DeferredObject[] arguments) throws HiveException {
+		int n = arguments.length;
+		Object[] sketches = new Object[n];
+		long smallest = Long.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			BytesWritable bytes = bytes(arguments, i);
+			if (bytes == null) {
+				return null;
+			}
+			sketches[i] = sketch(bytes, i == 0);
+			smallest = Math.min(smallest, counter.isEmpty(sketches[i]) ? 0 : counter.cardinality(sketches[i]));
+		}
+		double estimate = unions(sketches, null, 0, n);
+		result.set(Math.max(0, Math.min(smallest, Math.round(estimate))));
+		return result;
+	}
+
+	/**
+	 * Sums the signed cardinalities of the unions of every subset that
+	 * extends the subset of size members whose union is union, or null, with
+	 * sketches below index below, its lowest one. Each union is built from
+	 * the one of its subset without its lowest member, merged into a copy
+	 * so that union and the sketches are kept.
+	 */
+	private double unions(Object[] sketches, Object union, int size, int below) throws HiveException {
+		double estimate = 0;
+		for (int i = 0; i < below; i++) {
+			Object extended = union == null ? sketches[i] : union(counter.copy(union), sketches[i]);
+			long cardinality = counter.isEmpty(extended) ? 0 : counter.cardinality(extended);
+			estimate += (size + 1) % 2 == 1 ? cardinality : -cardinality;
+			estimate += unions(sketches, extended, size + 1, i);
+		}
+		return estimate;
+	}
+
+	@Override
+	String usage() {
+		return "sketch_intersect(sketch1, sketch2, ...)";
+	}
+
+	@Override
+	public String getDisplayString(String[] children) {
+		return getDisplayString("sketch_intersect", children);
+	}
+}
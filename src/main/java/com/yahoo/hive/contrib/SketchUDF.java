@@ -0,0 +1,113 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * Base of the UDFs over the sketches stored from approx_distinct, of any of
+ * its engines, which are read row by row with no aggregation.
+ *
+ * @author harshars
+ *
+ */
+abstract class SketchUDF extends GenericUDF {
+
+	BinaryObjectInspector[] inputOIs;
+
+	// the engine of the sketches of the current row
+	DistinctCounter<Object> counter;
+
+	/**
+	 * Checks that there are from min to max binary arguments.
+	 */
+	void initialize(ObjectInspector[] arguments, int min, int max) throws UDFArgumentException {
+		if (arguments.length < min || arguments.length > max) {
+			throw new UDFArgumentLengthException("The function " + usage() + " takes "
+					+ (min == max ? String.valueOf(min) : min + " to " + max) + " arguments.");
+		}
+		inputOIs = new BinaryObjectInspector[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			if (arguments[i].getCategory() != Category.PRIMITIVE
+					|| ((PrimitiveObjectInspector) arguments[i]).getPrimitiveCategory() != PrimitiveCategory.BINARY) {
+				throw new UDFArgumentTypeException(i, "A serialized sketch is expected but "
+						+ arguments[i].getTypeName() + " was passed as parameter.");
+			}
+			inputOIs[i] = (BinaryObjectInspector) arguments[i];
+		}
+	}
+
+	/**
+	 * The name and arguments of the function, for messages.
+	 */
+	abstract String usage();
+
+	/**
+	 * The bytes of argument i, or null.
+	 */
+	BytesWritable bytes(DeferredObject[] arguments, int i) throws HiveException {
+		Object o = arguments[i].get();
+		return o == null ? null : inputOIs[i].getPrimitiveWritableObject(o);
+	}
+
+	/**
+	 * Reads the sketch in bw, which must be of the same engine as the ones
+	 * read before it in the row, and sets {@link #counter} to its engine.
+	 */
+	Object sketch(BytesWritable bw, boolean first) throws HiveException {
+		DistinctCounter<Object> engine = engine(bw);
+		if (!first && !engine.name().equals(counter.name())) {
+			throw new HiveException(usage() + " can not combine " + counter.name() + " and " + engine.name()
+					+ " sketches");
+		}
+		counter = engine;
+		try {
+			return engine.deserialize(bw);
+		} catch (IllegalArgumentException e) {
+			throw new HiveException(e.getMessage());
+		}
+	}
+
+	/**
+	 * The engine of the sketch in bw, read from its header if it has one.
+	 */
+	@SuppressWarnings("unchecked")
+	DistinctCounter<Object> engine(BytesWritable bw) throws HiveException {
+		try {
+			return (DistinctCounter<Object>) DistinctCounter.forSketch(bw.getBytes(), 0, bw.getLength());
+		} catch (IllegalArgumentException e) {
+			throw new HiveException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Merges other into sketch, both of {@link #counter}, and returns the
+	 * union.
+	 */
+	Object union(Object sketch, Object other) throws HiveException {
+		try {
+			return counter.merge(sketch, other);
+		} catch (IllegalArgumentException e) {
+			throw new HiveException(e.getMessage());
+		}
+	}
+
+	String getDisplayString(String name, String[] children) {
+		StringBuilder sb = new StringBuilder(name).append('(');
+		for (int i = 0; i < children.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(children[i]);
+		}
+		return sb.append(')').toString();
+	}
+}
@@ -0,0 +1,59 @@
+package com.yahoo.hive.contrib;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * Merges the sketches of a row, stored from approx_distinct, into the
+ * sketch of their union. Null sketches are skipped.
+ * @author harshars
+ *
+ */
+@Description(name = "sketch_union",
+value = "_FUNC_(sketch1, sketch2, ...) - returns the union of sketches from approx_distinct, "
++ "or null if they all are",
+extended = "Example:\n"
++ "  > SELECT sketch_estimate(_FUNC_(web_users, app_users)) FROM rollup;\n")
+public class SketchUnionUDF extends SketchUDF {
+
+	BytesWritable result = new BytesWritable();
+
+	@Override
+	public ObjectInspector initialize(ObjectInspector[] arguments)
+			throws UDFArgumentException {
+		initialize(arguments, 1, Integer.MAX_VALUE);
+		return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+	}
+
+	@Override
+	public BytesWritable evaluate(DeferredObject[] arguments) throws HiveException {
+		Object union = null;
+		for (int i = 0; i < arguments.length; i++) {
+			BytesWritable bw = bytes(arguments, i);
+			if (bw != null) {
+				Object sketch = sketch(bw, union == null);
+				union = union == null ? sketch : union(union, sketch);
+			}
+		}
+		if (union == null) {
+			return null;
+		}
+		byte[] b = counter.store(union);
+		result.set(b, 0, b.length);
+		return result;
+	}
+
+	@Override
+	String usage() {
+		return "sketch_union(sketch1, sketch2, ...)";
+	}
+
+	@Override
+	public String getDisplayString(String[] children) {
+		return getDisplayString("sketch_union", children);
+	}
+}
@@ -0,0 +1,252 @@
+package com.yahoo.hive.contrib;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * SpaceSaving summary of the most frequent items of a stream, in
+ * O(capacity) memory. Every monitored item has a count that is at least
+ * its true frequency, and at most error more than it. An item that is not
+ * monitored occurs at most {@link #floor()} times.
+ * <p>
+ * The counters are kept in parallel arrays, with an indexed min-heap on
+ * count so that the item to evict is found in O(1) and counters are
+ * updated in O(log capacity). The arrays grow with the number of items
+ * up to capacity, as most summaries of a group stay small. Summaries are
+ * merged as in Cafaro et al., which keeps both bounds.
+ *
+ * @author harshars
+ *
+ */
+class SpaceSaving {
+
+	private static final int INITIAL_LENGTH = 8;
+
+	private final int capacity;
+	private Object[] items;
+	private long[] counts;
+	private long[] errors;
+	// heap of counter indexes by count, and the heap position of each counter
+	private int[] heap;
+	private int[] position;
+	private final HashMap<Object, Integer> index;
+	private int size;
+
+	SpaceSaving(int capacity) {
+		this.capacity = capacity;
+		int length = Math.min(capacity, INITIAL_LENGTH);
+		items = new Object[length];
+		counts = new long[length];
+		errors = new long[length];
+		heap = new int[length];
+		position = new int[length];
+		index = new HashMap<Object, Integer>();
+	}
+
+	/**
+	 * Grows the arrays to hold at least n counters, doubling them up to
+	 * capacity.
+	 */
+	private void ensureLength(int n) {
+		if (n <= items.length) {
+			return;
+		}
+		int length = Math.min(capacity, Math.max(n, 2 * items.length));
+		Object[] i = new Object[length];
+		System.arraycopy(items, 0, i, 0, size);
+		items = i;
+		long[] c = new long[length];
+		System.arraycopy(counts, 0, c, 0, size);
+		counts = c;
+		long[] e = new long[length];
+		System.arraycopy(errors, 0, e, 0, size);
+		errors = e;
+		int[] h = new int[length];
+		System.arraycopy(heap, 0, h, 0, size);
+		heap = h;
+		int[] p = new int[length];
+		System.arraycopy(position, 0, p, 0, size);
+		position = p;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	int size() {
+		return size;
+	}
+
+	Object item(int i) {
+		return items[i];
+	}
+
+	long count(int i) {
+		return counts[i];
+	}
+
+	long error(int i) {
+		return errors[i];
+	}
+
+	/**
+	 * The most times an item that is not monitored can have occurred.
+	 */
+	long floor() {
+		return size < capacity ? 0 : counts[heap[0]];
+	}
+
+	/**
+	 * Returns the counter of item, or -1 if it is not monitored.
+	 */
+	int indexOf(Object item) {
+		Integer i = index.get(item);
+		return i == null ? -1 : i;
+	}
+
+	void increment(int i, long weight) {
+		counts[i] += weight;
+		siftDown(position[i]);
+	}
+
+	/**
+	 * Starts monitoring item, which must not be monitored yet, evicting the
+	 * item with the smallest count if the summary is full.
+	 */
+	void insert(Object item, long weight) {
+		if (size < capacity) {
+			ensureLength(size + 1);
+			int i = size++;
+			set(i, item, weight, 0);
+			heap[i] = i;
+			position[i] = i;
+			siftUp(i);
+		} else {
+			int i = heap[0];
+			index.remove(items[i]);
+			set(i, item, counts[i] + weight, counts[i]);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Merges in the first n counters of another summary of the given
+	 * capacity. Items of that summary must be in the form held by this one.
+	 */
+	void merge(Object[] otherItems, long[] otherCounts, long[] otherErrors, int n, int otherCapacity) {
+		long otherFloor = 0;
+		if (n >= otherCapacity && n > 0) {
+			otherFloor = Long.MAX_VALUE;
+			for (int j = 0; j < n; j++) {
+				otherFloor = Math.min(otherFloor, otherCounts[j]);
+			}
+		}
+		long floor = floor();
+		int total = size + n;
+		Object[] mergedItems = new Object[total];
+		long[] mergedCounts = new long[total];
+		long[] mergedErrors = new long[total];
+		// items of this summary, as if the other did not monitor them
+		for (int i = 0; i < size; i++) {
+			mergedItems[i] = items[i];
+			mergedCounts[i] = counts[i] + otherFloor;
+			mergedErrors[i] = errors[i] + otherFloor;
+		}
+		int m = size;
+		for (int j = 0; j < n; j++) {
+			int i = indexOf(otherItems[j]);
+			if (i >= 0) {
+				mergedCounts[i] += otherCounts[j] - otherFloor;
+				mergedErrors[i] += otherErrors[j] - otherFloor;
+			} else {
+				mergedItems[m] = otherItems[j];
+				mergedCounts[m] = floor + otherCounts[j];
+				mergedErrors[m] = floor + otherErrors[j];
+				m++;
+			}
+		}
+		int[] order = top(mergedCounts, m, capacity);
+		ensureLength(order.length);
+		index.clear();
+		size = order.length;
+		for (int i = 0; i < size; i++) {
+			set(i, mergedItems[order[i]], mergedCounts[order[i]], mergedErrors[order[i]]);
+		}
+		// order is by descending count, so the reversed order is a min-heap
+		for (int i = 0; i < size; i++) {
+			heap[i] = size - 1 - i;
+			position[size - 1 - i] = i;
+		}
+	}
+
+	/**
+	 * Returns the indexes of the at most n counters with the highest counts,
+	 * highest first.
+	 */
+	int[] top(int n) {
+		return top(counts, size, n);
+	}
+
+	private static int[] top(final long[] counts, int size, int n) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long ca = counts[a];
+				long cb = counts[b];
+				return ca > cb ? -1 : (ca == cb ? 0 : 1);
+			}
+		});
+		int[] top = new int[Math.min(n, size)];
+		for (int i = 0; i < top.length; i++) {
+			top[i] = order[i];
+		}
+		return top;
+	}
+
+	private void set(int i, Object item, long count, long error) {
+		items[i] = item;
+		counts[i] = count;
+		errors[i] = error;
+		index.put(item, i);
+	}
+
+	private void siftUp(int p) {
+		int i = heap[p];
+		while (p > 0) {
+			int parent = (p - 1) >>> 1;
+			if (counts[heap[parent]] <= counts[i]) {
+				break;
+			}
+			heap[p] = heap[parent];
+			position[heap[p]] = p;
+			p = parent;
+		}
+		heap[p] = i;
+		position[i] = p;
+	}
+
+	private void siftDown(int p) {
+		int i = heap[p];
+		while (true) {
+			int child = 2 * p + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			if (counts[heap[child]] >= counts[i]) {
+				break;
+			}
+			heap[p] = heap[child];
+			position[heap[p]] = p;
+			p = child;
+		}
+		heap[p] = i;
+		position[i] = p;
+	}
+}
@@ -1,88 +1,122 @@
 package com.yahoo.hive.contrib;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector.Category;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
 
 /**
  * picks every nth element from the array.
+ * The result is a view over the input array that keeps its element type,
+ * so only the elements that are picked are ever read.
  * @author harshars
  *
  */
 @Description(name = "nth",
-value = "_FUNC_(x, n) - picks every nth element from an array",
+value = "_FUNC_(x, n[, offset[, limit]]) - picks every nth element from an array, "
++ "starting at offset (default 0) and returning at most limit elements",
 extended = "Example:\n"
-+ "  > SELECT _FUNC_('[1,2,5,3,4]','2') FROM src LIMIT 1;\n"
++ "  > SELECT _FUNC_(array(1,2,5,3,4), 2) FROM src LIMIT 1;\n"
++ "  [1,5,4]\n"
++ "  > SELECT _FUNC_(array(1,2,5,3,4), 2, 1) FROM src LIMIT 1;\n"
 + "  [2,3]\n")
 public class TakeNthUDF extends GenericUDF {
 
-	ObjectInspectorConverters.Converter inputConverter;
-	ObjectInspectorConverters.Converter nthConverter;
+	ListObjectInspector inputOI;
+	ObjectInspectorConverters.Converter[] intConverters;
 
 	@Override
 	public String getDisplayString(String[] children) {
-		assert (children.length == 2);
-		return "take-nth(" + children[0] + ", " + children[1] + ")";
+		StringBuilder sb = new StringBuilder("take-nth(");
+		for (int i = 0; i < children.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(children[i]);
+		}
+		return sb.append(")").toString();
 	}
 
 	@Override
-	public List<Text> evaluate(DeferredObject[] arguments) throws HiveException {
-		assert (arguments.length == 2);
+	public List<Object> evaluate(DeferredObject[] arguments) throws HiveException {
+		assert (arguments.length >= 2 && arguments.length <= 4);
 
 		if (arguments[0].get() == null || arguments[1].get() == null) {
 			return null;
 		}
-		@SuppressWarnings("unchecked")
-		final ArrayList<Text> input = (ArrayList<Text>)inputConverter.convert(arguments[0].get());
-		IntWritable n = (IntWritable)nthConverter.convert(arguments[1].get());
-		final int v = n.get();
-		final int size = (int)Math.round(Math.ceil(input.size() / (v + 0.0)));
-		return new AbstractList<Text>(){
+		final Object input = arguments[0].get();
+		final int v = intArgument(arguments, 1, 1);
+		final int offset = intArgument(arguments, 2, 0);
+		final int limit = intArgument(arguments, 3, -1);
+		if (v <= 0 || offset < 0) {
+			throw new HiveException("nth(x, n, offset, limit) needs n > 0 and offset >= 0, got n = "
+					+ v + ", offset = " + offset);
+		}
+		final int length = inputOI.getListLength(input);
+		// rounded up without overflowing for a large v
+		int available = length > offset ? (length - offset - 1) / v + 1 : 0;
+		final int size = limit >= 0 ? Math.min(limit, available) : available;
+		return new AbstractList<Object>(){
 
 			@Override
-			public Text get(int index) {
-				// TODO Auto-generated method stub
-				return input.get(v*index);
+			public Object get(int index) {
+				return inputOI.getListElement(input, offset + v * index);
 			}
 
 			@Override
 			public int size() {
-				// TODO Auto-generated method stub
 				return size;
 			}
-			
+
 		};
 	}
 
+	private int intArgument(DeferredObject[] arguments, int i, int defaultValue)
+			throws HiveException {
+		if (i >= arguments.length) {
+			return defaultValue;
+		}
+		Object value = arguments[i].get();
+		if (value == null) {
+			return defaultValue;
+		}
+		return ((IntWritable) intConverters[i].convert(value)).get();
+	}
+
 	@Override
 	public ObjectInspector initialize(ObjectInspector[] arguments)
 			throws UDFArgumentException {
-		if (arguments.length != 2) {
+		if (arguments.length < 2 || arguments.length > 4) {
 			throw new UDFArgumentLengthException(
-					"The function nth(s, regexp) takes exactly 2 arguments.");
+					"The function nth(x, n[, offset[, limit]]) takes 2 to 4 arguments.");
+		}
+		if (arguments[0].getCategory() != Category.LIST) {
+			throw new UDFArgumentTypeException(0,
+					"An array is expected but "
+							+ arguments[0].getTypeName()
+							+ " was passed as parameter.");
 		}
-		inputConverter = ObjectInspectorConverters.getConverter(
-				arguments[0],
-				ObjectInspectorFactory
-				.getStandardListObjectInspector(
-						PrimitiveObjectInspectorFactory.writableStringObjectInspector));
-		nthConverter = ObjectInspectorConverters.getConverter(
-				arguments[1],
-				PrimitiveObjectInspectorFactory.writableIntObjectInspector);
-		
+		inputOI = (ListObjectInspector) arguments[0];
+		intConverters = new ObjectInspectorConverters.Converter[arguments.length];
+		for (int i = 1; i < arguments.length; i++) {
+			intConverters[i] = ObjectInspectorConverters.getConverter(
+					arguments[i],
+					PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+		}
+
 		return ObjectInspectorFactory
-				.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+				.getStandardListObjectInspector(inputOI.getListElementObjectInspector());
 	}
 }
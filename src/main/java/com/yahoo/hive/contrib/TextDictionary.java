@@ -0,0 +1,61 @@
+package com.yahoo.hive.contrib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Assigns dense int codes to distinct strings, so that a value repeated
+ * across the many keys of an aggregation buffer is held once. Codes are
+ * never reassigned, so a dictionary must live at least as long as the
+ * buffer that holds its codes, and is dropped with it.
+ *
+ * @author harshars
+ *
+ */
+class TextDictionary {
+
+	private final HashMap<Text, Integer> codes = new HashMap<Text, Integer>();
+	private final ArrayList<Text> texts = new ArrayList<Text>();
+	// decoded lazily, for java string output
+	private final ArrayList<String> strings = new ArrayList<String>();
+
+	/**
+	 * Returns the code of text; text is copied only the first time it is
+	 * seen, so the caller may reuse it.
+	 */
+	int encode(Text text) {
+		Integer code = codes.get(text);
+		if (code == null) {
+			Text copy = new Text(text);
+			code = texts.size();
+			texts.add(copy);
+			codes.put(copy, code);
+		}
+		return code;
+	}
+
+	/**
+	 * The text of code. It is shared and must not be modified.
+	 */
+	Text text(int code) {
+		return texts.get(code);
+	}
+
+	String string(int code) {
+		while (strings.size() <= code) {
+			strings.add(null);
+		}
+		String s = strings.get(code);
+		if (s == null) {
+			s = texts.get(code).toString();
+			strings.set(code, s);
+		}
+		return s;
+	}
+
+	int size() {
+		return texts.size();
+	}
+}
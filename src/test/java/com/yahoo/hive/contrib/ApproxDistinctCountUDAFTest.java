@@ -1,19 +1,27 @@
 package com.yahoo.hive.contrib;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.junit.Test;
 
 import com.yahoo.eta.stats.cus.CountUniqueSketch;
@@ -85,6 +93,317 @@ public class ApproxDistinctCountUDAFTest {
 		assertEquals(cardinality.get(), 3L,0.1);
 	}
 	
+	@Test
+	public void testPartial1FinalReset() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		TypeInfo[] info = {TypeInfoFactory.longTypeInfo};
+		SketchEvaluator evaluator = udaf.getEvaluator(info);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1,
+				new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaLongObjectInspector});
+		SketchEvaluator merger = udaf.getEvaluator(info);
+		merger.init(Mode.FINAL, new ObjectInspector[] {oi});
+		ApproxDistinctCountAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		ApproxDistinctCountAggBuffer merged = merger.getNewAggregationBuffer();
+		for (int task = 0; task < 3; task++) {
+			for (long i = 0; i < 100; i++) {
+				evaluator.iterate(aggBuffer, new Object[] {task * 50 + i});
+			}
+			merger.merge(merged, evaluator.terminatePartial(aggBuffer));
+			evaluator.reset(aggBuffer);
+		}
+		// an empty buffer has no partial
+		assertEquals(null, evaluator.terminatePartial(aggBuffer));
+		merger.merge(merged, null);
+		ArrayList<Object> results = merger.terminate(merged);
+		assertEquals(200L, ((LongWritable) results.get(0)).get(), 0.1);
+		merger.reset(merged);
+		assertEquals(null, merger.terminate(merged));
+	}
+
+	@Test
+	public void testStringHashesUnchanged() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		TypeInfo[] info = {TypeInfoFactory.stringTypeInfo};
+		SketchEvaluator evaluator = udaf.getEvaluator(info);
+		evaluator.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+		ApproxDistinctCountAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		// strings used to be hashed from the array of their BytesWritable
+		CountUniqueSketch before = new CountUniqueSketch();
+		String[] data = {"", "A", "BB", "CCC", "a longer string"};
+		for (String datum : data) {
+			evaluator.iterate(aggBuffer, new Object[] {new Text(datum)});
+			before.update(PrimitiveObjectInspectorUtils.getBinary(
+					datum, PrimitiveObjectInspectorFactory.javaStringObjectInspector).getBytes());
+		}
+		assertEquals(5L, Math.round(sketch(aggBuffer).merge(before).getInverseEstimate()));
+	}
+
+	@Test
+	public void testBatchMatchesIterate() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		SketchEvaluator rows = udaf.getEvaluator(new TypeInfo[] {TypeInfoFactory.intTypeInfo});
+		rows.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaIntObjectInspector});
+		SketchEvaluator batch = udaf.getEvaluator(new TypeInfo[] {TypeInfoFactory.intTypeInfo});
+		batch.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaIntObjectInspector});
+		ApproxDistinctCountAggBuffer rowBuffer = rows.getNewAggregationBuffer();
+		ApproxDistinctCountAggBuffer batchBuffer = batch.getNewAggregationBuffer();
+		long[] vector = new long[100];
+		boolean[] isNull = new boolean[100];
+		for (int i = 0; i < vector.length; i++) {
+			vector[i] = i % 40;
+			isNull[i] = i % 7 == 0;
+			rows.iterate(rowBuffer, new Object[] {isNull[i] ? null : Integer.valueOf(i % 40)});
+		}
+		batch.iterateBatch(batchBuffer, vector, isNull, false, 50);
+		batch.iterateBatch(batchBuffer, new long[0], null, true, 0);
+		System.arraycopy(vector, 50, vector, 0, 50);
+		System.arraycopy(isNull, 50, isNull, 0, 50);
+		batch.iterateBatch(batchBuffer, vector, isNull, false, 50);
+		assertEquals(Math.round(sketch(rowBuffer).getInverseEstimate()),
+				Math.round(sketch(batchBuffer).getInverseEstimate()));
+		// hashed the same way, the sketches cover the same values
+		assertEquals(Math.round(sketch(rowBuffer).getInverseEstimate()),
+				Math.round(sketch(rowBuffer).merge(sketch(batchBuffer)).getInverseEstimate()));
+
+		// strings, as slices of one array
+		rows.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+		batch.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+		rows.reset(rowBuffer);
+		batch.reset(batchBuffer);
+		String[] data = {"A", null, "BB", "", "CCC", "A"};
+		byte[] text = "xABBCCCAx".getBytes("UTF-8");
+		byte[][] strings = new byte[data.length][];
+		int[] start = {1, 0, 2, 4, 4, 7};
+		int[] length = {1, 0, 2, 0, 3, 1};
+		boolean[] nulls = new boolean[data.length];
+		for (int i = 0; i < data.length; i++) {
+			strings[i] = text;
+			nulls[i] = data[i] == null;
+			rows.iterate(rowBuffer, new Object[] {data[i] == null ? null : new Text(data[i])});
+		}
+		batch.iterateBatch(batchBuffer, strings, start, length, nulls, false, data.length);
+		assertEquals(4L, Math.round(sketch(batchBuffer).getInverseEstimate()));
+		assertEquals(4L, Math.round(sketch(rowBuffer).merge(sketch(batchBuffer)).getInverseEstimate()));
+	}
+
+	@Test(expected = HiveException.class)
+	public void testBatchOfWrongType() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		SketchEvaluator evaluator = udaf.getEvaluator(new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+		evaluator.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+		evaluator.iterateBatch(evaluator.getNewAggregationBuffer(), new long[] {1L}, null, true, 1);
+	}
+
+	@Test
+	public void testHllppPartial1Final() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		TypeInfo[] info = {TypeInfoFactory.longTypeInfo, TypeInfoFactory.stringTypeInfo, TypeInfoFactory.intTypeInfo};
+		SketchEvaluator evaluator = udaf.getEvaluator(info);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, hllpp(PrimitiveObjectInspectorFactory.javaLongObjectInspector, 10));
+		SketchEvaluator merger = udaf.getEvaluator(info);
+		ObjectInspector resultOI = merger.init(Mode.FINAL, new ObjectInspector[] {oi});
+		assertTrue(resultOI instanceof StructObjectInspector);
+		ApproxDistinctCountAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		ApproxDistinctCountAggBuffer merged = merger.getNewAggregationBuffer();
+
+		// a small group stays sparse, and its partial small
+		for (long i = 0; i < 5; i++) {
+			evaluator.iterate(aggBuffer, new Object[] {i, "hllpp", 10});
+		}
+		BytesWritable partial = (BytesWritable) evaluator.terminatePartial(aggBuffer);
+		assertTrue(partial.getLength() < 64);
+		merger.merge(merged, partial);
+		assertEquals(5L, ((LongWritable) merger.terminate(merged).get(0)).get());
+
+		// overlapping tasks, past the size at which sketches turn dense
+		merger.reset(merged);
+		for (int task = 0; task < 3; task++) {
+			evaluator.reset(aggBuffer);
+			for (long i = 0; i < 20000; i++) {
+				evaluator.iterate(aggBuffer, new Object[] {task * 10000 + i, "hllpp", 10});
+			}
+			merger.merge(merged, evaluator.terminatePartial(aggBuffer));
+		}
+		ArrayList<Object> results = merger.terminate(merged);
+		assertEquals(40000L, ((LongWritable) results.get(0)).get(), 40000 * 3 * 1.04 / 32);
+		assertTrue(((DoubleWritable) results.get(1)).get() > 0);
+		BytesWritable sketch = (BytesWritable) results.get(2);
+		HyperLogLogPlus hll = SketchBytes.hllpp(sketch.getBytes(), 0, sketch.getLength());
+		assertFalse(hll.isSparse());
+		assertEquals(10, hll.getP());
+	}
+
+	@Test
+	public void testHllppSparseMatchesDense() throws Exception {
+		HyperLogLogPlus sparse = new HyperLogLogPlus(8);
+		HyperLogLogPlus dense = new HyperLogLogPlus(8);
+		for (long i = 0; i < 1000; i++) {
+			dense.update(i);
+		}
+		assertFalse(dense.isSparse());
+		for (long i = 0; i < 50; i++) {
+			sparse.update(i);
+		}
+		assertTrue(sparse.isSparse());
+		assertEquals(50L, sparse.cardinality());
+		// the registers of a converted sparse sketch are those it would
+		// have had if dense all along
+		HyperLogLogPlus converted = new HyperLogLogPlus(8);
+		for (long i = 50; i < 1000; i++) {
+			converted.update(i);
+		}
+		converted.merge(HyperLogLogPlus.fromBytes(sparse.toBytes(), 0, sparse.toBytes().length));
+		assertArrayEquals(dense.toBytes(), converted.toBytes());
+	}
+
+	@Test
+	public void testHllppFlushTurnsDense() throws Exception {
+		// sizes around m/4, where the batch flushed on reading crosses into registers
+		for (int n = 200; n < 400; n++) {
+			HyperLogLogPlus read = new HyperLogLogPlus(10);
+			HyperLogLogPlus written = new HyperLogLogPlus(10);
+			for (long i = 0; i < n; i++) {
+				read.update(i);
+				written.update(i);
+			}
+			assertEquals(n, read.cardinality(), n * 0.1);
+			byte[] bytes = written.toBytes();
+			assertEquals(n, HyperLogLogPlus.fromBytes(bytes, 0, bytes.length).cardinality(), n * 0.1);
+		}
+	}
+
+	@Test
+	public void testHllppStrings() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		TypeInfo[] info = {TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo};
+		SketchEvaluator evaluator = udaf.getEvaluator(info);
+		ObjectInspector[] parameters = {PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+				PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(PrimitiveCategory.STRING,
+						new Text("HLLPP"))};
+		evaluator.init(Mode.COMPLETE, parameters);
+		ApproxDistinctCountAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		String[] data = {"A", "B", "C", "A", "B", "A", null};
+		for (String datum : data) {
+			evaluator.iterate(aggBuffer, new Object[] {datum, "HLLPP"});
+		}
+		assertEquals(3L, ((LongWritable) evaluator.terminate(aggBuffer).get(0)).get());
+	}
+
+	@Test(expected = UDFArgumentTypeException.class)
+	public void testHllppPrecisionOutOfRange() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		TypeInfo[] info = {TypeInfoFactory.longTypeInfo, TypeInfoFactory.stringTypeInfo, TypeInfoFactory.intTypeInfo};
+		udaf.getEvaluator(info).init(Mode.COMPLETE, hllpp(PrimitiveObjectInspectorFactory.javaLongObjectInspector, 30));
+	}
+
+	@Test
+	public void testAdaptiveExactAndSketched() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		TypeInfo[] info = {TypeInfoFactory.longTypeInfo, TypeInfoFactory.stringTypeInfo, TypeInfoFactory.intTypeInfo};
+		SketchEvaluator evaluator = udaf.getEvaluator(info);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1,
+				engine(PrimitiveObjectInspectorFactory.javaLongObjectInspector, "adaptive", 100));
+		SketchEvaluator merger = udaf.getEvaluator(info);
+		merger.init(Mode.FINAL, new ObjectInspector[] {oi});
+		ApproxDistinctCountAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		ApproxDistinctCountAggBuffer merged = merger.getNewAggregationBuffer();
+
+		// small groups stay exact, with no error
+		long[][] tasks = {{0, 60}, {30, 90}};
+		for (long[] task : tasks) {
+			evaluator.reset(aggBuffer);
+			for (long i = task[0]; i < task[1]; i++) {
+				evaluator.iterate(aggBuffer, new Object[] {i, "adaptive", 100});
+				evaluator.iterate(aggBuffer, new Object[] {i, "adaptive", 100});
+			}
+			merger.merge(merged, evaluator.terminatePartial(aggBuffer));
+		}
+		ArrayList<Object> results = merger.terminate(merged);
+		assertEquals(90L, ((LongWritable) results.get(0)).get());
+		assertEquals(0.0, ((DoubleWritable) results.get(1)).get(), 0.0);
+		assertTrue(((AdaptiveSketch) merged.sketch).isExact());
+
+		// past the threshold, exact and sketched partials merge either way
+		evaluator.reset(aggBuffer);
+		for (long i = 0; i < 500; i++) {
+			evaluator.iterate(aggBuffer, new Object[] {i, "adaptive", 100});
+		}
+		BytesWritable partial = (BytesWritable) evaluator.terminatePartial(aggBuffer);
+		assertFalse(AdaptiveSketch.fromBytes(partial.getBytes(), 0, partial.getLength()).isExact());
+		merger.merge(merged, partial);
+		results = merger.terminate(merged);
+		assertEquals(500L, ((LongWritable) results.get(0)).get(), 25);
+		assertFalse(((AdaptiveSketch) merged.sketch).isExact());
+
+		ApproxDistinctCountAggBuffer sketched = merger.getNewAggregationBuffer();
+		merger.merge(sketched, partial);
+		evaluator.reset(aggBuffer);
+		for (long i = 450; i < 520; i++) {
+			evaluator.iterate(aggBuffer, new Object[] {i, "adaptive", 100});
+		}
+		merger.merge(sketched, evaluator.terminatePartial(aggBuffer));
+		assertEquals(520L, ((LongWritable) merger.terminate(sketched).get(0)).get(), 26);
+	}
+
+	@Test(expected = HiveException.class)
+	public void testEnginesDoNotMerge() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		TypeInfo[] info = {TypeInfoFactory.longTypeInfo, TypeInfoFactory.stringTypeInfo};
+		SketchEvaluator merger = udaf.getEvaluator(info);
+		merger.init(Mode.FINAL, new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+		ApproxDistinctCountAggBuffer merged = merger.getNewAggregationBuffer();
+		AdaptiveSketch adaptive = new AdaptiveSketch(10);
+		adaptive.update(1L);
+		HyperLogLogPlus hll = new HyperLogLogPlus(10);
+		hll.update(1L);
+		merger.merge(merged, new BytesWritable(adaptive.toBytes()));
+		merger.merge(merged, new BytesWritable(hll.toBytes()));
+	}
+
+	@Test
+	public void testStoredSketchHeader() throws Exception {
+		ApproxDistinctCountUDAF udaf = new ApproxDistinctCountUDAF();
+		SketchEvaluator evaluator = udaf.getEvaluator(new TypeInfo[] {TypeInfoFactory.longTypeInfo});
+		evaluator.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaLongObjectInspector});
+		ApproxDistinctCountAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		for (long i = 0; i < 50; i++) {
+			evaluator.iterate(aggBuffer, new Object[] {i});
+		}
+		ArrayList<Object> results = evaluator.terminate(aggBuffer);
+		BytesWritable stored = (BytesWritable) results.get(2);
+		assertTrue(SketchBytes.hasHeader(stored.getBytes(), 0, stored.getLength()));
+		assertEquals(SketchBytes.COUNT_UNIQUE, SketchBytes.engine(stored.getBytes(), 0));
+		assertEquals(((LongWritable) results.get(0)).get(), SketchBytes.estimate(stored.getBytes(), 0));
+
+		// stored sketches and headerless ones, as stored before, aggregate together
+		SketchEvaluator merger = udaf.getEvaluator(new TypeInfo[] {TypeInfoFactory.binaryTypeInfo});
+		merger.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+		ApproxDistinctCountAggBuffer merged = merger.getNewAggregationBuffer();
+		CountUniqueSketch old = new CountUniqueSketch();
+		for (long i = 25; i < 75; i++) {
+			old.update(i);
+		}
+		merger.iterate(merged, new Object[] {stored});
+		merger.iterate(merged, new Object[] {new BytesWritable(CountUniqueSketchSerialization.serializeSketch(old))});
+		assertEquals(75L, ((LongWritable) merger.terminate(merged).get(0)).get(), 75 * 0.05);
+	}
+
+	private static ObjectInspector[] hllpp(ObjectInspector valueOI, int p) {
+		return engine(valueOI, "hllpp", p);
+	}
+
+	private static ObjectInspector[] engine(ObjectInspector valueOI, String engine, int size) {
+		return new ObjectInspector[] {valueOI,
+				PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(PrimitiveCategory.STRING,
+						new Text(engine)),
+				PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(PrimitiveCategory.INT,
+						new IntWritable(size))};
+	}
+
+	private static CountUniqueSketch sketch(ApproxDistinctCountAggBuffer aggBuffer) {
+		return (CountUniqueSketch) aggBuffer.sketch;
+	}
+
 	private CountUniqueSketch newSketch(String datum) {
 		CountUniqueSketch sketch = new CountUniqueSketch();
 		sketch.update(datum);
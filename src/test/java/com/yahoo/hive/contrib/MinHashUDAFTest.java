@@ -1,6 +1,10 @@
 package com.yahoo.hive.contrib;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
@@ -10,6 +14,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectIn
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
 import org.junit.Test;
 
 import com.yahoo.hive.contrib.MinHashUDAF.MinHashAggBuffer;
@@ -39,7 +44,55 @@ public class MinHashUDAFTest {
 		byte[] bytes = results.getBytes();
 		byte[] serialized = new byte[results.getLength()];
 		System.arraycopy(bytes, 0, serialized, 0, serialized.length);
-		MinHash h = MinHash.fromBytes(serialized);
+		MinHash h = SketchBytes.minHash(serialized, 0, serialized.length);
 		assertFalse(h.isEmpty());
 	}
+
+	@Test
+	public void testReset() throws Exception {
+		MinHashEvaluator evaluator = new MinHashUDAF().getEvaluator(new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+		evaluator.init(Mode.COMPLETE, new ObjectInspector[] {
+				PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector});
+		MinHashAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		assertNull(evaluator.terminate(aggBuffer));
+		evaluator.iterate(aggBuffer, new Object[] {"A", 16});
+		assertNotNull(evaluator.terminate(aggBuffer));
+
+		// the buffer keeps an empty signature of the same k
+		evaluator.reset(aggBuffer);
+		assertTrue(aggBuffer.signature.isEmpty());
+		assertEquals(16, aggBuffer.signature.getK());
+		assertNull(evaluator.terminate(aggBuffer));
+		evaluator.iterate(aggBuffer, new Object[] {"B", 16});
+		BytesWritable results = evaluator.terminate(aggBuffer);
+		assertFalse(SketchBytes.minHash(results).isEmpty());
+	}
+
+	@Test
+	public void testBatchMatchesIterate() throws Exception {
+		MinHashUDAF udaf = new MinHashUDAF();
+		TypeInfo[] info = {TypeInfoFactory.stringTypeInfo};
+		ObjectInspector[] parameters = {
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector
+		};
+		MinHashEvaluator rows = udaf.getEvaluator(info);
+		rows.init(Mode.COMPLETE, parameters);
+		MinHashEvaluator batch = udaf.getEvaluator(info);
+		batch.init(Mode.COMPLETE, parameters);
+		MinHashAggBuffer rowBuffer = rows.getNewAggregationBuffer();
+		MinHashAggBuffer batchBuffer = batch.getNewAggregationBuffer();
+		String[] data = {"A", "B", "C", "A", "B", "A"};
+		byte[][] vector = new byte[data.length][];
+		int[] start = new int[data.length];
+		int[] length = new int[data.length];
+		for (int i = 0; i < data.length; i++) {
+			rows.iterate(rowBuffer, new Object[] {new Text(data[i]), 32});
+			vector[i] = data[i].getBytes("UTF-8");
+			length[i] = vector[i].length;
+		}
+		batch.iterateBatch(batchBuffer, 32, vector, start, length, null, true, data.length);
+		assertArrayEquals(rows.terminate(rowBuffer).getBytes(), batch.terminate(batchBuffer).getBytes());
+	}
 }
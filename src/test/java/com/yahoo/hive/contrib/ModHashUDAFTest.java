@@ -39,7 +39,7 @@ public class ModHashUDAFTest {
 		byte[] bytes = results.getBytes();
 		byte[] serialized = new byte[results.getLength()];
 		System.arraycopy(bytes, 0, serialized, 0, serialized.length);
-		ModHash h = ModHash.fromBytes(serialized);
+		ModHash h = SketchBytes.modHash(serialized, 0, serialized.length);
 		System.out.println(h);
 	}
 
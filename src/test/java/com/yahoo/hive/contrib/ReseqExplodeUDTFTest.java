@@ -0,0 +1,63 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class ReseqExplodeUDTFTest {
+
+	@Test
+	public void testMatches() throws Exception {
+		ReseqExplodeUDTF udtf = new ReseqExplodeUDTF();
+		StructObjectInspector oi = udtf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector
+		});
+		assertEquals(oi.getAllStructFieldRefs().size(), 1);
+		List<String> rows = collect(udtf);
+		udtf.process(new Object[]{"catid123value456score1catid321value654score2", "\\d+"});
+		assertEquals(rows, Arrays.asList("[123]", "[456]", "[1]", "[321]", "[654]", "[2]"));
+	}
+
+	@Test
+	public void testCaptureGroups() throws Exception {
+		ReseqExplodeUDTF udtf = new ReseqExplodeUDTF();
+		StructObjectInspector oi = udtf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveCategory.STRING, new Text("catid(\\d+)(?:value)(\\d+)(x)?"))
+		});
+		assertEquals(oi.getAllStructFieldRefs().size(), 3);
+		assertEquals(oi.getAllStructFieldRefs().get(1).getFieldName(), "group2");
+		List<String> rows = collect(udtf);
+		udtf.process(new Object[]{"catid123value456score1catid321value654score2", "ignored"});
+		assertEquals(rows, Arrays.asList("[123, 456, null]", "[321, 654, null]"));
+	}
+
+	@Test
+	public void testGroupNames() {
+		assertEquals(ReseqExplodeUDTF.groupNames("(?<id>\\d+)[(]x(\\()(?=y)(?<val>\\w+)", 3),
+				Arrays.asList("id", "group2", "val"));
+	}
+
+	private List<String> collect(ReseqExplodeUDTF udtf) {
+		final List<String> rows = new ArrayList<String>();
+		udtf.setCollector(new Collector() {
+			public void collect(Object input) throws HiveException {
+				rows.add(Arrays.toString((Object[]) input));
+			}
+		});
+		return rows;
+	}
+}
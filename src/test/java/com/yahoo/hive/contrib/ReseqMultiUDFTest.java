@@ -0,0 +1,89 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class ReseqMultiUDFTest {
+
+	@Test
+	public void test() throws Exception {
+		ReseqMultiUDF udf = new ReseqMultiUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			ObjectInspectorFactory.getStandardListObjectInspector(
+					PrimitiveObjectInspectorFactory.javaStringObjectInspector)
+		});
+		Map<Text, List<Text>> results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject("catid123value456score1catid321value654score2"),
+			new DeferredJavaObject(Arrays.asList("catid(\\d+)", "value(\\d+)", "score(\\d+)", "none"))
+		});
+		assertEquals(results.size(), 4);
+		assertEquals(results.get(new Text("value(\\d+)")),
+				Arrays.asList(new Text("value456"), new Text("value654")));
+		assertEquals(results.get(new Text("score(\\d+)")).size(), 2);
+		assertEquals(results.get(new Text("none")).size(), 0);
+	}
+
+	@Test
+	public void testConstantRegexes() throws Exception {
+		ReseqMultiUDF udf = new ReseqMultiUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+			ObjectInspectorFactory.getStandardConstantListObjectInspector(
+					PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+					Arrays.asList(new Text("catid\\d+"), new Text("(\\w)\\1")))
+		});
+		Map<Text, List<Text>> results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject(new Text("catid123 catid45 aa")),
+			new DeferredJavaObject(Arrays.asList())
+		});
+		assertEquals(results.get(new Text("catid\\d+")),
+				Arrays.asList(new Text("catid123"), new Text("catid45")));
+		assertEquals(results.get(new Text("(\\w)\\1")), Arrays.asList(new Text("aa")));
+	}
+
+	@Test
+	public void testNullRegexes() throws Exception {
+		ReseqMultiUDF udf = new ReseqMultiUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			ObjectInspectorFactory.getStandardListObjectInspector(
+					PrimitiveObjectInspectorFactory.javaStringObjectInspector)
+		});
+		DeferredJavaObject[] arguments = {
+			new DeferredJavaObject("catid123 value456"),
+			new DeferredJavaObject(Arrays.asList("catid\\d+", null))
+		};
+		Map<Text, List<Text>> results = udf.evaluate(arguments);
+		assertEquals(1, results.size());
+		assertEquals(Arrays.asList(new Text("catid123")), results.get(new Text("catid\\d+")));
+		// the same regexes are only compiled once
+		ReseqMultiUDF.MultiPattern patterns = udf.lastPatterns;
+		udf.evaluate(arguments);
+		assertSame(patterns, udf.lastPatterns);
+
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+			ObjectInspectorFactory.getStandardConstantListObjectInspector(
+					PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+					Arrays.asList(new Text("catid\\d+"), null))
+		});
+		results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject(new Text("catid123 null")),
+			new DeferredJavaObject(Arrays.asList())
+		});
+		assertEquals(1, results.size());
+		assertEquals(Arrays.asList(new Text("catid123")), results.get(new Text("catid\\d+")));
+	}
+}
@@ -0,0 +1,74 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class ReseqNumericUDFTest {
+
+	@Test
+	public void testLongConstantRegex() throws Exception {
+		ReseqLongUDF udf = new ReseqLongUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveCategory.STRING, new Text("[-\\d]+"))
+		});
+		List<Object> results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject(new Text("catid123value-456score99999999999999999999x-9223372036854775808y1-2")),
+			new DeferredJavaObject(new Text("[-\\d]+"))
+		});
+		assertEquals(results.size(), 5);
+		assertEquals(results.get(0), new LongWritable(123));
+		assertEquals(results.get(1), new LongWritable(-456));
+		assertNull(results.get(2));
+		assertEquals(results.get(3), new LongWritable(Long.MIN_VALUE));
+		assertNull(results.get(4));
+	}
+
+	@Test
+	public void testLongCaptureGroup() throws Exception {
+		ReseqLongUDF udf = new ReseqLongUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector
+		});
+		List<Object> results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject("catid123value456score1catid321value654score2"),
+			new DeferredJavaObject("catid(\\d+)")
+		});
+		assertEquals(results.size(), 2);
+		assertEquals(results.get(1), new LongWritable(321));
+	}
+
+	@Test
+	public void testDouble() throws Exception {
+		ReseqDoubleUDF udf = new ReseqDoubleUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveCategory.STRING, new Text("[-.\\deE]+"))
+		});
+		List<Object> results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject(new Text("lat=37.42,lon=-122.08,x=1e3,y=0.1,z=1.2.3,w=123456789012345678901")),
+			new DeferredJavaObject(new Text("[-.\\deE]+"))
+		});
+		assertEquals(results.size(), 6);
+		assertEquals(results.get(0), new DoubleWritable(37.42));
+		assertEquals(results.get(1), new DoubleWritable(-122.08));
+		assertEquals(results.get(2), new DoubleWritable(1000));
+		assertEquals(results.get(3), new DoubleWritable(0.1));
+		assertNull(results.get(4));
+		assertEquals(results.get(5), new DoubleWritable(123456789012345678901.0));
+	}
+}
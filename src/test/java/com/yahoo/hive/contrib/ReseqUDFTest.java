@@ -1,11 +1,19 @@
 package com.yahoo.hive.contrib;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.Text;
 import org.junit.Test;
@@ -26,4 +34,142 @@ public class ReseqUDFTest {
 		assertEquals(results.size() , 6);
 	}
 
+	@Test
+	public void testConstantRegex() throws Exception {
+		ReseqUDF udf = new ReseqUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveCategory.STRING, new Text("value\\d+"))
+		});
+		List<Text> results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject("catid123value456score1catid321value654score2"),
+			new DeferredJavaObject("value\\d+")
+		});
+		assertEquals(results.size() , 2);
+		assertEquals(results.get(1).toString(), "value654");
+	}
+
+	@Test
+	public void testByteMatcherAgreesWithRegex() throws Exception {
+		String[] regexes = {"\\d+", "\\w+", "\\S+", "[a-c0-9_]+", "[^,;]+", "[\\d.-]+", "\\D+"};
+		String input = "catid123,value-4.56;sc\u00e9re_1 caf\u00e9\u4e2d\u6587 42";
+		for (String regex : regexes) {
+			assertTrue(regex, ByteClassMatcher.compile(regex) != null);
+			ReseqUDF fast = new ReseqUDF();
+			fast.initialize(new ObjectInspector[]{
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+				PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+						PrimitiveCategory.STRING, new Text(regex))
+			});
+			ReseqUDF slow = new ReseqUDF();
+			slow.initialize(new ObjectInspector[]{
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector
+			});
+			DeferredJavaObject[] args = new DeferredJavaObject[]{
+				new DeferredJavaObject(new Text(input)),
+				new DeferredJavaObject(new Text(regex))
+			};
+			assertEquals(regex, slow.evaluate(args), fast.evaluate(args));
+		}
+		assertNull(ByteClassMatcher.compile("catid\\d+"));
+		assertNull(ByteClassMatcher.compile("[\\D]+"));
+		assertNull(ByteClassMatcher.compile("\\d*"));
+	}
+
+	@Test
+	public void testDfaEngineAgreesWithRegex() throws Exception {
+		String[] regexes = {"\\d+", "catid\\d+", "(value|score)[0-9]{1,2}", "[^a-z]+", "c.t", "\\d*",
+				"(?:ab|a)(?<x>bc|c)?", "^catid", "\\d$", "x{2,}", "[\\w&&[^d]]"};
+		String input = "catid123value456score1catid321value654score2 abc acx xxx\u00e9\u00e9 1";
+		for (String regex : regexes) {
+			List<String> expected = new ArrayList<String>();
+			Matcher m = Pattern.compile(regex).matcher(input);
+			while (m.find()) {
+				expected.add(m.group());
+			}
+			LinearPattern linear;
+			try {
+				linear = LinearPattern.compile(regex);
+			} catch (IllegalArgumentException e) {
+				assertEquals(regex, "[\\w&&[^d]]");
+				continue;
+			}
+			List<String> actual = new ArrayList<String>();
+			LinearPattern.Matcher lm = linear.matcher(input);
+			while (lm.find()) {
+				actual.add(input.substring(lm.start(), lm.end()));
+			}
+			assertEquals(regex, expected, actual);
+		}
+	}
+
+	@Test
+	public void testDfaEngineIsLeftmostFirst() throws Exception {
+		String[][] cases = {{"id=.*?;", "id=1;x;id=2;"}, {"a|ab", "abab"}, {"value|valueX", "valueX value"},
+				{"a+?", "aaa"}, {"a{2,3}?", "aaaaa"}, {"(a|ab)(c|bcd)", "abcd"}, {"x*?y", "xxyxy"},
+				{"(?:a|b)??b", "abb"}, {"<.+?>|<.*>", "<a><b>"}, {"(?:b??|a)*", "aba"},
+				{"(?:b?a?|1c)+1", "bb1c1"}, {"(?:[ab]?a?|.c)+\\d", "ab1c1"}, {"(?:a?|b){2,3}c", "bbc"},
+				{"a?$", "babcc\n"}, {"a?$", "ab\r\n"}, {"\\d$", "1\n\n"}, {"b$", "ab\u2028"}};
+		for (String[] c : cases) {
+			List<String> expected = new ArrayList<String>();
+			Matcher m = Pattern.compile(c[0]).matcher(c[1]);
+			while (m.find()) {
+				expected.add(m.group());
+			}
+			List<String> actual = new ArrayList<String>();
+			LinearPattern.Matcher lm = LinearPattern.compile(c[0]).matcher(c[1]);
+			while (lm.find()) {
+				actual.add(c[1].substring(lm.start(), lm.end()));
+			}
+			assertEquals(c[0], expected, actual);
+		}
+	}
+
+	@Test
+	public void testDfaMatchersAreIndependent() throws Exception {
+		LinearPattern pattern = LinearPattern.compile("\\d+");
+		LinearPattern.Matcher first = pattern.matcher("a12b345");
+		LinearPattern.Matcher second = pattern.matcher("9");
+		assertTrue(second.find());
+		assertTrue(first.find());
+		assertEquals(1, first.start());
+		assertTrue(first.find());
+		assertEquals(4, first.start());
+		assertEquals(7, first.end());
+		assertFalse(second.find());
+	}
+
+	@Test(timeout = 10000)
+	public void testDfaEngineIsLinear() throws Exception {
+		ReseqUDF udf = new ReseqUDF();
+		udf.initialize(new ObjectInspector[]{
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+			PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+					PrimitiveCategory.STRING, new Text("dfa"))
+		});
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			line.append('a');
+		}
+		// catastrophic for a backtracking engine
+		List<Text> results = udf.evaluate(new DeferredJavaObject[]{
+			new DeferredJavaObject(line.toString()),
+			new DeferredJavaObject("(a|aa)*b|a{1,3}"),
+			new DeferredJavaObject("dfa")
+		});
+		assertEquals(results.size(), 33334);
+	}
+
+	@Test
+	public void testPatternCache() throws Exception {
+		PatternCache cache = new PatternCache(2);
+		assertSame(cache.get("a+"), cache.get("a+"));
+		cache.get("b+");
+		cache.get("c+");
+		assertEquals(cache.size(), 2);
+	}
+
 }
@@ -0,0 +1,155 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+
+import com.yahoo.hive.contrib.SampleUDAF.SampleAggBuffer;
+import com.yahoo.hive.contrib.SampleUDAF.SampleEvaluator;
+
+public class SampleUDAFTest {
+
+	private static final TypeInfo[] INFO = {TypeInfoFactory.intTypeInfo,
+		TypeInfoFactory.intTypeInfo, TypeInfoFactory.longTypeInfo};
+	private static final ObjectInspector[] PARAMETERS = {
+		PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+		PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+		PrimitiveObjectInspectorFactory.javaLongObjectInspector};
+
+	@Test
+	public void testComplete() throws Exception {
+		SampleEvaluator evaluator = new SampleUDAF().getEvaluator(INFO);
+		evaluator.init(Mode.COMPLETE, PARAMETERS);
+		SampleAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		for (int i = 0; i < 1000; i++) {
+			evaluator.iterate(aggBuffer, new Object[] { i, 10, 42L });
+		}
+		List<Object> result = evaluator.terminate(aggBuffer);
+		assertEquals(10, result.size());
+		assertEquals(10, new HashSet<Object>(result).size());
+		for (Object o : result) {
+			int v = (Integer) o;
+			assertTrue(v >= 0 && v < 1000);
+		}
+
+		// same seed, same input order, same sample
+		evaluator.reset(aggBuffer);
+		for (int i = 0; i < 1000; i++) {
+			evaluator.iterate(aggBuffer, new Object[] { i, 10, 42L });
+		}
+		assertEquals(new HashSet<Object>(result), new HashSet<Object>(evaluator.terminate(aggBuffer)));
+	}
+
+	@Test
+	public void testSmallGroup() throws Exception {
+		SampleEvaluator evaluator = new SampleUDAF().getEvaluator(INFO);
+		evaluator.init(Mode.COMPLETE, PARAMETERS);
+		SampleAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		assertEquals(null, evaluator.terminate(aggBuffer));
+		for (int i = 0; i < 5; i++) {
+			evaluator.iterate(aggBuffer, new Object[] { i, 10, null });
+		}
+		evaluator.iterate(aggBuffer, new Object[] { null, 10, null });
+		List<Object> result = evaluator.terminate(aggBuffer);
+		assertEquals(5, result.size());
+	}
+
+	@Test
+	public void testLargeK() throws Exception {
+		SampleEvaluator evaluator = new SampleUDAF().getEvaluator(INFO);
+		evaluator.init(Mode.COMPLETE, PARAMETERS);
+		SampleAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		for (int i = 0; i < 100; i++) {
+			evaluator.iterate(aggBuffer, new Object[] { i, Integer.MAX_VALUE, null });
+		}
+		assertEquals(100, evaluator.terminate(aggBuffer).size());
+		assertTrue(aggBuffer.values.length < 1000);
+	}
+
+	@Test(expected = UDFArgumentException.class)
+	public void testNonPositiveK() throws Exception {
+		SampleEvaluator evaluator = new SampleUDAF().getEvaluator(INFO);
+		evaluator.init(Mode.COMPLETE, PARAMETERS);
+		evaluator.iterate(evaluator.getNewAggregationBuffer(), new Object[] { 1, 0, null });
+	}
+
+	@Test
+	public void testPartial1Final() throws Exception {
+		SampleEvaluator evaluator = new SampleUDAF().getEvaluator(INFO);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, PARAMETERS);
+		assertTrue(oi instanceof StructObjectInspector);
+
+		SampleAggBuffer left = evaluator.getNewAggregationBuffer();
+		SampleAggBuffer right = evaluator.getNewAggregationBuffer();
+		for (int i = 0; i < 500; i++) {
+			// the same seed in every split
+			evaluator.iterate(left, new Object[] { i, 20, 1L });
+			evaluator.iterate(right, new Object[] { 500 + i, 20, 1L });
+		}
+		Object leftPartial = evaluator.terminatePartial(left);
+		Object rightPartial = evaluator.terminatePartial(right);
+
+		SampleEvaluator merger = new SampleUDAF().getEvaluator(INFO);
+		merger.init(Mode.FINAL, new ObjectInspector[] { oi });
+		SampleAggBuffer merged = merger.getNewAggregationBuffer();
+		merger.merge(merged, leftPartial);
+		merger.merge(merged, null);
+		merger.merge(merged, rightPartial);
+		List<Object> result = merger.terminate(merged);
+		assertEquals(20, result.size());
+		Set<Object> distinct = new HashSet<Object>();
+		for (Object o : result) {
+			int v = (Integer) o;
+			assertTrue(v >= 0 && v < 1000);
+			distinct.add(v);
+		}
+		assertEquals(20, distinct.size());
+
+		// the splits do not sample the same positions
+		int pairs = 0;
+		for (Object o : result) {
+			if (distinct.contains((Integer) o + 500)) {
+				pairs++;
+			}
+		}
+		assertTrue(pairs < 5);
+	}
+
+	@Test
+	public void testTiesDoNotDependOnMergeOrder() throws Exception {
+		SampleEvaluator evaluator = new SampleUDAF().getEvaluator(INFO);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, PARAMETERS);
+		SampleEvaluator merger = new SampleUDAF().getEvaluator(INFO);
+		merger.init(Mode.FINAL, new ObjectInspector[] { oi });
+		Object a = partial(7);
+		Object b = partial(8);
+		SampleAggBuffer ab = merger.getNewAggregationBuffer();
+		merger.merge(ab, a);
+		merger.merge(ab, b);
+		SampleAggBuffer ba = merger.getNewAggregationBuffer();
+		merger.merge(ba, b);
+		merger.merge(ba, a);
+		assertEquals(merger.terminate(ab), merger.terminate(ba));
+	}
+
+	// a partial sample of k = 1 holding value at priority 0.5
+	private static Object partial(int value) {
+		return Arrays.asList(new IntWritable(1), Arrays.asList(new DoubleWritable(0.5)),
+				Arrays.asList((Object) value));
+	}
+}
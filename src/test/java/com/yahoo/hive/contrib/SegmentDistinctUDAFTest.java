@@ -0,0 +1,107 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import com.yahoo.hive.contrib.ApproxDistinctCountUDAF.ApproxDistinctCountAggBuffer;
+import com.yahoo.hive.contrib.ApproxDistinctCountUDAF.SketchEvaluator;
+import com.yahoo.hive.contrib.SegmentDistinctUDAF.SegmentDistinctAggBuffer;
+import com.yahoo.hive.contrib.SegmentDistinctUDAF.SegmentDistinctEvaluator;
+
+public class SegmentDistinctUDAFTest {
+
+	private static final TypeInfo[] INFO = {TypeInfoFactory.stringTypeInfo,
+		TypeInfoFactory.longTypeInfo};
+	private static final ObjectInspector[] PARAMETERS = {
+		PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+		PrimitiveObjectInspectorFactory.javaLongObjectInspector};
+
+	private static long cardinality(Map<?, ?> result, String key) {
+		return ((LongWritable) ((List<?>) result.get(key)).get(0)).get();
+	}
+
+	@Test
+	public void testComplete() throws Exception {
+		SegmentDistinctEvaluator evaluator = new SegmentDistinctUDAF().getEvaluator(INFO);
+		evaluator.init(Mode.COMPLETE, PARAMETERS);
+		SegmentDistinctAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		for (int i = 0; i < 3000; i++) {
+			// key ki sees the values 0 .. 100 * (i + 1) - 1, each several times
+			String key = "k" + (i % 3);
+			evaluator.iterate(aggBuffer, new Object[] {key, (long) (i / 3) % (100 * (i % 3 + 1))});
+		}
+		evaluator.iterate(aggBuffer, new Object[] {"k0", null});
+		evaluator.iterate(aggBuffer, new Object[] {null, 1L});
+		Map<?, ?> result = (Map<?, ?>) evaluator.terminate(aggBuffer);
+		assertEquals(3, result.size());
+		assertEquals(100, cardinality(result, "k0"));
+		assertEquals(200, cardinality(result, "k1"));
+		assertEquals(300, cardinality(result, "k2"));
+	}
+
+	@Test
+	public void testMergesWithApproxDistinct() throws Exception {
+		SegmentDistinctEvaluator evaluator = new SegmentDistinctUDAF().getEvaluator(
+				new TypeInfo[] {TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo});
+		evaluator.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+				PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+		SegmentDistinctAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		SketchEvaluator approx = new ApproxDistinctCountUDAF().getEvaluator(
+				new TypeInfo[] {TypeInfoFactory.stringTypeInfo});
+		approx.init(Mode.COMPLETE, new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+		ApproxDistinctCountAggBuffer approxBuffer = approx.getNewAggregationBuffer();
+		for (int i = 0; i < 100; i++) {
+			evaluator.iterate(aggBuffer, new Object[] {"a", "value" + i});
+			approx.iterate(approxBuffer, new Object[] {"value" + i});
+		}
+		Map<?, ?> result = (Map<?, ?>) evaluator.terminate(aggBuffer);
+
+		// the same strings are the same hashes in both sketches
+		SketchUnionUDF union = new SketchUnionUDF();
+		ObjectInspector binary = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+		union.initialize(new ObjectInspector[] {binary, binary});
+		BytesWritable both = union.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(((List<?>) result.get("a")).get(2)),
+				new DeferredJavaObject(approx.terminate(approxBuffer).get(2))});
+		assertEquals(100, Math.round(SketchBytes.countUnique(both).getInverseEstimate()));
+	}
+
+	@Test
+	public void testPartial1Final() throws Exception {
+		SegmentDistinctEvaluator evaluator = new SegmentDistinctUDAF().getEvaluator(INFO);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, PARAMETERS);
+		assertTrue(oi instanceof MapObjectInspector);
+		SegmentDistinctAggBuffer left = evaluator.getNewAggregationBuffer();
+		SegmentDistinctAggBuffer right = evaluator.getNewAggregationBuffer();
+		for (long i = 0; i < 1000; i++) {
+			evaluator.iterate(left, new Object[] {"a", i});
+			evaluator.iterate(right, new Object[] {"a", i + 500});
+			evaluator.iterate(right, new Object[] {"b", i % 10});
+		}
+
+		SegmentDistinctEvaluator merger = new SegmentDistinctUDAF().getEvaluator(INFO);
+		merger.init(Mode.FINAL, new ObjectInspector[] {oi});
+		SegmentDistinctAggBuffer merged = merger.getNewAggregationBuffer();
+		merger.merge(merged, evaluator.terminatePartial(left));
+		merger.merge(merged, null);
+		merger.merge(merged, evaluator.terminatePartial(right));
+		Map<?, ?> result = (Map<?, ?>) merger.terminate(merged);
+		assertEquals(2, result.size());
+		assertEquals(1500, cardinality(result, "a"));
+		assertEquals(10, cardinality(result, "b"));
+	}
+}
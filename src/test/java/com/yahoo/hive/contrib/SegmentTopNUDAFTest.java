@@ -0,0 +1,131 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import com.yahoo.hive.contrib.SegmentTopNUDAF.SegmentTopNAggBuffer;
+import com.yahoo.hive.contrib.SegmentTopNUDAF.SegmentTopNEvaluator;
+
+public class SegmentTopNUDAFTest {
+
+	private static final TypeInfo[] INFO = {TypeInfoFactory.stringTypeInfo,
+		TypeInfoFactory.intTypeInfo, TypeInfoFactory.intTypeInfo, TypeInfoFactory.intTypeInfo};
+	private static final ObjectInspector[] PARAMETERS = {
+		PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+		PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+		PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+		PrimitiveObjectInspectorFactory.javaIntObjectInspector};
+
+	// skewed values: value v has weight 1 / (v + 1)
+	private static int skewed(Random random) {
+		return (int) Math.floor(Math.exp(random.nextDouble() * Math.log(1000))) - 1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void assertBounds(Map<Object, Object> result, Map<String, Map<Integer, Long>> exact, int n) {
+		assertEquals(exact.size(), result.size());
+		for (Map.Entry<String, Map<Integer, Long>> e : exact.entrySet()) {
+			List<Object> summary = (List<Object>) result.get(e.getKey());
+			List<Object> items = (List<Object>) summary.get(0);
+			List<LongWritable> counts = (List<LongWritable>) summary.get(1);
+			List<LongWritable> errors = (List<LongWritable>) summary.get(2);
+			assertEquals(n, items.size());
+			for (int i = 0; i < items.size(); i++) {
+				Long frequency = e.getValue().get(items.get(i));
+				long f = frequency == null ? 0 : frequency;
+				assertTrue(counts.get(i).get() >= f);
+				assertTrue(counts.get(i).get() - errors.get(i).get() <= f);
+				if (i > 0) {
+					assertTrue(counts.get(i - 1).get() >= counts.get(i).get());
+				}
+			}
+			// the most frequent value is found
+			assertEquals(0, items.get(0));
+		}
+	}
+
+	@Test
+	public void testPartial1Final() throws Exception {
+		Random random = new Random(3);
+		SegmentTopNEvaluator evaluator = new SegmentTopNUDAF().getEvaluator(INFO);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, PARAMETERS);
+		assertTrue(oi instanceof StructObjectInspector);
+		SegmentTopNEvaluator merger = new SegmentTopNUDAF().getEvaluator(INFO);
+		merger.init(Mode.FINAL, new ObjectInspector[] {oi});
+		SegmentTopNAggBuffer merged = merger.getNewAggregationBuffer();
+
+		Map<String, Map<Integer, Long>> exact = new HashMap<String, Map<Integer, Long>>();
+		for (int task = 0; task < 4; task++) {
+			SegmentTopNAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+			for (int i = 0; i < 20000; i++) {
+				String key = "k" + (i % 5);
+				int value = skewed(random);
+				evaluator.iterate(aggBuffer, new Object[] {key, value, 5, 50});
+				Map<Integer, Long> counts = exact.get(key);
+				if (counts == null) {
+					counts = new HashMap<Integer, Long>();
+					exact.put(key, counts);
+				}
+				Long c = counts.get(value);
+				counts.put(value, c == null ? 1 : c + 1);
+			}
+			for (SpaceSaving summary : aggBuffer.summaries.values()) {
+				assertEquals(50, summary.size());
+			}
+			merger.merge(merged, evaluator.terminatePartial(aggBuffer));
+			merger.merge(merged, null);
+		}
+		assertBounds(merger.terminate(merged), exact, 5);
+	}
+
+	@Test
+	public void testSummaryGrowsToCapacity() throws Exception {
+		// the counters grow from a few to capacity, then evict
+		SpaceSaving summary = new SpaceSaving(20);
+		for (int v = 1; v <= 30; v++) {
+			summary.insert(v, v);
+			assertEquals(Math.min(v, 20), summary.size());
+		}
+		int top = summary.top(1)[0];
+		assertEquals(30, summary.item(top));
+		assertEquals(30L, summary.count(top) - summary.error(top));
+		assertTrue(summary.floor() > 0);
+		for (int v = 1; v <= 30; v++) {
+			int i = summary.indexOf(v);
+			assertTrue(i < 0 || summary.count(i) >= v);
+		}
+	}
+
+	@Test
+	public void testExactBelowCapacity() throws Exception {
+		SegmentTopNEvaluator evaluator = new SegmentTopNUDAF().getEvaluator(INFO);
+		evaluator.init(Mode.COMPLETE, PARAMETERS);
+		SegmentTopNAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		assertEquals(0, evaluator.terminate(aggBuffer).size());
+		int[] values = {1, 2, 2, 3, 3, 3};
+		for (int v : values) {
+			evaluator.iterate(aggBuffer, new Object[] {"k", v, 2, null});
+		}
+		evaluator.iterate(aggBuffer, new Object[] {"k", null, 2, null});
+		List<Object> summary = (List<Object>) evaluator.terminate(aggBuffer).get("k");
+		assertEquals(2, ((List<?>) summary.get(0)).size());
+		assertEquals(3, ((List<?>) summary.get(0)).get(0));
+		assertEquals(new LongWritable(3), ((List<?>) summary.get(1)).get(0));
+		assertEquals(new LongWritable(0), ((List<?>) summary.get(2)).get(0));
+		assertEquals(2, ((List<?>) summary.get(0)).get(1));
+	}
+}
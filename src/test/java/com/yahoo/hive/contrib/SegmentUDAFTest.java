@@ -1,19 +1,39 @@
 package com.yahoo.hive.contrib;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
 import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.junit.Test;
 
+import com.yahoo.hive.contrib.SegmentUDAF.LongKeyAggBuffer;
 import com.yahoo.hive.contrib.SegmentUDAF.SegmentAggBuffer;
 import com.yahoo.hive.contrib.SegmentUDAF.SegmentEvaluator;
 
@@ -73,4 +93,258 @@ public class SegmentUDAFTest {
 		
 	}
 
+	@Test
+	public void testLongKeysAndValues() throws Exception{
+		SegmentUDAF udaf = new SegmentUDAF();
+		TypeInfo[] info = {TypeInfoFactory.longTypeInfo, TypeInfoFactory.intTypeInfo};
+		SegmentEvaluator evaluator = udaf.getEvaluator(info);
+		ObjectInspector[] parameters = {PrimitiveObjectInspectorFactory.writableLongObjectInspector, PrimitiveObjectInspectorFactory.javaIntObjectInspector};
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, parameters);
+		SegmentAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		assertTrue(aggBuffer instanceof LongKeyAggBuffer);
+		for (long key = 0; key < 100; key++) {
+			for (int i = 0; i < 10; i++) {
+				evaluator.iterate(aggBuffer, new Object[] { new LongWritable(key), i % 3 });
+			}
+			evaluator.iterate(aggBuffer, new Object[] { new LongWritable(key), null });
+		}
+		Object partial = evaluator.terminatePartial(aggBuffer);
+
+		SegmentEvaluator merger = udaf.getEvaluator(info);
+		merger.init(Mode.FINAL, new ObjectInspector[]{oi});
+		SegmentAggBuffer merged = merger.getNewAggregationBuffer();
+		merger.merge(merged, partial);
+		merger.merge(merged, partial);
+		Map<Object, Map<Object, Object>> result = (Map<Object, Map<Object, Object>>) merger.terminate(merged);
+		assertEquals(100, result.size());
+		Map<Object, Object> multiset = result.get(new LongWritable(42));
+		assertEquals(4, multiset.size());
+		assertEquals(new IntWritable(8), multiset.get(0));
+		assertEquals(new IntWritable(6), multiset.get(1));
+		assertEquals(new IntWritable(6), multiset.get(2));
+		assertEquals(new IntWritable(2), multiset.get(null));
+
+		merger.reset(merged);
+		assertEquals(0, ((Map<?, ?>) merger.terminate(merged)).size());
+	}
+
+	@Test
+	public void testStringValues() throws Exception{
+		SegmentUDAF udaf = new SegmentUDAF();
+		TypeInfo[] info = {TypeInfoFactory.intTypeInfo, TypeInfoFactory.stringTypeInfo};
+		SegmentEvaluator evaluator = udaf.getEvaluator(info);
+		ObjectInspector[] parameters = {PrimitiveObjectInspectorFactory.javaIntObjectInspector, PrimitiveObjectInspectorFactory.writableStringObjectInspector};
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, parameters);
+		SegmentAggBuffer aggBuffer = evaluator.getNewAggregationBuffer();
+		String [] values = {"chrome","firefox","","chrome"};
+		Text text = new Text();
+		for (int key = 0; key < 50; key++) {
+			for (String value : values) {
+				// the input text is reused, as a serde would
+				text.set(value);
+				evaluator.iterate(aggBuffer, new Object[] { key, text });
+			}
+			evaluator.iterate(aggBuffer, new Object[] { key, null });
+		}
+		Object partial = evaluator.terminatePartial(aggBuffer);
+
+		SegmentEvaluator merger = udaf.getEvaluator(info);
+		merger.init(Mode.FINAL, new ObjectInspector[]{oi});
+		SegmentAggBuffer merged = merger.getNewAggregationBuffer();
+		merger.merge(merged, partial);
+		Map<Integer, Map<Object, Object>> result = (Map<Integer, Map<Object, Object>>) merger.terminate(merged);
+		assertEquals(50, result.size());
+		Map<Object, Object> multiset = result.get(7);
+		assertEquals(4, multiset.size());
+		assertEquals(new IntWritable(2), multiset.get(new Text("chrome")));
+		assertEquals(new IntWritable(1), multiset.get(new Text("firefox")));
+		assertEquals(new IntWritable(1), multiset.get(new Text("")));
+		assertEquals(new IntWritable(1), multiset.get(null));
+
+		// the dictionary goes with the contents of the buffer, while the
+		// emitted map still decodes from the old one
+		assertEquals(3, merged.dictionary.size());
+		merger.reset(merged);
+		assertEquals(0, merged.dictionary.size());
+		merger.iterate(merged, new Object[] { 1, new Text("safari") });
+		assertEquals(1, merged.dictionary.size());
+		assertEquals(new IntWritable(2), result.get(7).get(new Text("chrome")));
+	}
+
+	private static ObjectInspector options(String options) {
+		return PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+				PrimitiveCategory.STRING, new Text(options));
+	}
+
+	private static SegmentEvaluator evaluator(TypeInfo[] info) throws Exception {
+		return new SegmentUDAF().getEvaluator(info);
+	}
+
+	private static Object aggregate(TypeInfo[] info, ObjectInspector[] parameters, Object[][] rows) throws Exception {
+		return aggregate(info, parameters, rows, new Configuration(false));
+	}
+
+	/**
+	 * Aggregates rows over two buffers and merges them, with conf as the
+	 * query's conf.
+	 */
+	private static Object aggregate(TypeInfo[] info, ObjectInspector[] parameters, Object[][] rows,
+			Configuration conf) throws Exception {
+		SegmentUDAF udaf = new SegmentUDAF();
+		SegmentEvaluator evaluator = udaf.getEvaluator(info);
+		evaluator.readConf(conf);
+		ObjectInspector oi = evaluator.init(Mode.PARTIAL1, parameters);
+		SegmentAggBuffer left = evaluator.getNewAggregationBuffer();
+		SegmentAggBuffer right = evaluator.getNewAggregationBuffer();
+		for (int i = 0; i < rows.length; i++) {
+			evaluator.iterate(i % 2 == 0 ? left : right, rows[i]);
+		}
+		SegmentEvaluator merger = udaf.getEvaluator(info);
+		merger.readConf(conf);
+		merger.init(Mode.FINAL, new ObjectInspector[]{oi});
+		SegmentAggBuffer merged = merger.getNewAggregationBuffer();
+		merger.merge(merged, evaluator.terminatePartial(left));
+		merger.merge(merged, evaluator.terminatePartial(right));
+		Object result = merger.terminate(merged);
+		evaluator.reset(left);
+		evaluator.reset(right);
+		merger.reset(merged);
+		return result;
+	}
+
+	@Test
+	public void testSpillMatchesInMemory() throws Exception{
+		Random random = new Random(7);
+		Object[][] longRows = new Object[5000][];
+		Object[][] stringRows = new Object[5000][];
+		for (int i = 0; i < longRows.length; i++) {
+			long key = random.nextInt(300) - 150;
+			Integer value = random.nextInt(10) == 0 ? null : random.nextInt(40) - 20;
+			longRows[i] = new Object[] { key, value };
+			stringRows[i] = new Object[] { "k" + key, value == null ? null : "v" + value };
+		}
+
+		TypeInfo[] longInfo = {TypeInfoFactory.longTypeInfo, TypeInfoFactory.intTypeInfo, TypeInfoFactory.stringTypeInfo};
+		ObjectInspector[] longParameters = {PrimitiveObjectInspectorFactory.javaLongObjectInspector, PrimitiveObjectInspectorFactory.javaIntObjectInspector, null};
+		longParameters[2] = options("");
+		Object expected = aggregate(longInfo, longParameters, longRows);
+		longParameters[2] = options("budget=100");
+		Configuration conf = new Configuration(false);
+		conf.setLong(SegmentUDAF.BUDGET_PROPERTY, 200);
+		assertEquals(expected, aggregate(longInfo, longParameters, longRows, conf));
+
+		TypeInfo[] stringInfo = {TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo};
+		ObjectInspector[] stringParameters = {PrimitiveObjectInspectorFactory.javaStringObjectInspector, PrimitiveObjectInspectorFactory.javaStringObjectInspector, options("budget=100")};
+		Object spilled = aggregate(stringInfo, stringParameters, stringRows, conf);
+		stringParameters[2] = options("budget=0");
+		assertEquals(aggregate(stringInfo, stringParameters, stringRows), spilled);
+	}
+
+	@Test
+	public void testConfTravelsWithPlan() throws Exception{
+		Configuration conf = new Configuration(false);
+		conf.setLong(SegmentUDAF.BUDGET_PROPERTY, 200);
+		SegmentEvaluator evaluator = evaluator(new TypeInfo[] {TypeInfoFactory.longTypeInfo, TypeInfoFactory.intTypeInfo});
+		evaluator.readConf(conf);
+
+		// the plan is serialized with XMLEncoder
+		ByteArrayOutputStream plan = new ByteArrayOutputStream();
+		XMLEncoder encoder = new XMLEncoder(plan);
+		encoder.writeObject(evaluator);
+		encoder.close();
+		XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(plan.toByteArray()));
+		SegmentEvaluator task = (SegmentEvaluator) decoder.readObject();
+		decoder.close();
+		assertEquals(200, task.getDefaultBudget());
+	}
+
+	@Test
+	public void testBinaryPartialsMatchMaps() throws Exception{
+		Random random = new Random(11);
+		Object[][] longRows = new Object[3000][];
+		Object[][] stringRows = new Object[3000][];
+		for (int i = 0; i < longRows.length; i++) {
+			int key = random.nextInt(200) - 100;
+			Long value = random.nextInt(10) == 0 ? null : (long) random.nextInt(1000) * 1000000007L;
+			longRows[i] = new Object[] { key, value };
+			stringRows[i] = new Object[] { new Text("k" + key), value == null ? null : new Text("v" + (value % 37)) };
+		}
+
+		TypeInfo[] longInfo = {TypeInfoFactory.intTypeInfo, TypeInfoFactory.longTypeInfo, TypeInfoFactory.stringTypeInfo};
+		ObjectInspector[] longParameters = {PrimitiveObjectInspectorFactory.javaIntObjectInspector, PrimitiveObjectInspectorFactory.javaLongObjectInspector, options("")};
+		Object expected = aggregate(longInfo, longParameters, longRows);
+		longParameters[2] = options("binary");
+		assertTrue(evaluator(longInfo).init(Mode.PARTIAL1, longParameters) instanceof StructObjectInspector);
+		assertEquals(expected, aggregate(longInfo, longParameters, longRows));
+		longParameters[2] = options("binary, budget=50");
+		assertEquals(expected, aggregate(longInfo, longParameters, longRows));
+
+		TypeInfo[] stringInfo = {TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo};
+		ObjectInspector[] stringParameters = {PrimitiveObjectInspectorFactory.writableStringObjectInspector, PrimitiveObjectInspectorFactory.writableStringObjectInspector, options("")};
+		expected = aggregate(stringInfo, stringParameters, stringRows);
+		stringParameters[2] = options("binary");
+		assertEquals(expected, aggregate(stringInfo, stringParameters, stringRows));
+		stringParameters[2] = options("budget=50,binary");
+		assertEquals(expected, aggregate(stringInfo, stringParameters, stringRows));
+	}
+
+	@Test
+	public void testSpillDropsStringValues() throws Exception{
+		TypeInfo[] info = {TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo, TypeInfoFactory.stringTypeInfo};
+		ObjectInspector[] parameters = {PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector, options("")};
+		Object[][] rows = new Object[20000][];
+		for (int i = 0; i < rows.length; i++) {
+			// every value but the repeated ones is distinct
+			rows[i] = new Object[] { new Text("k" + i % 40), new Text("v" + (i % 7 == 0 ? i % 3 : i)) };
+		}
+		Object expected = aggregate(info, parameters, rows);
+
+		parameters[2] = options("budget=300,binary");
+		SegmentEvaluator evaluator = evaluator(info);
+		evaluator.init(Mode.PARTIAL1, parameters);
+		SegmentAggBuffer buffer = evaluator.getNewAggregationBuffer();
+		int largest = 0;
+		for (Object[] row : rows) {
+			evaluator.iterate(buffer, row);
+			largest = Math.max(largest, buffer.dictionary.size());
+		}
+		assertTrue(largest <= 300);
+		List<File> runs = new ArrayList<File>(buffer.runs);
+		assertTrue(runs.size() > 10);
+		evaluator.terminatePartial(buffer);
+		assertNull(buffer.runs);
+		for (File run : runs) {
+			assertFalse(run.exists());
+		}
+		assertEquals(expected, aggregate(info, parameters, rows));
+		parameters[2] = options("budget=300");
+		assertEquals(expected, aggregate(info, parameters, rows));
+	}
+
+	@Test
+	public void testReservedCount() throws Exception{
+		for (int n : new int[] {0, 1, 127, 128, 70000, Integer.MAX_VALUE}) {
+			DataOutputBuffer out = new DataOutputBuffer();
+			out.write(7);
+			int offset = SegmentRun.reserveCount(out);
+			WritableUtils.writeVInt(out, 42);
+			SegmentRun.setCount(out, offset, n);
+			DataInputBuffer in = new DataInputBuffer();
+			in.reset(out.getData(), 0, out.getLength());
+			assertEquals(7, in.read());
+			assertEquals(n, WritableUtils.readVInt(in));
+			assertEquals(42, WritableUtils.readVInt(in));
+		}
+	}
+
+	@Test(expected = UDFArgumentException.class)
+	public void testUnknownOption() throws Exception{
+		SegmentUDAF udaf = new SegmentUDAF();
+		TypeInfo[] info = {TypeInfoFactory.longTypeInfo, TypeInfoFactory.intTypeInfo, TypeInfoFactory.stringTypeInfo};
+		SegmentEvaluator evaluator = udaf.getEvaluator(info);
+		evaluator.init(Mode.PARTIAL1, new ObjectInspector[] {PrimitiveObjectInspectorFactory.javaLongObjectInspector,
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector, options("budget=10,fast")});
+	}
+
 }
@@ -0,0 +1,84 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.junit.Test;
+
+import com.yahoo.eta.stats.cus.CountUniqueSketch;
+import com.yahoo.eta.stats.cus.CountUniqueSketchSerialization;
+
+public class SketchEstimateUDFTest {
+
+	@Test
+	public void test() throws Exception {
+		SketchEstimateUDF udf = new SketchEstimateUDF();
+		udf.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+
+		CountUniqueSketch cus = new CountUniqueSketch();
+		HyperLogLogPlus hll = new HyperLogLogPlus(12);
+		AdaptiveSketch adaptive = new AdaptiveSketch(100);
+		for (long i = 0; i < 40; i++) {
+			cus.update(i);
+			hll.update(i);
+			adaptive.update(i);
+		}
+		byte[][] sketches = {CountUniqueSketchSerialization.serializeSketch(cus), hll.toBytes(), adaptive.toBytes()};
+		for (byte[] sketch : sketches) {
+			assertEquals(40L, udf.evaluate(new DeferredJavaObject[] {
+					new DeferredJavaObject(new BytesWritable(sketch))}).get());
+		}
+		assertNull(udf.evaluate(new DeferredJavaObject[] {new DeferredJavaObject(null)}));
+	}
+
+	@Test
+	public void testHeader() throws Exception {
+		SketchEstimateUDF udf = new SketchEstimateUDF();
+		udf.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+		CountUniqueSketch cus = new CountUniqueSketch();
+		cus.update(1L);
+		// the estimate is read from the header, not from the sketch
+		byte[] stored = SketchBytes.envelope(SketchBytes.COUNT_UNIQUE, 0, 1234,
+				CountUniqueSketchSerialization.serializeSketch(cus));
+		assertEquals(1234L, udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(new BytesWritable(stored))}).get());
+
+		HyperLogLogPlus hll = new HyperLogLogPlus(12);
+		for (long i = 0; i < 40; i++) {
+			hll.update(i);
+		}
+		stored = DistinctCounter.HLLPP.store(hll);
+		assertEquals(12, SketchBytes.parameter(stored, 0));
+		assertEquals(40L, udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(new BytesWritable(stored))}).get());
+	}
+
+	@Test(expected = HiveException.class)
+	public void testSignature() throws Exception {
+		SketchEstimateUDF udf = new SketchEstimateUDF();
+		udf.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+		byte[] stored = SketchBytes.envelope(SketchBytes.MIN_HASH, 32, -1, new byte[8]);
+		udf.evaluate(new DeferredJavaObject[] {new DeferredJavaObject(new BytesWritable(stored))});
+	}
+
+	@Test(expected = HiveException.class)
+	public void testNewerVersion() throws Exception {
+		SketchEstimateUDF udf = new SketchEstimateUDF();
+		udf.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableBinaryObjectInspector});
+		byte[] stored = DistinctCounter.COUNT_UNIQUE.store(new CountUniqueSketch());
+		stored[3] = SketchBytes.VERSION + 1;
+		udf.evaluate(new DeferredJavaObject[] {new DeferredJavaObject(new BytesWritable(stored))});
+	}
+
+	@Test(expected = UDFArgumentTypeException.class)
+	public void testNotBinary() throws Exception {
+		new SketchEstimateUDF().initialize(new ObjectInspector[] {
+				PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+	}
+}
@@ -0,0 +1,71 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.junit.Test;
+
+import com.yahoo.eta.stats.cus.CountUniqueSketch;
+import com.yahoo.eta.stats.cus.CountUniqueSketchSerialization;
+
+public class SketchIntersectUDFTest {
+
+	private static final ObjectInspector BINARY = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+
+	@Test
+	public void test() throws Exception {
+		SketchIntersectUDF udf = new SketchIntersectUDF();
+		udf.initialize(new ObjectInspector[] {BINARY, BINARY, BINARY});
+		// [0, 100), [50, 150) and [80, 200) share [80, 100)
+		long[][] ranges = {{0, 100}, {50, 150}, {80, 200}};
+		DeferredJavaObject[] hlls = new DeferredJavaObject[3];
+		DeferredJavaObject[] cuses = new DeferredJavaObject[3];
+		for (int i = 0; i < 3; i++) {
+			HyperLogLogPlus hll = new HyperLogLogPlus(14);
+			CountUniqueSketch cus = new CountUniqueSketch();
+			for (long v = ranges[i][0]; v < ranges[i][1]; v++) {
+				hll.update(v);
+				cus.update(v);
+			}
+			hlls[i] = new DeferredJavaObject(new BytesWritable(hll.toBytes()));
+			cuses[i] = new DeferredJavaObject(new BytesWritable(CountUniqueSketchSerialization.serializeSketch(cus)));
+		}
+		assertEquals(20L, udf.evaluate(hlls).get());
+		assertEquals(20L, udf.evaluate(cuses).get());
+		hlls[1] = new DeferredJavaObject(null);
+		assertNull(udf.evaluate(hlls));
+	}
+
+	@Test
+	public void testUnionsKeepTheirSketches() throws Exception {
+		SketchIntersectUDF udf = new SketchIntersectUDF();
+		udf.initialize(new ObjectInspector[] {BINARY, BINARY, BINARY, BINARY});
+		// the exact adaptive sketches and the sparse hllpp sketches are
+		// merged in place, and all four share [90, 100)
+		long[][] ranges = {{0, 100}, {50, 150}, {80, 200}, {90, 300}};
+		DeferredJavaObject[] adaptives = new DeferredJavaObject[4];
+		DeferredJavaObject[] hlls = new DeferredJavaObject[4];
+		for (int i = 0; i < 4; i++) {
+			AdaptiveSketch adaptive = new AdaptiveSketch(1000);
+			HyperLogLogPlus hll = new HyperLogLogPlus(14);
+			for (long v = ranges[i][0]; v < ranges[i][1]; v++) {
+				adaptive.update(v);
+				hll.update(v);
+			}
+			adaptives[i] = new DeferredJavaObject(new BytesWritable(adaptive.toBytes()));
+			hlls[i] = new DeferredJavaObject(new BytesWritable(hll.toBytes()));
+		}
+		assertEquals(10L, udf.evaluate(adaptives).get());
+		assertEquals(10L, udf.evaluate(hlls).get());
+	}
+
+	@Test(expected = UDFArgumentLengthException.class)
+	public void testOneSketch() throws Exception {
+		new SketchIntersectUDF().initialize(new ObjectInspector[] {BINARY});
+	}
+}
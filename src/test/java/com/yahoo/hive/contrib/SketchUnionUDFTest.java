@@ -0,0 +1,48 @@
+package com.yahoo.hive.contrib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.junit.Test;
+
+public class SketchUnionUDFTest {
+
+	private static final ObjectInspector BINARY = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+
+	@Test
+	public void test() throws Exception {
+		SketchUnionUDF udf = new SketchUnionUDF();
+		udf.initialize(new ObjectInspector[] {BINARY, BINARY, BINARY});
+		HyperLogLogPlus a = new HyperLogLogPlus(12);
+		HyperLogLogPlus b = new HyperLogLogPlus(12);
+		for (long i = 0; i < 60; i++) {
+			a.update(i);
+			b.update(i + 30);
+		}
+		BytesWritable union = udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(new BytesWritable(a.toBytes())),
+				new DeferredJavaObject(null),
+				new DeferredJavaObject(new BytesWritable(b.toBytes()))});
+		assertEquals(90L, SketchBytes.hllpp(union.getBytes(), 0, union.getLength()).cardinality());
+		assertNull(udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(null), new DeferredJavaObject(null), new DeferredJavaObject(null)}));
+	}
+
+	@Test(expected = HiveException.class)
+	public void testMixedEngines() throws Exception {
+		SketchUnionUDF udf = new SketchUnionUDF();
+		udf.initialize(new ObjectInspector[] {BINARY, BINARY});
+		HyperLogLogPlus a = new HyperLogLogPlus(12);
+		AdaptiveSketch b = new AdaptiveSketch(10);
+		a.update(1L);
+		b.update(1L);
+		udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(new BytesWritable(a.toBytes())),
+				new DeferredJavaObject(new BytesWritable(b.toBytes()))});
+	}
+}
@@ -1,6 +1,7 @@
 package com.yahoo.hive.contrib;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -9,7 +10,7 @@ import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.LongWritable;
 import org.junit.Test;
 
 public class TakeNthUDFTest {
@@ -28,11 +29,70 @@ public class TakeNthUDFTest {
 		input.add("6");
 		input.add("7");
 		input.add("8");
-		List<Text> results = udf.evaluate(new DeferredJavaObject[] {
+		List<Object> results = udf.evaluate(new DeferredJavaObject[] {
 				new DeferredJavaObject(input),
 				new DeferredJavaObject(2) });
 		assertEquals(results.size(), 3);
 		assertEquals(results.get(1).toString(), "6");
 	}
 
+	@Test
+	public void testOffsetLimitKeepsType() throws Exception{
+		TakeNthUDF udf = new TakeNthUDF();
+		ObjectInspector oi = udf.initialize(new ObjectInspector[] {
+				ObjectInspectorFactory
+						.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableLongObjectInspector),
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector });
+		assertEquals(oi.getTypeName(), "array<bigint>");
+
+		ArrayList<LongWritable> input = new ArrayList<LongWritable>();
+		for (long i = 0; i < 10; i++) {
+			input.add(new LongWritable(i));
+		}
+		List<Object> results = udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(input),
+				new DeferredJavaObject(3),
+				new DeferredJavaObject(1),
+				new DeferredJavaObject(null) });
+		assertEquals(results.size(), 3);
+		assertSame(results.get(2), input.get(7));
+
+		results = udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(input),
+				new DeferredJavaObject(3),
+				new DeferredJavaObject(1),
+				new DeferredJavaObject(2) });
+		assertEquals(results.size(), 2);
+
+		results = udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(input),
+				new DeferredJavaObject(3),
+				new DeferredJavaObject(12),
+				new DeferredJavaObject(2) });
+		assertEquals(results.size(), 0);
+	}
+
+	@Test
+	public void testLargeStride() throws Exception{
+		TakeNthUDF udf = new TakeNthUDF();
+		udf.initialize(new ObjectInspector[] {
+				ObjectInspectorFactory
+						.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+				PrimitiveObjectInspectorFactory.javaIntObjectInspector });
+
+		ArrayList<String> input = new ArrayList<String>();
+		input.add("1");
+		input.add("4");
+		input.add("6");
+		List<Object> results = udf.evaluate(new DeferredJavaObject[] {
+				new DeferredJavaObject(input),
+				new DeferredJavaObject(Integer.MAX_VALUE),
+				new DeferredJavaObject(1) });
+		assertEquals(results.size(), 1);
+		assertEquals(results.get(0), "4");
+	}
+
 }